@@ -0,0 +1,232 @@
+import java.io.*;
+import java.util.*;
+
+/**
+  * Single-pass adaptive quaternary Huffman code. The encoder and the decoder start from the same empty model and update it identically after every character,
+  * so the DNA needs no pre-scan and no code in its header, and any Reader can be compressed as it arrives, including stdin and sockets.
+  * <p>
+  * The model holds the count of every character seen so far plus an escape symbol. A character not yet in the code is written as the escape codeword followed
+  * by the character itself in LITERAL_BASES nucleotides, and keeps being escaped until the code is next rebuilt. The canonical code is rebuilt from the counts at
+  * intervals that double up to MAX_INTERVAL characters, and as many characters after a new character as the model has symbols, so rebuilding costs the same per
+  * character however large the alphabet grows. The counts are halved once their total reaches MAX_TOTAL so the code follows changes in the input.
+  */
+public class AdaptiveHuffman {
+
+  /** the symbol of the escape codeword; characters are stored as their value plus one */
+  private static final int ESCAPE = 0;
+  /** the number of nucleotides holding the value of a new character */
+  public static final int LITERAL_BASES = 8;
+  /** the number of characters before the first scheduled rebuild */
+  private static final int MIN_INTERVAL = 32;
+  /** the largest number of characters between scheduled rebuilds */
+  private static final int MAX_INTERVAL = 1 << 14;
+  /** the total count at which every count is halved */
+  private static final long MAX_TOTAL = 1L << 24;
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the index in symbols of every symbol, -1 if it has not been seen */
+  private int[] slots = new int[Character.MAX_VALUE + 2];
+  /** the symbols seen so far, the escape first */
+  private int[] symbols = new int[16];
+  /** the count of each symbol */
+  private long[] counts = new long[16];
+  /** the number of symbols seen so far */
+  private int size;
+  /** the total of the counts */
+  private long total;
+  /** the code built from the counts at the last rebuild */
+  private CanonicalCode code;
+  /** the number of characters until the next scheduled rebuild */
+  private int untilRebuild = MIN_INTERVAL;
+  /** the number of characters between scheduled rebuilds */
+  private int interval = MIN_INTERVAL;
+  /** the number of characters until the rebuild giving new characters their codewords, or 0 if no new character is waiting */
+  private int untilNewCode;
+  /** the nucleotides of the codeword being decoded so far, two bits each */
+  private long bits;
+  /** the number of nucleotides in bits */
+  private int length;
+  /** the value of the literal being decoded so far */
+  private int literal;
+  /** the number of nucleotides of the literal still to be decoded, 0 outside a literal */
+  private int literalBases;
+
+  /**
+    * Create the model both sides start from, in which the escape is the only symbol.
+    */
+  public AdaptiveHuffman() {
+    Arrays.fill(slots, -1);
+    slots[ESCAPE] = 0;
+    symbols[0] = ESCAPE;
+    counts[0] = 1;
+    size = 1;
+    total = 1;
+    rebuild();
+  }
+
+  /**
+    * Encode a character and update the model.
+    * @param c the character
+    * @param out the buffer, which must have room for CanonicalCode.MAX_LENGTH + LITERAL_BASES nucleotides
+    * @param pos the position in the buffer
+    * @return the position after the nucleotides of the character
+    */
+  public int encode(char c, char[] out, int pos) {
+    int symbol = c + 1;
+    boolean escaped = !code.contains(symbol);
+    if (escaped) {
+      pos = code.encode(ESCAPE, out, pos);
+      for (int j = LITERAL_BASES - 1; j >= 0; j--)
+        out[pos++] = NUCLEOTIDES[(c >>> (2 * j)) & 3];
+    }
+    else
+      pos = code.encode(symbol, out, pos);
+    update(symbol, escaped);
+    return pos;
+  }
+
+  /**
+    * Decode nucleotides and update the model after every character. A codeword or literal may be split between calls.
+    * @param input the nucleotides
+    * @param from the index of the first nucleotide
+    * @param to the index after the last nucleotide
+    * @param out the destination, with room for a character per nucleotide
+    * @param pos the index of the first character in the destination
+    * @return the index after the last character decoded
+    * @throws IOException if a char is not a nucleotide or the nucleotides match no codeword
+    */
+  public int decode(char[] input, int from, int to, char[] out, int pos) throws IOException {
+    for (int i = from; i < to; i++) {
+      int b = DecodeTable.base(input[i]);
+      if (b < 0)
+        throw new IOException("Invalid nucleotide: " + input[i]);
+      if (literalBases > 0) {
+        literal = (literal << 2) | b;
+        if (--literalBases == 0) {
+          out[pos++] = (char)literal;
+          update(literal + 1, true);
+        }
+        continue;
+      }
+      bits = (bits << 2) | b;
+      int symbol = code.lookup(bits, ++length);
+      if (symbol < 0) {
+        if (length == CanonicalCode.MAX_LENGTH)
+          throw new IOException("Nucleotides do not match the adaptive code.");
+        continue;
+      }
+      bits = 0;
+      length = 0;
+      if (symbol == ESCAPE) {
+        literal = 0;
+        literalBases = LITERAL_BASES;
+      }
+      else {
+        out[pos++] = (char)(symbol - 1);
+        update(symbol, false);
+      }
+    }
+    return pos;
+  }
+
+  /**
+    * Check that the nucleotides did not end inside a character.
+    * @throws IOException if they did
+    */
+  public void finish() throws IOException {
+    if (length != 0 || literalBases != 0)
+      throw new EOFException("DNA ended inside a character.");
+  }
+
+  /**
+    * Count a symbol and rebuild the code if the schedule says so or a new character has waited long enough for its codeword.
+    * @param symbol the symbol
+    * @param escaped whether the symbol was written after the escape
+    */
+  private void update(int symbol, boolean escaped) {
+    int slot = slots[symbol];
+    if (slot < 0) {
+      if (size == symbols.length) {
+        symbols = Arrays.copyOf(symbols, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      slot = size++;
+      slots[symbol] = slot;
+      symbols[slot] = symbol;
+    }
+    counts[slot]++;
+    if (++total >= MAX_TOTAL) {
+      /** The escape keeps its count of one so that new characters stay cheap to announce. */
+      total = 1;
+      for (int i = 1; i < size; i++) {
+        counts[i] = (counts[i] + 1) >>> 1;
+        total += counts[i];
+      }
+    }
+    /** Waiting as many characters as there are symbols bounds the cost of rebuilding, O(size log size), to O(log size) per character. */
+    if (escaped && untilNewCode == 0)
+      untilNewCode = size;
+    if (--untilRebuild <= 0) {
+      interval = Math.min(interval * 2, MAX_INTERVAL);
+      untilRebuild = interval;
+      rebuild();
+    }
+    else if (untilNewCode > 0 && --untilNewCode == 0)
+      rebuild();
+  }
+
+  /**
+    * Rebuild the code from the counts.
+    */
+  private void rebuild() {
+    untilNewCode = 0;
+    code = CanonicalCode.fromFrequencies(Arrays.copyOf(symbols, size), Arrays.copyOf(counts, size));
+  }
+
+  /**
+    * Compress characters as they arrive, writing the header then the nucleotides of each chunk as soon as it is read.
+    * @param in the characters
+    * @param out the destination of the DNA
+    * @throws IOException if the input cannot be read or the destination cannot be written
+    */
+  public static void compress(Reader in, Writer out) throws IOException {
+    compress(in, out, null);
+  }
+
+  /**
+    * Compress characters as they arrive, recording the characters read and nucleotides written.
+    * @param in the characters
+    * @param out the destination of the DNA
+    * @param metrics the metrics receiving the counts, or null
+    * @throws IOException if the input cannot be read or the destination cannot be written
+    */
+  public static void compress(Reader in, Writer out, CompressionMetrics metrics) throws IOException {
+    AdaptiveHuffman model = new AdaptiveHuffman();
+    String header = new StrandHeader(StrandHeader.ADAPTIVE, null).generate();
+    out.write(header);
+    out.flush();
+    long characters = 0;
+    long bases = header.length();
+    char[] buffer = new char[8192];
+    char[] dna = new char[buffer.length * (CanonicalCode.MAX_LENGTH + LITERAL_BASES)];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      int pos = 0;
+      for (int i = 0; i < n; i++)
+        pos = model.encode(buffer[i], dna, pos);
+      out.write(dna, 0, pos);
+      characters += n;
+      bases += pos;
+      /** Flush whenever the input has nothing more buffered, so a slow source is not held back. */
+      if (!in.ready())
+        out.flush();
+    }
+    out.flush();
+    if (metrics != null) {
+      metrics.setCharacters(characters);
+      metrics.setBases(bases);
+    }
+  }
+
+}
@@ -0,0 +1,264 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+  * Table of contents of a text DNA archive holding many compressed files, written by BatchCompressor. The archive starts with a StrandHeader of format
+  * ARCHIVE, followed by the DNA of every entry, each a complete strand with its own header, one after another. The table of contents follows the last entry:
+  * the number of entries, then for each entry its name, its number of characters and its number of nucleotides. As with a BlockIndex, a trailer of 32
+  * nucleotides holding the offset of the table followed by MAGIC ends the file, so the archive can be written in one pass and an entry found without reading
+  * the others.
+  */
+public class Archive {
+
+  /** the nucleotides that end an archive */
+  public static final String MAGIC = "CTAG";
+  /** the number of nucleotides in the trailer */
+  public static final int TRAILER_BASES = 32 + MAGIC.length();
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the entries in the order they were written */
+  private List<Entry> entries = new ArrayList<Entry>();
+
+  /**
+    * An entry of the archive.
+    */
+  public static class Entry {
+
+    /** the name of the entry, a relative path with "/" between directories */
+    private String name;
+    /** the number of characters, or bytes for byte DNA, of the uncompressed entry */
+    private long characters;
+    /** the offset of the entry's DNA from the start of the archive */
+    private long offset;
+    /** the number of nucleotides of the entry's DNA */
+    private long bases;
+
+    /**
+      * Constructor
+      * @param name the name of the entry
+      * @param characters the number of characters of the uncompressed entry
+      * @param offset the offset of the entry's DNA from the start of the archive
+      * @param bases the number of nucleotides of the entry's DNA
+      */
+    public Entry(String name, long characters, long offset, long bases) {
+      this.name = name;
+      this.characters = characters;
+      this.offset = offset;
+      this.bases = bases;
+    }
+
+    /**
+      * Return the name of the entry.
+      * @return the name
+      */
+    public String getName() {
+      return name;
+    }
+
+    /**
+      * Return the number of characters of the uncompressed entry.
+      * @return the characters
+      */
+    public long getCharacters() {
+      return characters;
+    }
+
+    /**
+      * Return the offset of the entry's DNA from the start of the archive.
+      * @return the nucleotide offset
+      */
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+      * Return the number of nucleotides of the entry's DNA.
+      * @return the nucleotides
+      */
+    public long getBases() {
+      return bases;
+    }
+  }
+
+  /**
+    * Return the header that starts an archive.
+    * @return the header
+    */
+  public static String header() {
+    return new StrandHeader(StrandHeader.ARCHIVE, null).generate();
+  }
+
+  /**
+    * Add an entry written after the previous one.
+    * @param entry the entry
+    */
+  public void add(Entry entry) {
+    entries.add(entry);
+  }
+
+  /**
+    * Return the entries.
+    * @return the entries in the order they were written
+    */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+    * Find an entry by name.
+    * @param name the name
+    * @return the entry, or null if the archive has no entry of that name
+    */
+  public Entry find(String name) {
+    for (Entry e : entries) {
+      if (e.name.equals(name))
+        return e;
+    }
+    return null;
+  }
+
+  /**
+    * Return the nucleotide representation of the table of contents and trailer.
+    * @param position the offset at which the table is written
+    * @return the table of contents
+    */
+  public String generate(long position) {
+    StringBuilder str = new StringBuilder();
+    StrandHeader.writeNumber(str, entries.size());
+    long offset = entries.isEmpty() ? position : entries.get(0).offset;
+    StrandHeader.writeNumber(str, offset);
+    for (Entry e : entries) {
+      StrandHeader.writeNumber(str, e.name.length());
+      for (int i = 0; i < e.name.length(); i++)
+        StrandHeader.writeNumber(str, e.name.charAt(i));
+      StrandHeader.writeNumber(str, e.characters);
+      StrandHeader.writeNumber(str, e.bases);
+    }
+    for (int j = 31; j >= 0; j--)
+      str.append(NUCLEOTIDES[(int)(position >>> (2 * j)) & 3]);
+    return str.append(MAGIC).toString();
+  }
+
+  /**
+    * Read the table of contents at the end of an archive.
+    * @param fileName the archive
+    * @return the table of contents
+    * @throws IOException if the file cannot be read or is not an archive
+    */
+  public static Archive read(String fileName) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < TRAILER_BASES)
+        throw new IOException(fileName + " is not an archive.");
+      Reader trailer = BlockIndex.reader(channel, size - TRAILER_BASES);
+      long position = 0;
+      for (int j = 0; j < 32; j++)
+        position = (position << 2) | StrandHeader.readBase(trailer);
+      char[] magic = new char[MAGIC.length()];
+      if (trailer.read(magic) != magic.length || !MAGIC.equals(new String(magic)))
+        throw new IOException(fileName + " is not an archive.");
+      if (position < 0 || position >= size)
+        throw new IOException("Archive table of contents is out of range.");
+      Reader in = BlockIndex.reader(channel, position);
+      long n = StrandHeader.readNumber(in);
+      if (n > size)
+        throw new IOException("Archive table of contents is too long.");
+      Archive archive = new Archive();
+      long offset = StrandHeader.readNumber(in);
+      for (long i = 0; i < n; i++) {
+        String name = readName(in);
+        long characters = StrandHeader.readNumber(in);
+        long bases = StrandHeader.readNumber(in);
+        if (offset + bases > position)
+          throw new IOException("Archive entry " + name + " is out of range.");
+        archive.add(new Entry(name, characters, offset, bases));
+        offset += bases;
+      }
+      return archive;
+    }
+  }
+
+  /**
+    * Read the name of an entry.
+    * @param in the table of contents
+    * @return the name
+    * @throws IOException if the name is not valid
+    */
+  private static String readName(Reader in) throws IOException {
+    long length = StrandHeader.readNumber(in);
+    if (length > Short.MAX_VALUE)
+      throw new IOException("Archive entry name is too long.");
+    StringBuilder str = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      long c = StrandHeader.readNumber(in);
+      if (c > Character.MAX_VALUE)
+        throw new IOException("Archive entry name holds an invalid character.");
+      str.append((char)c);
+    }
+    return str.toString();
+  }
+
+  /**
+    * Open the DNA of an entry, ending where the next entry starts.
+    * @param channel the archive
+    * @param entry the entry
+    * @return the DNA of the entry
+    * @throws IOException if the archive cannot be read
+    */
+  public static Reader open(FileChannel channel, Entry entry) throws IOException {
+    return new BoundedReader(BlockIndex.reader(channel, entry.offset), entry.bases);
+  }
+
+  /**
+    * Reader returning no more than a number of chars from another Reader.
+    */
+  private static class BoundedReader extends FilterReader {
+
+    /** the number of chars left */
+    private long remaining;
+
+    /**
+      * Constructor
+      * @param in the Reader
+      * @param length the number of chars to return
+      */
+    BoundedReader(Reader in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining == 0)
+        return -1;
+      int c = in.read();
+      if (c != -1)
+        remaining--;
+      return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if (remaining == 0)
+        return len == 0 ? 0 : -1;
+      int n = in.read(cbuf, off, (int)Math.min(len, remaining));
+      if (n > 0)
+        remaining -= n;
+      return n;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+      return remaining > 0 && in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,447 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+  * Compress or decompress many files in one JVM, so that thousands of small files do not each pay for starting and warming up a JVM. Entries run
+  * concurrently, each on a virtual thread where the runtime has them and on a fixed pool of platform threads otherwise, and a semaphore bounds how many run
+  * at once. Results go either to one output file per entry, keeping the directory layout, or into a single Archive with a table of contents.
+  * <p>
+  * Inputs are given as a directory, which is walked recursively, a glob such as "logs/*.txt", a list file prefixed with "@" holding one path per line, or a
+  * single file.
+  */
+public class BatchCompressor {
+
+  /** the extension of the DNA written for each entry */
+  public static final String EXTENSION = ".dna";
+
+  /** the largest number of entries in flight at once */
+  private int parallelism;
+
+  /**
+    * Constructor
+    * @param parallelism the largest number of entries compressed or decompressed at once
+    */
+  public BatchCompressor(int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    this.parallelism = parallelism;
+  }
+
+  /**
+    * Create an executor running every task on its own virtual thread, or a fixed pool of platform threads if the runtime has no virtual threads.
+    * @param threads the size of the fixed pool
+    * @return the executor
+    */
+  static ExecutorService newExecutor(int threads) {
+    try {
+      Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)virtual.invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      /** Virtual threads arrived in Java 21. */
+      return Executors.newFixedThreadPool(threads);
+    }
+  }
+
+  /**
+    * Expand a directory, glob, list file or file name into the files it names.
+    * @param spec the directory, glob, "@" followed by a list file, or file
+    * @return the files, in a stable order
+    * @throws IOException if a directory or list file cannot be read
+    */
+  public static List<Path> expand(String spec) throws IOException {
+    List<Path> files = new ArrayList<Path>();
+    if (spec.startsWith("@")) {
+      for (String line : Files.readAllLines(Paths.get(spec.substring(1)))) {
+        if (!line.trim().isEmpty())
+          files.add(Paths.get(line.trim()));
+      }
+      return files;
+    }
+    int glob = indexOfGlob(spec);
+    if (glob < 0) {
+      Path path = Paths.get(spec);
+      if (!Files.isDirectory(path))
+        return Collections.singletonList(path);
+      try (java.util.stream.Stream<Path> walk = Files.walk(path)) {
+        walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+      }
+      return files;
+    }
+    /** Walk from the directory before the first wildcard and match the rest of the pattern. */
+    int slash = spec.lastIndexOf('/', glob);
+    Path base = Paths.get(slash < 0 ? "." : spec.substring(0, slash + 1));
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec.substring(slash + 1));
+    try (java.util.stream.Stream<Path> walk = Files.walk(base)) {
+      walk.filter(p -> Files.isRegularFile(p) && matcher.matches(base.relativize(p))).sorted().forEach(files::add);
+    }
+    return files;
+  }
+
+  /**
+    * Return the index of the first wildcard of a glob.
+    * @param spec the glob
+    * @return the index, or -1 if there is none
+    */
+  private static int indexOfGlob(String spec) {
+    for (int i = 0; i < spec.length(); i++) {
+      if ("*?[{".indexOf(spec.charAt(i)) >= 0)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+    * Compress a file to DNA with a header and the canonical code of its characters, as HuffmanCompressor.huffmanCode() does.
+    * @param input the file
+    * @param out the destination of the DNA
+    * @return the number of characters and the number of nucleotides written
+    * @throws IOException if the file cannot be read or the destination cannot be written
+    */
+  public static long[] compress(Path input, Writer out) throws IOException {
+    FrequencyCounter counts = FrequencyCounter.countFile(input.toString(), ForkJoinPool.commonPool());
+    CanonicalCode code = counts.toCode();
+    String header = new StrandHeader(StrandHeader.CANONICAL, code).generate();
+    out.write(header);
+    try (Reader in = new MappedReader(input.toString())) {
+      return new long[] {counts.total(), header.length() + HuffmanCompressor.encode(in, out, code)};
+    }
+  }
+
+  /**
+    * Decompress DNA to a file, writing bytes for byte DNA and characters otherwise.
+    * @param dna the DNA, which must support mark()
+    * @param output the file
+    * @return the number of characters or bytes written
+    * @throws IOException if the DNA is not valid or the file cannot be written
+    */
+  public static long decompress(Reader dna, Path output) throws IOException {
+    if (output.getParent() != null)
+      Files.createDirectories(output.getParent());
+    if (ByteCodec.isBytes(dna)) {
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output.toFile()))) {
+        return ByteCodec.decompress(dna, out);
+      }
+    }
+    try (DnaReader in = new DnaReader(dna);
+         Writer out = new BufferedWriter(new FileWriter(output.toFile()))) {
+      char[] buffer = new char[8192];
+      long characters = 0;
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+        characters += n;
+      }
+      return characters;
+    }
+  }
+
+  /**
+    * Compress every file to its own DNA file, named after the file with EXTENSION added, under an output directory.
+    * @param inputs the files
+    * @param base the directory the names of the outputs are taken relative to
+    * @param outputDir the output directory
+    * @throws IOException if two files would have the same name, or any file fails, after every other file has been tried
+    */
+  public void compressAll(List<Path> inputs, Path base, Path outputDir) throws IOException {
+    Map<Path, String> names = names(base, inputs);
+    forEach(inputs, input -> {
+      Path output = outputDir.resolve(names.get(input) + EXTENSION);
+      if (output.getParent() != null)
+        Files.createDirectories(output.getParent());
+      try (Writer out = new BufferedWriter(new FileWriter(output.toFile()), 1 << 16)) {
+        compress(input, out);
+      }
+    });
+  }
+
+  /**
+    * Decompress every DNA file to a file named without EXTENSION under an output directory.
+    * @param inputs the DNA files
+    * @param base the directory the names of the outputs are taken relative to
+    * @param outputDir the output directory
+    * @throws IOException if two files would have the same name, or any file fails, after every other file has been tried
+    */
+  public void decompressAll(List<Path> inputs, Path base, Path outputDir) throws IOException {
+    Map<Path, String> names = names(base, inputs);
+    forEach(inputs, input -> {
+      String name = names.get(input);
+      if (name.endsWith(EXTENSION))
+        name = name.substring(0, name.length() - EXTENSION.length());
+      try (Reader dna = new BufferedReader(new FileReader(input.toFile()), 1 << 16)) {
+        decompress(dna, outputDir.resolve(name));
+      }
+    });
+  }
+
+  /**
+    * Compress every file into one Archive. Entries are compressed concurrently into memory and appended in the order given, so at most parallelism
+    * compressed entries are held at once.
+    * @param inputs the files
+    * @param base the directory the names of the entries are taken relative to
+    * @param archiveFileName the archive
+    * @return the table of contents
+    * @throws IOException if two files would have the same entry name, a file cannot be compressed or the archive cannot be written
+    */
+  public Archive archive(List<Path> inputs, Path base, String archiveFileName) throws IOException {
+    Map<Path, String> entryNames = names(base, inputs);
+    Archive archive = new Archive();
+    Semaphore permits = new Semaphore(parallelism);
+    ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+    ArrayDeque<Path> names = new ArrayDeque<Path>();
+    ArrayDeque<long[]> sizes = new ArrayDeque<long[]>();
+    ExecutorService executor = newExecutor(parallelism);
+    try (Writer out = new BufferedWriter(new FileWriter(archiveFileName), 1 << 16)) {
+      String header = Archive.header();
+      out.write(header);
+      long position = header.length();
+      for (Path input : inputs) {
+        /** Append finished entries until a permit is free, so the entries holding permits are never all waiting to be written. */
+        while (!permits.tryAcquire())
+          position = append(archive, out, position, entryNames, inFlight, names, sizes, permits);
+        long[] size = new long[2];
+        names.add(input);
+        sizes.add(size);
+        inFlight.add(executor.submit(() -> {
+          StringWriter dna = new StringWriter();
+          long[] result = compress(input, dna);
+          size[0] = result[0];
+          size[1] = result[1];
+          return dna.toString();
+        }));
+      }
+      while (!inFlight.isEmpty())
+        position = append(archive, out, position, entryNames, inFlight, names, sizes, permits);
+      out.write(archive.generate(position));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    return archive;
+  }
+
+  /**
+    * Wait for the oldest entry in flight and append it to the archive.
+    * @param archive the table of contents
+    * @param out the archive
+    * @param position the offset at which the entry is written
+    * @param entryNames the entry name of each file
+    * @param inFlight the DNA of the entries in flight, oldest first
+    * @param names the files of the entries in flight
+    * @param sizes the characters and nucleotides of the entries in flight
+    * @param permits the permits of the entries in flight
+    * @return the offset after the entry
+    * @throws IOException if the entry failed or the archive cannot be written
+    */
+  private static long append(Archive archive, Writer out, long position, Map<Path, String> entryNames, ArrayDeque<Future<String>> inFlight,
+                             ArrayDeque<Path> names, ArrayDeque<long[]> sizes, Semaphore permits) throws IOException {
+    Path input = names.poll();
+    long[] size = sizes.poll();
+    try {
+      String dna = get(inFlight.poll(), input);
+      out.write(dna);
+      archive.add(new Archive.Entry(entryNames.get(input), size[0], position, size[1]));
+      return position + dna.length();
+    }
+    finally {
+      permits.release();
+    }
+  }
+
+  /**
+    * Extract every entry of an archive to a file of the same name under an output directory, concurrently.
+    * @param archiveFileName the archive
+    * @param outputDir the output directory
+    * @throws IOException if the archive cannot be read or any entry fails, after every other entry has been tried
+    */
+  public void extract(String archiveFileName, Path outputDir) throws IOException {
+    Archive archive = Archive.read(archiveFileName);
+    List<Path> names = new ArrayList<Path>();
+    Map<Path, Archive.Entry> entries = new HashMap<Path, Archive.Entry>();
+    for (Archive.Entry e : archive.getEntries()) {
+      Path output = outputDir.resolve(e.getName()).normalize();
+      if (!output.startsWith(outputDir.normalize()))
+        throw new IOException("Archive entry " + e.getName() + " is outside the output directory.");
+      if (entries.put(output, e) != null)
+        throw new IOException("Archive entry " + e.getName() + " appears more than once.");
+      names.add(output);
+    }
+    forEach(names, output -> {
+      try (FileChannel channel = FileChannel.open(Paths.get(archiveFileName), StandardOpenOption.READ);
+           Reader dna = new BufferedReader(Archive.open(channel, entries.get(output)), 1 << 16)) {
+        decompress(dna, output);
+      }
+    });
+  }
+
+  /**
+    * The work done for each entry.
+    */
+  private interface Task {
+
+    /**
+      * Process an entry.
+      * @param path the entry
+      * @throws IOException if the entry fails
+      */
+    void run(Path path) throws IOException;
+  }
+
+  /**
+    * Run a task for every entry with at most parallelism in flight, then report every failure at once.
+    * @param paths the entries
+    * @param task the task
+    * @throws IOException if any entry failed, with the failure of each entry suppressed
+    */
+  private void forEach(List<Path> paths, Task task) throws IOException {
+    Semaphore permits = new Semaphore(parallelism);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    ExecutorService executor = newExecutor(parallelism);
+    try {
+      for (Path path : paths) {
+        permits.acquireUninterruptibly();
+        futures.add(executor.submit(() -> {
+          try {
+            task.run(path);
+            return null;
+          }
+          finally {
+            permits.release();
+          }
+        }));
+      }
+      IOException failure = null;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          get(futures.get(i), paths.get(i));
+        }
+        catch (IOException e) {
+          if (failure == null)
+            failure = new IOException("Entries failed, the first " + paths.get(i) + ": " + e.getMessage());
+          failure.addSuppressed(e);
+        }
+      }
+      if (failure != null)
+        throw failure;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+    * Wait for the task of an entry.
+    * @param future the task
+    * @param path the entry
+    * @return the result of the task
+    * @throws IOException if the task failed
+    */
+  private static <T> T get(Future<T> future, Path path) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted at " + path + ".");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw new IOException(path + ": " + e.getCause().getMessage(), e.getCause());
+      throw new IOException(path + ": " + e.getCause(), e.getCause());
+    }
+  }
+
+  /**
+    * Return the names of files relative to a base directory. A file outside the directory is named by its file name alone, so two such files may share a
+    * name, and one would overwrite the other.
+    * @param base the base directory
+    * @param files the files
+    * @return the name of each file
+    * @throws IOException if two files have the same name
+    */
+  private static Map<Path, String> names(Path base, List<Path> files) throws IOException {
+    Map<Path, String> names = new HashMap<Path, String>();
+    Map<String, Path> owners = new HashMap<String, Path>();
+    for (Path file : files) {
+      String name = name(base, file);
+      Path owner = owners.putIfAbsent(name, file);
+      if (owner != null)
+        throw new IOException(owner + " and " + file + " would both be named " + name + ".");
+      names.put(file, name);
+    }
+    return names;
+  }
+
+  /**
+    * Return the name of a file relative to a base directory, with "/" between directories.
+    * @param base the base directory
+    * @param file the file
+    * @return the name
+    */
+  private static String name(Path base, Path file) {
+    Path relative = file.toAbsolutePath().normalize();
+    Path from = base.toAbsolutePath().normalize();
+    if (relative.startsWith(from) && !relative.equals(from))
+      relative = from.relativize(relative);
+    else
+      relative = relative.getFileName();
+    return relative.toString().replace(File.separatorChar, '/');
+  }
+
+  /**
+    * Return the directory the names of entries are taken relative to: the directory itself, the directory before a glob's first wildcard, or the working
+    * directory.
+    * @param spec the input specification
+    * @return the directory
+    */
+  private static Path base(String spec) {
+    if (spec.startsWith("@"))
+      return Paths.get(".");
+    int glob = indexOfGlob(spec);
+    if (glob >= 0) {
+      int slash = spec.lastIndexOf('/', glob);
+      return Paths.get(slash < 0 ? "." : spec.substring(0, slash + 1));
+    }
+    Path path = Paths.get(spec);
+    return Files.isDirectory(path) ? path : path.toAbsolutePath().getParent();
+  }
+
+  /**
+    * Run a batch: "compress" or "decompress" every input to an output directory, "archive" them into one file, or "extract" an archive to a directory.
+    * @param args the command, the inputs or archive, the output, then optionally -parallelism n
+    */
+  public static void main(String[] args) {
+    List<String> options = Arrays.asList(args).subList(3, args.length);
+    int parallelism = options.contains("-parallelism") ? Integer.parseInt(options.get(options.indexOf("-parallelism") + 1))
+                                                       : Runtime.getRuntime().availableProcessors() * 4;
+    BatchCompressor b = new BatchCompressor(parallelism);
+    try {
+      switch (args[0]) {
+        case "compress":
+          b.compressAll(expand(args[1]), base(args[1]), Paths.get(args[2]));
+          break;
+        case "decompress":
+          b.decompressAll(expand(args[1]), base(args[1]), Paths.get(args[2]));
+          break;
+        case "archive":
+          b.archive(expand(args[1]), base(args[1]), args[2]);
+          break;
+        case "extract":
+          b.extract(args[1], Paths.get(args[2]));
+          break;
+        default:
+          System.out.println("Unknown command: " + args[0]);
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+      for (Throwable t : e.getSuppressed())
+        System.out.println("  " + t.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+  * Compress a file in fixed-size blocks on a ForkJoinPool. With a shared code, the file is first counted in parallel by a FrequencyCounter before the
+  * blocks are encoded in parallel; otherwise each block counts, builds, and writes its own code. The blocks are written in order as frames holding the number
+  * of characters, the number of nucleotides, the block's code if it has one, and the nucleotides. A frame with no characters ends the DNA.
+  */
+public class BlockCompressor {
+
+  /** default number of characters in a block */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+  /** the number of characters in a block */
+  private int blockSize;
+  /** whether every block is encoded with one code for the whole file */
+  private boolean sharedCode;
+  /** the pool running the blocks */
+  private ForkJoinPool pool;
+  /** whether to write a BlockIndex after the blocks */
+  private boolean indexed;
+
+  /**
+    * Constructor
+    * @param blockSize the number of characters in a block
+    * @param sharedCode whether to encode every block with one code for the whole file instead of one code per block
+    * @param pool the pool running the blocks
+    */
+  public BlockCompressor(int blockSize, boolean sharedCode, ForkJoinPool pool) {
+    if (blockSize < 1)
+      throw new IllegalArgumentException("Block size must be positive.");
+    this.blockSize = blockSize;
+    this.sharedCode = sharedCode;
+    this.pool = pool;
+  }
+
+  /**
+    * Create a compressor with the default block size and a shared code on the common pool.
+    */
+  public BlockCompressor() {
+    this(DEFAULT_BLOCK_SIZE, true, ForkJoinPool.commonPool());
+  }
+
+  /**
+    * Set whether to write a BlockIndex after the blocks, so that Decompressor.decompressRange() can decode only the blocks it needs.
+    * @param indexed whether to write the index
+    */
+  public void setIndexed(boolean indexed) {
+    this.indexed = indexed;
+  }
+
+  /**
+    * Compress a file.
+    * @param inputFileName the file to be read
+    * @param outputFileName the file to be outputted to
+    * @throws IOException if a file cannot be read or written
+    */
+  public void compress(String inputFileName, String outputFileName) throws IOException {
+    CanonicalCode code = sharedCode ? FrequencyCounter.countFile(inputFileName, pool).toCode() : null;
+    try (Reader in = new MappedReader(inputFileName);
+         Writer out = new BufferedWriter(new FileWriter(outputFileName), 1 << 16)) {
+      String header = new StrandHeader(StrandHeader.BLOCKS, code).generate();
+      out.write(header);
+      long position = header.length();
+      ArrayList<Long> charOffsets = new ArrayList<Long>(Arrays.asList(0L));
+      ArrayList<Long> baseOffsets = new ArrayList<Long>(Arrays.asList(position));
+      List<char[]> window;
+      while (!(window = readWindow(in)).isEmpty()) {
+        List<ForkJoinTask<char[]>> tasks = new ArrayList<ForkJoinTask<char[]>>();
+        for (char[] block : window)
+          tasks.add(pool.submit(() -> encodeBlock(block, code)));
+        for (int i = 0; i < tasks.size(); i++) {
+          char[] frame = tasks.get(i).join();
+          out.write(frame);
+          position += frame.length;
+          charOffsets.add(charOffsets.get(charOffsets.size() - 1) + window.get(i).length);
+          baseOffsets.add(position);
+        }
+      }
+      /** A frame without characters ends the DNA. */
+      out.write("AA");
+      position += 2;
+      if (indexed) {
+        long[] chars = new long[charOffsets.size()];
+        long[] bases = new long[baseOffsets.size()];
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = charOffsets.get(i);
+          bases[i] = baseOffsets.get(i);
+        }
+        out.write(new BlockIndex(chars, bases).generate(position));
+      }
+    }
+  }
+
+  /**
+    * Read as many blocks as the pool can work on at once.
+    * @param in the file
+    * @return the blocks, empty at the end of the file
+    * @throws IOException if the file cannot be read
+    */
+  private List<char[]> readWindow(Reader in) throws IOException {
+    List<char[]> window = new ArrayList<char[]>();
+    int limit = 2 * pool.getParallelism();
+    while (window.size() < limit) {
+      char[] block = new char[blockSize];
+      int n = 0;
+      int r;
+      while (n < blockSize && (r = in.read(block, n, blockSize - n)) != -1)
+        n += r;
+      if (n == 0)
+        break;
+      window.add(n == blockSize ? block : Arrays.copyOf(block, n));
+      if (n < blockSize)
+        break;
+    }
+    return window;
+  }
+
+  /**
+    * Encode a block into its frame.
+    * @param block the characters of the block
+    * @param shared the code shared by every block, or null to build one for the block
+    * @return the frame
+    */
+  private static char[] encodeBlock(char[] block, CanonicalCode shared) {
+    CanonicalCode code = shared;
+    if (code == null) {
+      FrequencyCounter counter = new FrequencyCounter();
+      counter.add(block, 0, block.length);
+      code = counter.toCode();
+    }
+    long bases = 0;
+    for (char c : block)
+      bases += code.getLength(c);
+    StringBuilder frame = new StringBuilder();
+    StrandHeader.writeNumber(frame, block.length);
+    StrandHeader.writeNumber(frame, bases);
+    if (shared == null)
+      StrandHeader.writeCode(frame, code);
+    char[] out = new char[(int)(frame.length() + bases)];
+    frame.getChars(0, frame.length(), out, 0);
+    int pos = frame.length();
+    for (char c : block)
+      pos = code.encode(c, out, pos);
+    return out;
+  }
+
+  /**
+    * Main method to run the program.
+    * @param args the input file, the output file, optionally the block size in characters, -perblock for one code per block, and -index to write a BlockIndex
+    */
+  public static void main(String[] args) {
+    int blockSize = args.length > 2 && !args[2].startsWith("-") ? Integer.parseInt(args[2]) : DEFAULT_BLOCK_SIZE;
+    boolean perBlock = Arrays.asList(args).contains("-perblock");
+    try {
+      BlockCompressor b = new BlockCompressor(blockSize, !perBlock, ForkJoinPool.commonPool());
+      b.setIndexed(Arrays.asList(args).contains("-index"));
+      b.compress(args[0], args[1]);
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+  * Index of the blocks of block-framed DNA, mapping the offset of each block's first character to the offset of its frame so that a range of characters can
+  * be decompressed without decoding the blocks before it. It is written after the frame that ends the DNA: the offset of the first frame, the number of
+  * blocks, then for each block its number of characters and the number of nucleotides in its frame. A fixed-size trailer of 32 nucleotides holding the
+  * offset of the index followed by "GATC" ends the file. Offsets count nucleotides from the start of the file, which for text DNA is also the byte offset.
+  */
+public class BlockIndex {
+
+  /** the nucleotides that end a file with an index */
+  public static final String MAGIC = "GATC";
+  /** the number of nucleotides in the trailer */
+  public static final int TRAILER_BASES = 32 + MAGIC.length();
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the offset of the first character of every block, then the total number of characters */
+  private long[] charOffsets;
+  /** the offset of the frame of every block, then the offset of the frame that ends the DNA */
+  private long[] baseOffsets;
+
+  /**
+    * Constructor
+    * @param charOffsets the offset of the first character of every block, then the total number of characters
+    * @param baseOffsets the offset of the frame of every block, then the offset of the frame that ends the DNA
+    */
+  public BlockIndex(long[] charOffsets, long[] baseOffsets) {
+    this.charOffsets = charOffsets;
+    this.baseOffsets = baseOffsets;
+  }
+
+  /**
+    * Return the number of blocks.
+    * @return the number of blocks
+    */
+  public int size() {
+    return charOffsets.length - 1;
+  }
+
+  /**
+    * Return the total number of characters in the DNA.
+    * @return the number of characters
+    */
+  public long getLength() {
+    return charOffsets[size()];
+  }
+
+  /**
+    * Return the offset of the first character of a block.
+    * @param block the block
+    * @return the character offset
+    */
+  public long getCharOffset(int block) {
+    return charOffsets[block];
+  }
+
+  /**
+    * Return the offset of the frame of a block.
+    * @param block the block
+    * @return the nucleotide offset
+    */
+  public long getBaseOffset(int block) {
+    return baseOffsets[block];
+  }
+
+  /**
+    * Find the block holding a character.
+    * @param charOffset the offset of the character
+    * @return the block, or size() if the offset is past the end
+    */
+  public int findBlock(long charOffset) {
+    int i = Arrays.binarySearch(charOffsets, charOffset);
+    /** Blocks are never empty, so an exact match is the start of that block. */
+    return i >= 0 ? Math.min(i, size()) : -i - 2;
+  }
+
+  /**
+    * Return the nucleotide representation of the index and trailer.
+    * @param position the offset at which the index is written
+    * @return the index
+    */
+  public String generate(long position) {
+    StringBuilder str = new StringBuilder();
+    StrandHeader.writeNumber(str, baseOffsets[0]);
+    StrandHeader.writeNumber(str, size());
+    for (int i = 0; i < size(); i++) {
+      StrandHeader.writeNumber(str, charOffsets[i + 1] - charOffsets[i]);
+      StrandHeader.writeNumber(str, baseOffsets[i + 1] - baseOffsets[i]);
+    }
+    for (int j = 31; j >= 0; j--)
+      str.append(NUCLEOTIDES[(int)(position >>> (2 * j)) & 3]);
+    return str.append(MAGIC).toString();
+  }
+
+  /**
+    * Read the index at the end of a text DNA file.
+    * @param fileName the file
+    * @return the index, or null if the file does not end with one
+    * @throws IOException if the file cannot be read or the index is not valid
+    */
+  public static BlockIndex read(String fileName) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < TRAILER_BASES)
+        return null;
+      Reader trailer = reader(channel, size - TRAILER_BASES);
+      long position = 0;
+      for (int j = 0; j < 32; j++)
+        position = (position << 2) | StrandHeader.readBase(trailer);
+      char[] magic = new char[MAGIC.length()];
+      if (trailer.read(magic) != magic.length || !MAGIC.equals(new String(magic)))
+        return null;
+      if (position < 0 || position >= size)
+        throw new IOException("Block index position is out of range.");
+      Reader in = reader(channel, position);
+      long base = StrandHeader.readNumber(in);
+      long blocks = StrandHeader.readNumber(in);
+      if (blocks > size)
+        throw new IOException("Block index is too long.");
+      long[] charOffsets = new long[(int)blocks + 1];
+      long[] baseOffsets = new long[(int)blocks + 1];
+      baseOffsets[0] = base;
+      for (int i = 0; i < blocks; i++) {
+        charOffsets[i + 1] = charOffsets[i] + StrandHeader.readNumber(in);
+        baseOffsets[i + 1] = baseOffsets[i] + StrandHeader.readNumber(in);
+      }
+      return new BlockIndex(charOffsets, baseOffsets);
+    }
+  }
+
+  /**
+    * Open a Reader at an offset of a text DNA file.
+    * @param channel the file
+    * @param position the offset
+    * @return the Reader
+    * @throws IOException if the file cannot be read
+    */
+  public static Reader reader(FileChannel channel, long position) throws IOException {
+    channel.position(position);
+    return new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII.newDecoder(), -1));
+  }
+
+}
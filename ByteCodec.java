@@ -0,0 +1,229 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+  * Quaternary Huffman code over raw bytes. The input is never decoded through a charset: every byte is a symbol from 0 to 255, so the counts and the code
+  * are tables of ALPHABET entries, and binary files survive a round trip unchanged.
+  * <p>
+  * The DNA starts with a StrandHeader of format BYTES, which lists the bytes that occur and their codeword lengths exactly as a CANONICAL header lists
+  * characters, followed by the codeword of every byte.
+  */
+public class ByteCodec {
+
+  /** the number of distinct bytes */
+  public static final int ALPHABET = 256;
+  /** the number of bytes read from a stream at a time */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+    * Count every byte of part of an array.
+    * @param counts the frequency of every byte, added to
+    * @param data the bytes
+    * @param from the index of the first byte
+    * @param to the index after the last byte
+    */
+  public static void count(long[] counts, byte[] data, int from, int to) {
+    for (int i = from; i < to; i++)
+      counts[data[i] & 0xFF]++;
+  }
+
+  /**
+    * Count every remaining byte of a buffer, leaving its position unchanged.
+    * @param data the bytes
+    * @return the frequency of every byte
+    */
+  public static long[] count(ByteBuffer data) {
+    long[] counts = new long[ALPHABET];
+    if (data.hasArray())
+      count(counts, data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit());
+    else {
+      for (int i = data.position(); i < data.limit(); i++)
+        counts[data.get(i) & 0xFF]++;
+    }
+    return counts;
+  }
+
+  /**
+    * Count every byte of a stream.
+    * @param in the bytes, read to the end
+    * @return the frequency of every byte
+    * @throws IOException if the stream cannot be read
+    */
+  public static long[] count(InputStream in) throws IOException {
+    long[] counts = new long[ALPHABET];
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int n;
+    while ((n = in.read(buffer)) != -1)
+      count(counts, buffer, 0, n);
+    return counts;
+  }
+
+  /**
+    * Return the canonical code for the bytes that occur.
+    * @param counts the frequency of every byte
+    * @return the code
+    */
+  public static CanonicalCode toCode(long[] counts) {
+    return toCode(counts, CanonicalCode.MAX_LENGTH);
+  }
+
+  /**
+    * Return the canonical code for the bytes that occur, with no codeword longer than a limit. Four nucleotides always suffice for 256 bytes.
+    * @param counts the frequency of every byte
+    * @param maxLength the longest codeword allowed
+    * @return the code
+    */
+  public static CanonicalCode toCode(long[] counts, int maxLength) {
+    int n = 0;
+    for (long f : counts) {
+      if (f != 0)
+        n++;
+    }
+    int[] symbols = new int[n];
+    long[] frequencies = new long[n];
+    n = 0;
+    for (int b = 0; b < ALPHABET; b++) {
+      if (counts[b] != 0) {
+        symbols[n] = b;
+        frequencies[n++] = counts[b];
+      }
+    }
+    return CanonicalCode.fromFrequencies(symbols, frequencies, maxLength);
+  }
+
+  /**
+    * Write the nucleotides of part of an array, without a header.
+    * @param data the bytes
+    * @param from the index of the first byte
+    * @param to the index after the last byte
+    * @param out the destination of the nucleotides
+    * @param code the code, which must contain every byte written
+    * @return the number of nucleotides written
+    * @throws IOException if the destination cannot be written
+    */
+  public static long encode(byte[] data, int from, int to, Writer out, CanonicalCode code) throws IOException {
+    char[] bases = new char[Math.min(to - from, BUFFER_SIZE) * CanonicalCode.MAX_LENGTH];
+    long total = 0;
+    while (from < to) {
+      int end = Math.min(to, from + BUFFER_SIZE);
+      int pos = 0;
+      for (int i = from; i < end; i++)
+        pos = code.encode(data[i] & 0xFF, bases, pos);
+      out.write(bases, 0, pos);
+      total += pos;
+      from = end;
+    }
+    return total;
+  }
+
+  /**
+    * Write the nucleotides of every remaining byte of a buffer, without a header, leaving its position unchanged.
+    * @param data the bytes
+    * @param out the destination of the nucleotides
+    * @param code the code, which must contain every byte written
+    * @return the number of nucleotides written
+    * @throws IOException if the destination cannot be written
+    */
+  public static long encode(ByteBuffer data, Writer out, CanonicalCode code) throws IOException {
+    if (data.hasArray())
+      return encode(data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit(), out, code);
+    ByteBuffer copy = data.duplicate();
+    byte[] buffer = new byte[Math.min(copy.remaining(), BUFFER_SIZE)];
+    long total = 0;
+    while (copy.hasRemaining()) {
+      int n = Math.min(buffer.length, copy.remaining());
+      copy.get(buffer, 0, n);
+      total += encode(buffer, 0, n, out, code);
+    }
+    return total;
+  }
+
+  /**
+    * Write the nucleotides of every byte of a stream, without a header.
+    * @param in the bytes, read to the end
+    * @param out the destination of the nucleotides
+    * @param code the code, which must contain every byte read
+    * @return the number of nucleotides written
+    * @throws IOException if the stream cannot be read or the destination cannot be written
+    */
+  public static long encode(InputStream in, Writer out, CanonicalCode code) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long total = 0;
+    int n;
+    while ((n = in.read(buffer)) != -1)
+      total += encode(buffer, 0, n, out, code);
+    return total;
+  }
+
+  /**
+    * Compress the remaining bytes of a buffer to DNA with a header, leaving its position unchanged.
+    * @param data the bytes
+    * @param out the destination of the DNA
+    * @return the number of nucleotides written
+    * @throws IOException if the destination cannot be written
+    */
+  public static long compress(ByteBuffer data, Writer out) throws IOException {
+    CanonicalCode code = toCode(count(data));
+    String header = new StrandHeader(StrandHeader.BYTES, code).generate();
+    out.write(header);
+    return header.length() + encode(data, out, code);
+  }
+
+  /**
+    * Decompress DNA of format BYTES.
+    * @param dna the DNA, starting with its header
+    * @param out the destination of the bytes
+    * @return the number of bytes written
+    * @throws IOException if the DNA cannot be read, is not valid or is not of format BYTES, or the destination cannot be written
+    */
+  public static long decompress(Reader dna, OutputStream out) throws IOException {
+    return decompress(new DnaReader(dna), out);
+  }
+
+  /**
+    * Decompress DNA of format BYTES whose header has already been read.
+    * @param in the DNA
+    * @param out the destination of the bytes
+    * @return the number of bytes written
+    * @throws IOException if the DNA cannot be read, is not valid or is not of format BYTES, or the destination cannot be written
+    */
+  public static long decompress(DnaReader in, OutputStream out) throws IOException {
+    if (in.getHeader().getFormat() != StrandHeader.BYTES)
+      throw new IOException("DNA does not hold bytes.");
+    char[] symbols = new char[BUFFER_SIZE];
+    byte[] bytes = new byte[BUFFER_SIZE];
+    long total = 0;
+    int n;
+    while ((n = in.read(symbols)) != -1) {
+      for (int i = 0; i < n; i++)
+        bytes[i] = (byte)symbols[i];
+      out.write(bytes, 0, n);
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+    * Tell whether DNA holds bytes, by reading its header. The Reader is reset to where it was, so it must support mark().
+    * @param dna the DNA
+    * @return true if the DNA starts with a header of format BYTES
+    * @throws IOException if the DNA cannot be read
+    */
+  public static boolean isBytes(Reader dna) throws IOException {
+    dna.mark(16);
+    try {
+      if (dna.read() != StrandHeader.PREFIX.charAt(0) || dna.read() != StrandHeader.PREFIX.charAt(1))
+        return false;
+      if (StrandHeader.readBase(dna) != 3 || StrandHeader.readBase(dna) != 3)
+        return false;
+      return StrandHeader.readNumber(dna) == StrandHeader.BYTES;
+    }
+    catch (IOException e) {
+      return false;
+    }
+    finally {
+      dna.reset();
+    }
+  }
+
+}
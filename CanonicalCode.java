@@ -0,0 +1,238 @@
+import java.util.*;
+
+/**
+  * Canonical quaternary Huffman code. Only the length of each character's nucleotide representation is taken from the Huffman Tree; the codewords are then
+  * assigned in one pass in order of length and character, two bits per nucleotide (A = 0, T = 1, C = 2, G = 3). The nucleotides of every codeword are
+  * precomputed into one char array so the encoder copies them without building Strings.
+  */
+public class CanonicalCode {
+
+  /** longest codeword that fits in a long */
+  public static final int MAX_LENGTH = 32;
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the characters in canonical order */
+  private int[] symbols;
+  /** the length of each codeword in canonical order */
+  private int[] lengths;
+  /** the codewords in canonical order */
+  private long[] codes;
+  /** the offset of each character's nucleotides in bases, indexed by character */
+  private int[] offsets;
+  /** the length of each character's codeword, indexed by character; 0 if absent */
+  private byte[] symbolLengths;
+  /** the nucleotides of every codeword */
+  private char[] bases;
+  /** the first codeword of each length */
+  private long[] firstCode = new long[MAX_LENGTH + 1];
+  /** the canonical index of the first codeword of each length */
+  private int[] firstIndex = new int[MAX_LENGTH + 1];
+  /** the number of codewords of each length */
+  private int[] lengthCount = new int[MAX_LENGTH + 1];
+
+  /**
+    * Assign canonical codewords to characters with the given codeword lengths.
+    * @param symbols the characters
+    * @param lengths the length of each character's codeword
+    * @throws IllegalArgumentException if a length is out of range or the lengths cannot form a prefix code
+    */
+  public CanonicalCode(int[] symbols, int[] lengths) {
+    int n = symbols.length;
+    long[] keys = new long[n];
+    int maxSymbol = -1;
+    for (int i = 0; i < n; i++) {
+      if (lengths[i] < 1 || lengths[i] > MAX_LENGTH)
+        throw new IllegalArgumentException("Codeword length " + lengths[i] + " out of range.");
+      keys[i] = ((long)lengths[i] << 32) | symbols[i];
+      maxSymbol = Math.max(maxSymbol, symbols[i]);
+    }
+    Arrays.sort(keys);
+    this.symbols = new int[n];
+    this.lengths = new int[n];
+    this.codes = new long[n];
+    this.offsets = new int[maxSymbol + 1];
+    this.symbolLengths = new byte[maxSymbol + 1];
+    int total = 0;
+    for (int i = 0; i < n; i++) {
+      this.symbols[i] = (int)keys[i];
+      this.lengths[i] = (int)(keys[i] >>> 32);
+      total += this.lengths[i];
+    }
+    this.bases = new char[total];
+    long code = 0;
+    int offset = 0;
+    for (int i = 0; i < n; i++) {
+      if (i > 0) {
+        if (code == -1L)
+          throw new IllegalArgumentException("Codeword lengths do not form a prefix code.");
+        code = (code + 1) << (2 * (this.lengths[i] - this.lengths[i - 1]));
+      }
+      /** The codewords run out when one no longer fits in its length. */
+      if (this.lengths[i] < MAX_LENGTH && code >>> (2 * this.lengths[i]) != 0)
+        throw new IllegalArgumentException("Codeword lengths do not form a prefix code.");
+      this.codes[i] = code;
+      if (lengthCount[this.lengths[i]]++ == 0) {
+        firstCode[this.lengths[i]] = code;
+        firstIndex[this.lengths[i]] = i;
+      }
+      int s = this.symbols[i];
+      offsets[s] = offset;
+      symbolLengths[s] = (byte)this.lengths[i];
+      for (int j = this.lengths[i] - 1; j >= 0; j--)
+        bases[offset++] = NUCLEOTIDES[(int)(code >>> (2 * j)) & 3];
+    }
+  }
+
+  /**
+    * Create the canonical code for characters with the given frequencies. Earlier characters win ties, as in HuffmanTreeBuilder.
+    * @param symbols the characters
+    * @param frequencies the frequency of each character
+    * @return the code
+    */
+  public static CanonicalCode fromFrequencies(int[] symbols, long[] frequencies) {
+    return fromFrequencies(symbols, frequencies, MAX_LENGTH);
+  }
+
+  /**
+    * Create the canonical code for characters with the given frequencies, with no codeword longer than a limit. The Huffman code is used unless it is
+    * too deep, in which case the lengths come from HuffmanTreeBuilder.limitedCodeLengths(), which costs a little compression for a bounded decoder.
+    * @param symbols the characters
+    * @param frequencies the frequency of each character
+    * @param maxLength the longest codeword allowed, at most MAX_LENGTH
+    * @return the code
+    * @throws IllegalArgumentException if the characters do not fit in codewords of that length
+    */
+  public static CanonicalCode fromFrequencies(int[] symbols, long[] frequencies, int maxLength) {
+    if (maxLength > MAX_LENGTH)
+      throw new IllegalArgumentException("Codeword length " + maxLength + " out of range.");
+    int[] lengths = HuffmanTreeBuilder.codeLengths(frequencies);
+    /** A lone character still needs one nucleotide per occurrence. */
+    if (lengths.length == 1)
+      lengths[0] = 1;
+    for (int length : lengths) {
+      if (length > maxLength) {
+        lengths = HuffmanTreeBuilder.limitedCodeLengths(frequencies, maxLength);
+        break;
+      }
+    }
+    return new CanonicalCode(symbols, lengths);
+  }
+
+  /**
+    * Return the number of characters in the code.
+    * @return the number of characters
+    */
+  public int size() {
+    return symbols.length;
+  }
+
+  /**
+    * Return the characters in canonical order.
+    * @return the characters
+    */
+  public int[] getSymbols() {
+    return symbols.clone();
+  }
+
+  /**
+    * Return the codeword lengths in canonical order.
+    * @return the lengths
+    */
+  public int[] getLengths() {
+    return lengths.clone();
+  }
+
+  /**
+    * Return the codewords in canonical order.
+    * @return the codewords, two bits per nucleotide
+    */
+  public long[] getCodes() {
+    return codes.clone();
+  }
+
+  /**
+    * Return the length of the longest codeword.
+    * @return the number of nucleotides, 0 if the code is empty
+    */
+  public int getMaxLength() {
+    return lengths.length == 0 ? 0 : lengths[lengths.length - 1];
+  }
+
+  /**
+    * Return whether a character has a codeword.
+    * @param symbol the character
+    * @return whether the character is in the code
+    */
+  public boolean contains(int symbol) {
+    return symbol >= 0 && symbol < symbolLengths.length && symbolLengths[symbol] != 0;
+  }
+
+  /**
+    * Return the length of a character's codeword.
+    * @param symbol the character
+    * @return the number of nucleotides, 0 if the character is not in the code
+    */
+  public int getLength(int symbol) {
+    return contains(symbol) ? symbolLengths[symbol] : 0;
+  }
+
+  /**
+    * Return the nucleotide representation of a character.
+    * @param symbol the character
+    * @return the nucleotides
+    */
+  public String getBinary(int symbol) {
+    return new String(bases, offsets[symbol], symbolLengths[symbol]);
+  }
+
+  /**
+    * Copy the nucleotides of a character's codeword into a buffer.
+    * @param symbol the character, which must be in the code
+    * @param out the buffer
+    * @param pos the position in the buffer
+    * @return the position after the codeword
+    */
+  public int encode(int symbol, char[] out, int pos) {
+    int length = symbolLengths[symbol];
+    System.arraycopy(bases, offsets[symbol], out, pos, length);
+    return pos + length;
+  }
+
+  /**
+    * Find the character with a codeword, for decoding one nucleotide at a time without a tree.
+    * @param code the nucleotides read so far, two bits each
+    * @param length the number of nucleotides read so far
+    * @return the character, or -1 if no codeword of that length matches
+    */
+  public int lookup(long code, int length) {
+    if (length < 1 || length > MAX_LENGTH || lengthCount[length] == 0)
+      return -1;
+    long offset = code - firstCode[length];
+    if (Long.compareUnsigned(offset, lengthCount[length]) >= 0)
+      return -1;
+    return symbols[firstIndex[length] + (int)offset];
+  }
+
+  /**
+    * Create a FlatTree whose paths are the canonical codewords, for decoding.
+    * @return the tree
+    */
+  public FlatTree toFlatTree() {
+    if (symbols.length == 0)
+      return FlatTree.of(new HuffmanNode(null, 0, null, null, null, null));
+    FlatTree tree = new FlatTree(symbols.length + symbols.length / 3 + 1);
+    for (int i = 0; i < symbols.length; i++)
+      tree.insert(codes[i], lengths[i], symbols[i]);
+    return tree;
+  }
+
+  /**
+    * Create a HuffmanTree whose paths are the canonical codewords.
+    * @return the root of the tree
+    */
+  public HuffmanNode toTree() {
+    return toFlatTree().toNode();
+  }
+
+}
@@ -0,0 +1,220 @@
+import java.util.*;
+import java.util.function.Function;
+
+/**
+  * Least-recently-used cache of codes and decode tables, so that similar inputs compressed or decompressed in one process skip building them again.
+  * <p>
+  * Codes are keyed by a fingerprint of the histogram: the characters that occur and the power of two nearest below each character's share of the total.
+  * Histograms with the same fingerprint have codes that differ little in cost, so a cached code is reused for them as long as it contains every character.
+  * Decode tables are keyed by the code itself, the characters and codeword lengths, and are only reused for an identical code.
+  */
+public class CodeCache {
+
+  /** the default number of entries of each kind */
+  public static final int DEFAULT_CAPACITY = 64;
+
+  /** the cache shared by the decoders of this process */
+  private static final CodeCache shared = new CodeCache(DEFAULT_CAPACITY);
+
+  /** the codes by histogram fingerprint, least recently used first */
+  private LinkedHashMap<Long, CanonicalCode> codes;
+  /** the decode tables by code, least recently used first */
+  private LinkedHashMap<CodeKey, DecodeTable> decodeTables;
+  /** the prefix tables by code, least recently used first */
+  private LinkedHashMap<CodeKey, PrefixTable> prefixTables;
+  /** the number of lookups answered from the cache */
+  private long hits;
+  /** the number of lookups that built a code or table */
+  private long misses;
+
+  /**
+    * Constructor
+    * @param capacity the number of codes and of decode tables kept
+    */
+  public CodeCache(int capacity) {
+    codes = lru(capacity);
+    decodeTables = lru(capacity);
+    prefixTables = lru(capacity);
+  }
+
+  /**
+    * Create a map that drops its least recently used entry once it holds more than a number of entries.
+    * @param capacity the number of entries kept
+    * @return the map
+    */
+  private static <K, V> LinkedHashMap<K, V> lru(int capacity) {
+    return new LinkedHashMap<K, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+    * Return the cache shared by the decoders of this process.
+    * @return the cache
+    */
+  public static CodeCache shared() {
+    return shared;
+  }
+
+  /**
+    * Return the code for a histogram, reusing the code of a histogram with the same fingerprint.
+    * @param counts the frequency of every character
+    * @param maxLength the longest codeword allowed
+    * @return the code
+    */
+  public CanonicalCode code(FrequencyCounter counts, int maxLength) {
+    int[] symbols = counts.symbols();
+    long[] frequencies = counts.frequencies(symbols);
+    long key = fingerprint(symbols, frequencies) * 31 + maxLength;
+    synchronized (this) {
+      CanonicalCode code = codes.get(key);
+      if (code != null && covers(code, symbols)) {
+        hits++;
+        return code;
+      }
+      misses++;
+    }
+    CanonicalCode code = CanonicalCode.fromFrequencies(symbols, frequencies, maxLength);
+    synchronized (this) {
+      codes.put(key, code);
+    }
+    return code;
+  }
+
+  /**
+    * Return the DecodeTable of a code.
+    * @param code the code
+    * @return the table
+    */
+  public DecodeTable decodeTable(CanonicalCode code) {
+    return table(decodeTables, code, c -> new DecodeTable(c.toFlatTree()));
+  }
+
+  /**
+    * Return the PrefixTable of a code.
+    * @param code the code, whose codewords must be at most PrefixTable.MAX_BASES nucleotides
+    * @return the table
+    */
+  public PrefixTable prefixTable(CanonicalCode code) {
+    return table(prefixTables, code, PrefixTable::new);
+  }
+
+  /**
+    * Return the table of a code from a map, building it on a miss. Tables are built outside the lock, so two threads may both build a missing table.
+    * @param map the tables
+    * @param code the code
+    * @param build builds the table
+    * @return the table
+    */
+  private <T> T table(LinkedHashMap<CodeKey, T> map, CanonicalCode code, Function<CanonicalCode, T> build) {
+    CodeKey key = new CodeKey(code);
+    synchronized (this) {
+      T table = map.get(key);
+      if (table != null) {
+        hits++;
+        return table;
+      }
+      misses++;
+    }
+    T table = build.apply(code);
+    synchronized (this) {
+      map.put(key, table);
+    }
+    return table;
+  }
+
+  /**
+    * Return the number of lookups answered from the cache.
+    * @return the hits
+    */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+    * Return the number of lookups that built a code or table.
+    * @return the misses
+    */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+    * Remove every entry and reset the counts.
+    */
+  public synchronized void clear() {
+    codes.clear();
+    decodeTables.clear();
+    prefixTables.clear();
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+    * Return the fingerprint of a histogram: the characters that occur and the power of two nearest below the share of each.
+    * @param symbols the characters in ascending order
+    * @param frequencies the frequency of each character
+    * @return the fingerprint
+    */
+  public static long fingerprint(int[] symbols, long[] frequencies) {
+    long total = 0;
+    for (long f : frequencies)
+      total += f;
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < symbols.length; i++) {
+      hash = (hash ^ symbols[i]) * 0x100000001b3L;
+      hash = (hash ^ Math.getExponent((double)frequencies[i] / total)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+    * Return whether a code has a codeword for every character.
+    * @param code the code
+    * @param symbols the characters
+    * @return whether every character is in the code
+    */
+  private static boolean covers(CanonicalCode code, int[] symbols) {
+    if (code.size() != symbols.length)
+      return false;
+    for (int s : symbols) {
+      if (!code.contains(s))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+    * The characters and codeword lengths of a code, which determine its decode table.
+    */
+  private static class CodeKey {
+
+    /** the characters in canonical order */
+    private int[] symbols;
+    /** the codeword lengths in canonical order */
+    private int[] lengths;
+
+    /**
+      * Constructor
+      * @param code the code
+      */
+    CodeKey(CanonicalCode code) {
+      this.symbols = code.getSymbols();
+      this.lengths = code.getLengths();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CodeKey && Arrays.equals(symbols, ((CodeKey)o).symbols) && Arrays.equals(lengths, ((CodeKey)o).lengths);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(symbols) + Arrays.hashCode(lengths);
+    }
+  }
+
+}
@@ -0,0 +1,417 @@
+import java.io.*;
+import java.util.*;
+
+/**
+  * Named, versioned static code trained from a sample corpus. DNA compressed with a trained table starts with a StrandHeader naming the table instead of
+  * listing a code, so nothing needs to be counted before encoding and the header stays a few nucleotides long however many characters the code holds.
+  * <p>
+  * As in AdaptiveHuffman, characters are stored as their value plus one and symbol 0 is an escape: a character the sample did not contain is written as the
+  * escape codeword followed by the character in LITERAL_BASES nucleotides. The escape is weighted by the number of characters seen only once in the sample,
+  * which estimates how often new characters turn up.
+  * <p>
+  * Tables are saved to files holding the name, the version and the code in the number format of StrandHeader. A decoder finds a table among those registered
+  * with register(), or else loads "name-version.table" from the directory named by the huffman.tables system property, by default the working directory.
+  */
+public class CodeTable {
+
+  /** the symbol of the escape codeword; characters are stored as their value plus one */
+  public static final int ESCAPE = 0;
+  /** the number of nucleotides holding the value of a character missing from the table */
+  public static final int LITERAL_BASES = 8;
+  /** the extension of saved tables */
+  public static final String EXTENSION = ".table";
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the tables registered with register(), by name and version */
+  private static final Map<String, CodeTable> registry = new HashMap<String, CodeTable>();
+
+  /** the name of the table */
+  private String name;
+  /** the version of the table */
+  private int version;
+  /** the code over the escape and the characters plus one */
+  private CanonicalCode code;
+
+  /**
+    * Constructor
+    * @param name the name of the table
+    * @param version the version of the table
+    * @param code the code over the escape and the characters plus one, which must contain the escape
+    * @throws IllegalArgumentException if the code has no escape or the version is negative
+    */
+  public CodeTable(String name, int version, CanonicalCode code) {
+    if (!isEscaped(code))
+      throw new IllegalArgumentException("Code table has no escape.");
+    if (version < 0)
+      throw new IllegalArgumentException("Code table version must not be negative.");
+    this.name = name;
+    this.version = version;
+    this.code = code;
+  }
+
+  /**
+    * Train a table on sample characters.
+    * @param name the name of the table
+    * @param version the version of the table
+    * @param sample the characters, read to the end
+    * @param maxLength the longest codeword allowed
+    * @return the table
+    * @throws IOException if the sample cannot be read
+    */
+  public static CodeTable train(String name, int version, Reader sample, int maxLength) throws IOException {
+    FrequencyCounter counts = new FrequencyCounter();
+    char[] buffer = new char[8192];
+    int n;
+    while ((n = sample.read(buffer)) != -1)
+      counts.add(buffer, 0, n);
+    return new CodeTable(name, version, escapedCode(counts, maxLength));
+  }
+
+  /**
+    * Build the code over the escape and the characters plus one of a sample.
+    * @param sample the frequency of every character in the sample
+    * @param maxLength the longest codeword allowed
+    * @return the code
+    */
+  public static CanonicalCode escapedCode(FrequencyCounter sample, int maxLength) {
+    FrequencyCounter counts = new FrequencyCounter();
+    long once = 0;
+    for (int s : sample.symbols()) {
+      long f = sample.get(s);
+      counts.add(s + 1, f);
+      if (f == 1)
+        once++;
+    }
+    counts.add(ESCAPE, Math.max(1, once));
+    return counts.toCode(maxLength);
+  }
+
+  /**
+    * Return whether a code has the escape codeword, as the code of a table must.
+    * @param code the code
+    * @return whether the code contains the escape
+    */
+  public static boolean isEscaped(CanonicalCode code) {
+    return code.contains(ESCAPE);
+  }
+
+  /**
+    * Return the name of the table.
+    * @return the name
+    */
+  public String getName() {
+    return name;
+  }
+
+  /**
+    * Return the version of the table.
+    * @return the version
+    */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+    * Return the code over the escape and the characters plus one.
+    * @return the code
+    */
+  public CanonicalCode getCode() {
+    return code;
+  }
+
+  /**
+    * Encode a character.
+    * @param c the character
+    * @param out the buffer, which must have room for CanonicalCode.MAX_LENGTH + LITERAL_BASES nucleotides
+    * @param pos the position in the buffer
+    * @return the position after the nucleotides of the character
+    */
+  public int encode(char c, char[] out, int pos) {
+    int symbol = c + 1;
+    if (code.contains(symbol))
+      return code.encode(symbol, out, pos);
+    pos = code.encode(ESCAPE, out, pos);
+    for (int j = LITERAL_BASES - 1; j >= 0; j--)
+      out[pos++] = NUCLEOTIDES[(c >>> (2 * j)) & 3];
+    return pos;
+  }
+
+  /**
+    * Write the nucleotides of every character read, without a header.
+    * @param in the characters
+    * @param out the destination of the nucleotides
+    * @return the number of nucleotides written
+    * @throws IOException if the input cannot be read or the destination cannot be written
+    */
+  public long encode(Reader in, Writer out) throws IOException {
+    char[] buffer = new char[8192];
+    char[] dna = new char[buffer.length * (CanonicalCode.MAX_LENGTH + LITERAL_BASES)];
+    long bases = 0;
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      int pos = 0;
+      for (int i = 0; i < n; i++)
+        pos = encode(buffer[i], dna, pos);
+      out.write(dna, 0, pos);
+      bases += pos;
+    }
+    return bases;
+  }
+
+  /**
+    * Return a decoder, which holds the state of one strand.
+    * @return the decoder
+    */
+  public Decoder decoder() {
+    return new Decoder();
+  }
+
+  /**
+    * Decoder of the nucleotides of one strand, fed a buffer at a time. Codewords are resolved with the PrefixTable of the code when its codewords are short
+    * enough, else one nucleotide per step with its DecodeTable; the nucleotides of a literal after the escape bypass the tables.
+    */
+  public class Decoder {
+
+    /** the single-level table of the code, or null if the code is decoded with table */
+    private PrefixTable prefix;
+    /** the decode table of a code too long for a PrefixTable, or null */
+    private DecodeTable table;
+    /** nucleotides collected for the next lookup in prefix */
+    private int window;
+    /** number of nucleotides in window */
+    private int windowBases;
+    /** the state of table */
+    private int state;
+    /** the value of the literal being decoded so far */
+    private int literal;
+    /** the number of nucleotides of the literal still to be decoded, 0 outside a literal */
+    private int literalBases;
+
+    /**
+      * Constructor
+      */
+    private Decoder() {
+      if (PrefixTable.fits(code))
+        prefix = CodeCache.shared().prefixTable(code);
+      else
+        table = CodeCache.shared().decodeTable(code);
+    }
+
+    /**
+      * Decode nucleotides. A codeword or literal may be split between calls.
+      * @param input the nucleotides
+      * @param from the index of the first nucleotide
+      * @param to the index after the last nucleotide
+      * @param out the destination, with room for a character per nucleotide
+      * @param pos the index of the first character in the destination
+      * @return the index after the last character decoded
+      * @throws IOException if a char is not a nucleotide or the nucleotides match no codeword
+      */
+    public int decode(char[] input, int from, int to, char[] out, int pos) throws IOException {
+      int bases = prefix != null ? prefix.getBases() : 0;
+      for (int i = from; i < to; i++) {
+        int b = DecodeTable.base(input[i]);
+        if (b < 0)
+          throw new IOException("Invalid nucleotide: " + input[i]);
+        if (literalBases > 0) {
+          literal = (literal << 2) | b;
+          if (--literalBases == 0)
+            out[pos++] = (char)literal;
+        }
+        else if (prefix != null) {
+          window = (window << 2) | b;
+          if (++windowBases == bases)
+            pos = lookup(prefix.get(window), out, pos);
+        }
+        else {
+          int entry = table.step(state, b);
+          int count;
+          try {
+            count = DecodeTable.count(entry);
+          }
+          catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+          }
+          if (count == 1)
+            pos = emit(table.stepSymbol(state, b), out, pos);
+          state = DecodeTable.next(entry);
+        }
+      }
+      return pos;
+    }
+
+    /**
+      * Decode the nucleotides left in the window once the DNA has ended, padding it to look them up.
+      * @param out the destination, with room for a character per nucleotide left
+      * @param pos the index of the first character in the destination
+      * @return the index after the last character decoded
+      * @throws IOException if the nucleotides match no codeword or the DNA ended inside a character
+      */
+    public int finish(char[] out, int pos) throws IOException {
+      while (windowBases > 0) {
+        int entry = prefix.get(window << (2 * (prefix.getBases() - windowBases)));
+        if (PrefixTable.length(entry) > windowBases)
+          throw new EOFException("DNA ended inside a character.");
+        pos = lookup(entry, out, pos);
+      }
+      if (state != 0 || literalBases > 0)
+        throw new EOFException("DNA ended inside a character.");
+      return pos;
+    }
+
+    /**
+      * Emit the character at the front of the window and drop its nucleotides. After the escape, the nucleotides left in the window start the literal.
+      * @param entry the entry of the window in prefix
+      * @param out the destination
+      * @param pos the index of the next character in the destination
+      * @return the index after the characters emitted
+      * @throws IOException if the window matches no codeword
+      */
+    private int lookup(int entry, char[] out, int pos) throws IOException {
+      if (entry == 0)
+        throw new IOException("Nucleotides do not match the code table.");
+      windowBases -= PrefixTable.length(entry);
+      pos = emit(PrefixTable.symbol(entry), out, pos);
+      while (literalBases > 0 && windowBases > 0) {
+        literal = (literal << 2) | ((window >>> (2 * --windowBases)) & 3);
+        if (--literalBases == 0)
+          out[pos++] = (char)literal;
+      }
+      window &= (1 << (2 * windowBases)) - 1;
+      return pos;
+    }
+
+    /**
+      * Emit a decoded symbol, or start a literal if it is the escape.
+      * @param symbol the symbol
+      * @param out the destination
+      * @param pos the index of the next character in the destination
+      * @return the index after the character emitted
+      */
+    private int emit(int symbol, char[] out, int pos) {
+      if (symbol != ESCAPE) {
+        out[pos++] = (char)(symbol - 1);
+        return pos;
+      }
+      literal = 0;
+      literalBases = LITERAL_BASES;
+      return pos;
+    }
+  }
+
+  /**
+    * Save the table to a file.
+    * @param fileName the file
+    * @throws IOException if the file cannot be written
+    */
+  public void save(String fileName) throws IOException {
+    StringBuilder str = new StringBuilder();
+    writeName(str, name, version);
+    StrandHeader.writeCode(str, code);
+    try (Writer out = new BufferedWriter(new FileWriter(fileName))) {
+      out.write(str.toString());
+    }
+  }
+
+  /**
+    * Load a table from a file.
+    * @param fileName the file
+    * @return the table
+    * @throws IOException if the file cannot be read or does not hold a table
+    */
+  public static CodeTable load(String fileName) throws IOException {
+    try (Reader in = new BufferedReader(new FileReader(fileName))) {
+      String name = readName(in);
+      int version = (int)Math.min(StrandHeader.readNumber(in), Integer.MAX_VALUE);
+      try {
+        return new CodeTable(name, version, StrandHeader.readCode(in));
+      }
+      catch (IllegalArgumentException e) {
+        throw new IOException(e.getMessage());
+      }
+    }
+  }
+
+  /**
+    * Append the name and version of a table.
+    * @param str the nucleotides
+    * @param name the name
+    * @param version the version
+    */
+  public static void writeName(StringBuilder str, String name, int version) {
+    StrandHeader.writeNumber(str, name.length());
+    for (int i = 0; i < name.length(); i++)
+      StrandHeader.writeNumber(str, name.charAt(i));
+    StrandHeader.writeNumber(str, version);
+  }
+
+  /**
+    * Read the name of a table, leaving its version to be read.
+    * @param in the DNA
+    * @return the name
+    * @throws IOException if the DNA cannot be read or does not hold a name
+    */
+  public static String readName(Reader in) throws IOException {
+    long length = StrandHeader.readNumber(in);
+    if (length > 1024)
+      throw new IOException("Code table name is too long.");
+    StringBuilder str = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      long c = StrandHeader.readNumber(in);
+      if (c > Character.MAX_VALUE)
+        throw new IOException("Code table name holds an invalid character.");
+      str.append((char)c);
+    }
+    return str.toString();
+  }
+
+  /**
+    * Make a table available to decoders in this process, replacing any table of the same name and version.
+    * @param table the table
+    */
+  public static synchronized void register(CodeTable table) {
+    registry.put(table.name + "-" + table.version, table);
+  }
+
+  /**
+    * Find a table registered with register(), or else load it from the directory named by the huffman.tables system property and register it.
+    * @param name the name of the table
+    * @param version the version of the table
+    * @return the table
+    * @throws IOException if the table is not registered and cannot be loaded
+    */
+  public static synchronized CodeTable find(String name, int version) throws IOException {
+    CodeTable table = registry.get(name + "-" + version);
+    if (table != null)
+      return table;
+    File file = new File(System.getProperty("huffman.tables", "."), name + "-" + version + EXTENSION);
+    if (!file.isFile())
+      throw new FileNotFoundException("Code table " + name + " version " + version + " not found.");
+    table = load(file.getPath());
+    if (!table.name.equals(name) || table.version != version)
+      throw new IOException(file + " does not hold code table " + name + " version " + version + ".");
+    register(table);
+    return table;
+  }
+
+  /**
+    * Train a table on sample files and save it as name-version.table in a directory.
+    * @param args the name, the version, the directory and the sample files
+    */
+  public static void main(String[] args) {
+    Vector<InputStream> samples = new Vector<InputStream>();
+    try {
+      for (int i = 3; i < args.length; i++)
+        samples.add(new FileInputStream(args[i]));
+      Reader sample = new BufferedReader(new InputStreamReader(new SequenceInputStream(samples.elements())));
+      CodeTable table = train(args[0], Integer.parseInt(args[1]), sample, CanonicalCode.MAX_LENGTH);
+      sample.close();
+      table.save(new File(args[2], args[0] + "-" + args[1] + EXTENSION).getPath());
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,137 @@
+import java.io.*;
+import java.net.SocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+  * Client of a CompressionServer. A client holds one connection, over which requests are sent one after another; use one client per thread.
+  */
+public class CompressionClient implements Closeable {
+
+  /** the connection */
+  private SocketChannel channel;
+  /** requests to the server */
+  private DataOutputStream out;
+  /** responses from the server */
+  private DataInputStream in;
+
+  /**
+    * Connect to a server.
+    * @param address the address of the server
+    * @throws IOException if the server cannot be reached
+    */
+  public CompressionClient(SocketAddress address) throws IOException {
+    this.channel = CompressionServer.connect(address);
+    this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+  }
+
+  /**
+    * Send a request and wait for its response.
+    * @param op the operation, one of the operations of CompressionServer
+    * @param payload the payload
+    * @return the payload of the response
+    * @throws IOException if the connection fails or the server reports a failure, with its message
+    */
+  public byte[] request(byte op, byte[] payload) throws IOException {
+    out.write(op);
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+    int status = in.read();
+    if (status == -1)
+      throw new EOFException("Server closed the connection.");
+    byte[] result = new byte[in.readInt()];
+    in.readFully(result);
+    if (status != CompressionServer.OK)
+      throw new IOException(new String(result, StandardCharsets.UTF_8));
+    return result;
+  }
+
+  /**
+    * Compress text.
+    * @param text the text
+    * @return the DNA
+    * @throws IOException if the request fails
+    */
+  public String compress(String text) throws IOException {
+    return new String(request(CompressionServer.COMPRESS, text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.US_ASCII);
+  }
+
+  /**
+    * Compress bytes.
+    * @param data the bytes
+    * @return the byte DNA
+    * @throws IOException if the request fails
+    */
+  public String compressBytes(byte[] data) throws IOException {
+    return new String(request(CompressionServer.COMPRESS_BYTES, data), StandardCharsets.US_ASCII);
+  }
+
+  /**
+    * Decompress DNA.
+    * @param dna the DNA
+    * @return the UTF-8 text, or the bytes of byte DNA
+    * @throws IOException if the request fails
+    */
+  public byte[] decompress(String dna) throws IOException {
+    return request(CompressionServer.DECOMPRESS, dna.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+    * Return the counters of the server.
+    * @return the counters as a JSON object
+    * @throws IOException if the request fails
+    */
+  public String stats() throws IOException {
+    return new String(request(CompressionServer.STATS, new byte[0]), StandardCharsets.UTF_8);
+  }
+
+  /**
+    * Close the connection.
+    * @throws IOException if the connection cannot be closed
+    */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+    * Send one request to a server.
+    * @param args the operation, "compress", "bytes", "decompress" or "stats", then for all but stats the input and output files, either of which may be "-"
+    *             for stdin or stdout, optionally followed by "-port" with a port or "-unix" with a socket file
+    */
+  public static void main(String[] args) {
+    List<String> options = Arrays.asList(args);
+    byte op;
+    switch (args[0]) {
+      case "compress": op = CompressionServer.COMPRESS; break;
+      case "bytes": op = CompressionServer.COMPRESS_BYTES; break;
+      case "decompress": op = CompressionServer.DECOMPRESS; break;
+      case "stats": op = CompressionServer.STATS; break;
+      default:
+        System.out.println("Usage: java CompressionClient compress|bytes|decompress|stats [inputFileName outputFileName] [-port n | -unix path]");
+        return;
+    }
+    try (CompressionClient client = new CompressionClient(CompressionServer.address(options))) {
+      if (op == CompressionServer.STATS) {
+        System.out.println(client.stats());
+        return;
+      }
+      byte[] payload = args[1].equals("-") ? System.in.readAllBytes() : Files.readAllBytes(Paths.get(args[1]));
+      byte[] result = client.request(op, payload);
+      if (args[2].equals("-")) {
+        System.out.write(result);
+        System.out.flush();
+      }
+      else
+        Files.write(Paths.get(args[2]), result);
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,20 @@
+/**
+  * Receives the measurements of HuffmanCompressor and Decompressor. A listener is called on the thread running the compression, so it should return quickly.
+  */
+public interface CompressionListener {
+
+  /**
+    * Called when a stage of a run finishes.
+    * @param operation "compress" or "decompress"
+    * @param stage the name of the stage
+    * @param nanos the duration of the stage in nanoseconds
+    */
+  default void stageCompleted(String operation, String stage, long nanos) {}
+
+  /**
+    * Called when a run finishes, with all of its measurements.
+    * @param metrics the measurements
+    */
+  void completed(CompressionMetrics metrics);
+
+}
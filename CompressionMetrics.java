@@ -0,0 +1,210 @@
+import java.io.*;
+import java.util.*;
+
+/**
+  * Measurements of one compression or decompression: the duration of each stage, the bytes, characters and nucleotides in and out, and the shape of the code.
+  * Filled in by HuffmanCompressor and Decompressor and handed to every CompressionListener when the run completes.
+  */
+public class CompressionMetrics {
+
+  /** "compress" or "decompress" */
+  private String operation;
+  /** the duration of each stage in nanoseconds, in the order the stages ran */
+  private LinkedHashMap<String, Long> stageNanos = new LinkedHashMap<String, Long>();
+  /** the size of the input file in bytes, -1 if it is not a file */
+  private long inputBytes = -1;
+  /** the size of the output file in bytes, -1 if it is not a file */
+  private long outputBytes = -1;
+  /** the number of characters compressed or decompressed */
+  private long characters;
+  /** the number of nucleotides written or read, including the header */
+  private long bases;
+  /** the number of distinct characters in the code, 0 if there is no single code */
+  private int alphabetSize;
+  /** the length of the longest codeword */
+  private int maxCodeLength;
+  /** the average codeword length weighted by frequency, 0 if the frequencies are unknown */
+  private double averageCodeLength;
+
+  /**
+    * Constructor
+    * @param operation "compress" or "decompress"
+    */
+  public CompressionMetrics(String operation) {
+    this.operation = operation;
+  }
+
+  /**
+    * Record the duration of a stage, adding to it if the stage ran before.
+    * @param stage the name of the stage
+    * @param nanos the duration in nanoseconds
+    */
+  public void addStage(String stage, long nanos) {
+    stageNanos.merge(stage, nanos, Long::sum);
+  }
+
+  /**
+    * Record the shape of a code.
+    * @param code the code, or null if there is no single code
+    * @param counts the frequency of every character, or null if unknown
+    */
+  public void setCode(CanonicalCode code, FrequencyCounter counts) {
+    if (code == null)
+      return;
+    alphabetSize = code.size();
+    long weighted = 0;
+    long total = 0;
+    for (int s : code.getSymbols()) {
+      maxCodeLength = Math.max(maxCodeLength, code.getLength(s));
+      if (counts != null) {
+        weighted += counts.get(s) * code.getLength(s);
+        total += counts.get(s);
+      }
+    }
+    averageCodeLength = total == 0 ? 0 : (double)weighted / total;
+  }
+
+  /**
+    * Record the sizes of the input and output files, ignoring names that are not files such as "-".
+    * @param inputFileName the input file
+    * @param outputFileName the output file
+    */
+  public void setFiles(String inputFileName, String outputFileName) {
+    File in = new File(inputFileName);
+    File out = new File(outputFileName);
+    inputBytes = in.isFile() ? in.length() : -1;
+    outputBytes = out.isFile() ? out.length() : -1;
+  }
+
+  /**
+    * Return "compress" or "decompress".
+    * @return the operation
+    */
+  public String getOperation() {
+    return operation;
+  }
+
+  /**
+    * Return the duration of each stage.
+    * @return the nanoseconds of each stage, in the order the stages ran
+    */
+  public Map<String, Long> getStageNanos() {
+    return Collections.unmodifiableMap(stageNanos);
+  }
+
+  /**
+    * Return the total duration of the stages.
+    * @return the nanoseconds
+    */
+  public long getTotalNanos() {
+    long total = 0;
+    for (long nanos : stageNanos.values())
+      total += nanos;
+    return total;
+  }
+
+  /**
+    * Return the size of the input file.
+    * @return the bytes, -1 if the input is not a file
+    */
+  public long getInputBytes() {
+    return inputBytes;
+  }
+
+  /**
+    * Return the size of the output file.
+    * @return the bytes, -1 if the output is not a file
+    */
+  public long getOutputBytes() {
+    return outputBytes;
+  }
+
+  /**
+    * Return the number of characters compressed or decompressed.
+    * @return the characters
+    */
+  public long getCharacters() {
+    return characters;
+  }
+
+  /**
+    * Set the number of characters compressed or decompressed.
+    * @param characters the characters
+    */
+  public void setCharacters(long characters) {
+    this.characters = characters;
+  }
+
+  /**
+    * Return the number of nucleotides written or read, including the header.
+    * @return the nucleotides
+    */
+  public long getBases() {
+    return bases;
+  }
+
+  /**
+    * Set the number of nucleotides written or read, including the header.
+    * @param bases the nucleotides
+    */
+  public void setBases(long bases) {
+    this.bases = bases;
+  }
+
+  /**
+    * Return the number of distinct characters in the code.
+    * @return the alphabet size, 0 if there is no single code
+    */
+  public int getAlphabetSize() {
+    return alphabetSize;
+  }
+
+  /**
+    * Return the length of the longest codeword, which is the depth of the Huffman Tree.
+    * @return the nucleotides
+    */
+  public int getMaxCodeLength() {
+    return maxCodeLength;
+  }
+
+  /**
+    * Return the average codeword length weighted by frequency.
+    * @return the nucleotides per character, 0 if the frequencies are unknown
+    */
+  public double getAverageCodeLength() {
+    return averageCodeLength;
+  }
+
+  /**
+    * Return the characters processed per second over all stages.
+    * @return the throughput
+    */
+  public double getCharactersPerSecond() {
+    long total = getTotalNanos();
+    return total == 0 ? 0 : characters * 1e9 / total;
+  }
+
+  /**
+    * Return the metrics as a JSON object on one line.
+    * @return the JSON
+    */
+  public String toJson() {
+    StringBuilder str = new StringBuilder("{\"operation\":\"").append(operation).append("\",\"stages\":{");
+    String separator = "";
+    for (Map.Entry<String, Long> e : stageNanos.entrySet()) {
+      str.append(separator).append('"').append(e.getKey()).append("\":").append(e.getValue());
+      separator = ",";
+    }
+    str.append("},\"totalNanos\":").append(getTotalNanos());
+    str.append(",\"inputBytes\":").append(inputBytes);
+    str.append(",\"outputBytes\":").append(outputBytes);
+    str.append(",\"characters\":").append(characters);
+    str.append(",\"bases\":").append(bases);
+    str.append(",\"alphabetSize\":").append(alphabetSize);
+    str.append(",\"maxCodeLength\":").append(maxCodeLength);
+    str.append(",\"averageCodeLength\":").append(averageCodeLength);
+    str.append(",\"charactersPerSecond\":").append(getCharactersPerSecond());
+    return str.append('}').toString();
+  }
+
+}
@@ -0,0 +1,79 @@
+import java.util.*;
+
+/**
+  * Management interface of the metrics published over JMX by JmxMetrics: totals over every run since registration, and the measurements of the last run.
+  */
+public interface CompressionMetricsMXBean {
+
+  /**
+    * Return the number of runs completed.
+    * @return the runs
+    */
+  long getRuns();
+
+  /**
+    * Return the number of characters processed by every run.
+    * @return the characters
+    */
+  long getTotalCharacters();
+
+  /**
+    * Return the number of nucleotides processed by every run.
+    * @return the nucleotides
+    */
+  long getTotalBases();
+
+  /**
+    * Return the time spent in each stage by every run.
+    * @return the nanoseconds of each stage
+    */
+  Map<String, Long> getTotalStageNanos();
+
+  /**
+    * Return the operation of the last run.
+    * @return "compress" or "decompress", or null before the first run
+    */
+  String getLastOperation();
+
+  /**
+    * Return the number of characters of the last run.
+    * @return the characters
+    */
+  long getLastCharacters();
+
+  /**
+    * Return the throughput of the last run.
+    * @return the characters per second
+    */
+  double getLastCharactersPerSecond();
+
+  /**
+    * Return the alphabet size of the last run.
+    * @return the number of distinct characters
+    */
+  int getLastAlphabetSize();
+
+  /**
+    * Return the depth of the tree of the last run.
+    * @return the length of the longest codeword
+    */
+  int getLastMaxCodeLength();
+
+  /**
+    * Return the average codeword length of the last run.
+    * @return the nucleotides per character
+    */
+  double getLastAverageCodeLength();
+
+  /**
+    * Return the last run as JSON.
+    * @return the JSON, or null before the first run
+    */
+  String getLastJson();
+
+  /**
+    * Forget every run.
+    */
+  void reset();
+
+}
@@ -0,0 +1,597 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+  * Long-running compression daemon, so that small files are compressed by a JVM whose codec is already compiled and whose codes are cached, instead of by a
+  * fresh JVM per file. It listens on a localhost TCP port or a Unix domain socket. One thread reads and writes every connection through a Selector and hands
+  * each complete request to a fixed pool of workers, so an idle connection costs a buffer but no thread.
+  * <p>
+  * A connection carries any number of requests, each answered in order. A request is an operation byte, the length of the payload as a four-byte integer and
+  * the payload; a response is a status byte, OK or FAILED, the length of the payload and the payload, which is the error message after FAILED. The operations
+  * are COMPRESS, whose payload is UTF-8 text answered with DNA; COMPRESS_BYTES, whose payload is any bytes answered with byte DNA; DECOMPRESS, whose payload is
+  * DNA answered with UTF-8 text or, for byte DNA, the original bytes; and STATS, with an empty payload, answered with the counters as a JSON object.
+  * <p>
+  * No more than the configured number of requests are run at once, one per worker. A request reaches a worker only once its payload has arrived, and its
+  * response is written by the selector thread, so clients that send slowly or do not read their responses hold up only their own connections. A connection
+  * reads its next request only once it has answered the last, so a client that sends faster than the server compresses is held back by TCP flow control rather
+  * than by buffering. The payloads held at once, from the first byte read to the last byte of the response written, are limited to a number of bytes: a
+  * request that does not fit waits, unread, until earlier ones are answered.
+  */
+public class CompressionServer implements Closeable {
+
+  /** the port listened on by default */
+  public static final int DEFAULT_PORT = 7457;
+  /** the largest payload accepted by default */
+  public static final int DEFAULT_MAX_PAYLOAD = 64 << 20;
+  /** the payload bytes held at once by default */
+  public static final long DEFAULT_MAX_BUFFERED = 256L << 20;
+  /** compress UTF-8 text */
+  public static final byte COMPRESS = 'C';
+  /** compress raw bytes */
+  public static final byte COMPRESS_BYTES = 'B';
+  /** decompress DNA */
+  public static final byte DECOMPRESS = 'D';
+  /** report the counters */
+  public static final byte STATS = 'S';
+  /** status of a request that succeeded */
+  public static final byte OK = 0;
+  /** status of a request that failed, followed by the message */
+  public static final byte FAILED = 1;
+
+  /** the address to listen on */
+  private SocketAddress address;
+  /** the number of requests run at once */
+  private int parallelism;
+  /** the largest payload accepted */
+  private int maxPayload = DEFAULT_MAX_PAYLOAD;
+  /** the payload bytes held at once */
+  private long maxBuffered = DEFAULT_MAX_BUFFERED;
+  /** the payload bytes of the requests being read, run or answered; used only by the selector thread */
+  private long buffered;
+  /** connections whose payloads wait for buffered bytes to be freed, in arrival order; used only by the selector thread */
+  private ArrayDeque<Connection> waiting = new ArrayDeque<Connection>();
+  /** the codes of recent requests */
+  private CodeCache codeCache = new CodeCache(CodeCache.DEFAULT_CAPACITY);
+  /** the listening channel, or null before start() */
+  private ServerSocketChannel server;
+  /** the selector of the listening channel and the connections */
+  private Selector selector;
+  /** the thread running the selector */
+  private Thread selectorThread;
+  /** whether close() has been called */
+  private volatile boolean closing;
+  /** runs the requests, one worker per request run at once */
+  private ExecutorService executor;
+  /** connections whose responses are ready, queued by the workers for the selector thread */
+  private ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+  /** the counters */
+  private Stats stats = new Stats();
+
+  /**
+    * The throughput and latency counters of a server.
+    */
+  public static class Stats {
+
+    /** when the server started */
+    private long started = System.nanoTime();
+    /** the number of connections accepted */
+    private LongAdder connections = new LongAdder();
+    /** the number of requests answered */
+    private LongAdder requests = new LongAdder();
+    /** the number of requests that failed */
+    private LongAdder failures = new LongAdder();
+    /** the number of payload bytes received */
+    private LongAdder bytesIn = new LongAdder();
+    /** the number of payload bytes sent */
+    private LongAdder bytesOut = new LongAdder();
+    /** the total time spent running requests */
+    private LongAdder totalNanos = new LongAdder();
+    /** the longest time spent running one request */
+    private AtomicLong maxNanos = new AtomicLong();
+    /** the number of requests running */
+    private AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+      * Record a finished request.
+      * @param in the payload bytes received
+      * @param out the payload bytes sent
+      * @param nanos the time spent running it
+      * @param failed whether it failed
+      */
+    void record(long in, long out, long nanos, boolean failed) {
+      requests.increment();
+      if (failed)
+        failures.increment();
+      bytesIn.add(in);
+      bytesOut.add(out);
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+      * Return the number of requests answered.
+      * @return the requests
+      */
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    /**
+      * Return the number of requests that failed.
+      * @return the failures
+      */
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    /**
+      * Return the number of payload bytes received.
+      * @return the bytes
+      */
+    public long getBytesIn() {
+      return bytesIn.sum();
+    }
+
+    /**
+      * Return the mean time spent running a request.
+      * @return the latency in microseconds
+      */
+    public double getMeanLatencyMicros() {
+      long n = requests.sum();
+      return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+    }
+
+    /**
+      * Return the counters as a JSON object.
+      * @return the JSON
+      */
+    public String toJson() {
+      double seconds = (System.nanoTime() - started) / 1e9;
+      return String.format(Locale.ROOT, "{\"connections\":%d,\"requests\":%d,\"failures\":%d,\"inFlight\":%d,\"bytesIn\":%d,\"bytesOut\":%d,"
+                           + "\"meanLatencyMicros\":%.1f,\"maxLatencyMicros\":%.1f,\"requestsPerSecond\":%.1f,\"inputMBPerSecond\":%.3f}",
+                           connections.sum(), requests.sum(), failures.sum(), inFlight.get(), bytesIn.sum(), bytesOut.sum(), getMeanLatencyMicros(),
+                           maxNanos.get() / 1000.0, requests.sum() / seconds, bytesIn.sum() / seconds / (1 << 20));
+    }
+  }
+
+  /**
+    * Constructor
+    * @param address the address to listen on: a loopback InetSocketAddress, whose port may be 0 for any free port, or a UnixDomainSocketAddress
+    * @param parallelism the number of requests run at once
+    */
+  public CompressionServer(SocketAddress address, int parallelism) {
+    this.address = address;
+    this.parallelism = parallelism;
+  }
+
+  /**
+    * Set the largest payload accepted; larger requests fail without their payload being read, and the connection is closed.
+    * @param maxPayload the number of bytes
+    */
+  public void setMaxPayload(int maxPayload) {
+    this.maxPayload = maxPayload;
+  }
+
+  /**
+    * Set the payload bytes held at once. A request larger than this is still run, but only while no other payload is held.
+    * @param maxBuffered the number of bytes
+    */
+  public void setMaxBuffered(long maxBuffered) {
+    this.maxBuffered = maxBuffered;
+  }
+
+  /**
+    * Return the counters.
+    * @return the counters
+    */
+  public Stats getStats() {
+    return stats;
+  }
+
+  /**
+    * Parse the address options shared by the server and the client.
+    * @param options "-unix" with a socket file, or "-port" with a port on the loopback interface; by default DEFAULT_PORT
+    * @return the address
+    */
+  public static SocketAddress address(List<String> options) {
+    if (options.contains("-unix"))
+      return UnixDomainSocketAddress.of(options.get(options.indexOf("-unix") + 1));
+    int port = options.contains("-port") ? Integer.parseInt(options.get(options.indexOf("-port") + 1)) : DEFAULT_PORT;
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+  }
+
+  /**
+    * Open a channel of the protocol family of an address.
+    * @param address the address
+    * @return the channel
+    * @throws IOException if the channel cannot be opened
+    */
+  static SocketChannel connect(SocketAddress address) throws IOException {
+    SocketChannel channel = SocketChannel.open(address instanceof UnixDomainSocketAddress ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+    channel.connect(address);
+    return channel;
+  }
+
+  /**
+    * Bind the address and serve connections on a background thread.
+    * @return the bound address, holding the chosen port if port 0 was asked for
+    * @throws IOException if the address cannot be bound
+    */
+  public synchronized SocketAddress start() throws IOException {
+    if (address instanceof UnixDomainSocketAddress) {
+      server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      Files.deleteIfExists(((UnixDomainSocketAddress)address).getPath());
+    }
+    else
+      server = ServerSocketChannel.open();
+    server.bind(address);
+    server.configureBlocking(false);
+    selector = Selector.open();
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    executor = Executors.newFixedThreadPool(parallelism);
+    selectorThread = new Thread(this::select, "compression-server");
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+    return server.getLocalAddress();
+  }
+
+  /**
+    * Accept connections and move their requests and responses until the server is closed, then drop the open connections.
+    */
+  private void select() {
+    try {
+      while (!closing) {
+        selector.select();
+        Connection connection;
+        while ((connection = ready.poll()) != null) {
+          if (connection.key.isValid())
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!key.isValid())
+            continue;
+          if (key.isAcceptable())
+            accept();
+          else {
+            connection = (Connection)key.attachment();
+            try {
+              if (key.isReadable())
+                connection.read();
+              else if (key.isWritable())
+                connection.write();
+            }
+            catch (IOException e) {
+              /** The client went away; its connection is simply dropped. */
+              connection.close();
+            }
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    }
+    catch (IOException e) {
+      /** The selector failed; the server stops as if it had been closed. */
+    }
+    finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Connection)
+          close(((Connection)key.attachment()).channel);
+      }
+      try {
+        selector.close();
+      }
+      catch (IOException e) {}
+    }
+  }
+
+  /**
+    * Accept the pending connections.
+    * @throws IOException if a connection cannot be set up
+    */
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = server.accept()) != null) {
+      stats.connections.increment();
+      channel.configureBlocking(false);
+      Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+  }
+
+  /**
+    * A connection, which holds the request being read or run and the response being written. Only the selector thread reads and writes it; a worker hands
+    * back the response through the ready queue.
+    */
+  private class Connection {
+
+    /** the channel */
+    private SocketChannel channel;
+    /** the key of the channel */
+    private SelectionKey key;
+    /** the operation byte and payload length of the request */
+    private ByteBuffer header = ByteBuffer.allocate(5);
+    /** the payload of the request, or null while the header is read or the payload waits for buffered bytes */
+    private ByteBuffer payload;
+    /** the bytes of buffered held by the request */
+    private int held;
+    /** the response being written, or null */
+    private ByteBuffer response;
+    /** whether to close the connection once the response is written */
+    private boolean last;
+
+    /**
+      * Constructor
+      * @param channel the channel
+      */
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+      * Read what has arrived of the request, and once it is complete stop reading and hand it to a worker.
+      * @throws IOException if the channel cannot be read
+      */
+    void read() throws IOException {
+      if (payload == null) {
+        if (channel.read(header) < 0) {
+          close();
+          return;
+        }
+        if (header.hasRemaining())
+          return;
+        int length = header.getInt(1);
+        if (length < 0 || length > maxPayload) {
+          stats.record(0, 0, 0, true);
+          last = true;
+          reply(FAILED, ("Payload of " + length + " bytes exceeds the limit of " + maxPayload + ".").getBytes(StandardCharsets.UTF_8));
+          key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+        if (buffered > 0 && buffered + length > maxBuffered) {
+          key.interestOps(0);
+          waiting.add(this);
+          return;
+        }
+        hold(length);
+      }
+      if (payload.hasRemaining() && channel.read(payload) < 0) {
+        close();
+        return;
+      }
+      if (payload.hasRemaining())
+        return;
+      byte op = header.get(0);
+      byte[] data = payload.array();
+      header.clear();
+      payload = null;
+      key.interestOps(0);
+      try {
+        executor.execute(() -> run(op, data));
+      }
+      catch (RejectedExecutionException e) {
+        close();
+      }
+    }
+
+    /**
+      * Take bytes of buffered for the payload and allocate it.
+      * @param length the payload length
+      */
+    private void hold(int length) {
+      buffered += length;
+      held = length;
+      payload = ByteBuffer.allocate(length);
+    }
+
+    /**
+      * Free the bytes the request holds and let the waiting connections that now fit read their payloads, oldest first.
+      */
+    private void release() {
+      buffered -= held;
+      held = 0;
+      Connection next;
+      while ((next = waiting.peek()) != null) {
+        int length = next.header.getInt(1);
+        if (next.key.isValid() && buffered > 0 && buffered + length > maxBuffered)
+          return;
+        waiting.remove();
+        if (next.key.isValid()) {
+          next.hold(length);
+          next.key.interestOps(SelectionKey.OP_READ);
+        }
+      }
+    }
+
+    /**
+      * Close the channel and free the bytes the request holds.
+      */
+    void close() {
+      CompressionServer.close(channel);
+      release();
+    }
+
+    /**
+      * Run a request on a worker and queue its response for the selector thread.
+      * @param op the operation
+      * @param data the payload
+      */
+    private void run(byte op, byte[] data) {
+      byte[] result;
+      byte status = OK;
+      stats.inFlight.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        result = CompressionServer.this.run(op, data);
+      }
+      catch (IOException | RuntimeException e) {
+        status = FAILED;
+        result = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+      }
+      finally {
+        stats.inFlight.decrementAndGet();
+      }
+      stats.record(data.length, result.length, System.nanoTime() - start, status == FAILED);
+      reply(status, result);
+      ready.add(this);
+      selector.wakeup();
+    }
+
+    /**
+      * Set the response to write.
+      * @param status OK or FAILED
+      * @param data the payload
+      */
+    private void reply(byte status, byte[] data) {
+      response = ByteBuffer.allocate(5 + data.length);
+      response.put(status).putInt(data.length).put(data).flip();
+    }
+
+    /**
+      * Write what the channel takes of the response, and once it is written read the next request.
+      * @throws IOException if the channel cannot be written
+      */
+    void write() throws IOException {
+      channel.write(response);
+      if (response.hasRemaining())
+        return;
+      response = null;
+      if (last)
+        close();
+      else {
+        release();
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+  }
+
+  /**
+    * Run a request.
+    * @param op the operation
+    * @param payload the payload
+    * @return the payload of the response
+    * @throws IOException if the payload is not valid for the operation
+    */
+  private byte[] run(byte op, byte[] payload) throws IOException {
+    switch (op) {
+      case COMPRESS:
+        return compress(new String(payload, StandardCharsets.UTF_8));
+      case COMPRESS_BYTES: {
+        StringWriter dna = new StringWriter();
+        ByteCodec.compress(ByteBuffer.wrap(payload), dna);
+        return dna.toString().getBytes(StandardCharsets.US_ASCII);
+      }
+      case DECOMPRESS:
+        return decompress(payload);
+      case STATS:
+        return stats.toJson().getBytes(StandardCharsets.UTF_8);
+      default:
+        throw new IOException("Unknown operation " + op + ".");
+    }
+  }
+
+  /**
+    * Compress text with a canonical code, reusing the code of a recent request with a similar histogram.
+    * @param text the text
+    * @return the DNA
+    * @throws IOException never, as the DNA is written to memory
+    */
+  private byte[] compress(String text) throws IOException {
+    char[] chars = text.toCharArray();
+    FrequencyCounter counts = new FrequencyCounter();
+    counts.add(chars, 0, chars.length);
+    CanonicalCode code = codeCache.code(counts, CanonicalCode.MAX_LENGTH);
+    StringWriter dna = new StringWriter();
+    dna.write(new StrandHeader(StrandHeader.CANONICAL, code).generate());
+    HuffmanCompressor.encode(new CharArrayReader(chars), dna, code);
+    return dna.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+    * Decompress DNA to UTF-8 text, or to bytes for byte DNA.
+    * @param payload the DNA
+    * @return the text or bytes
+    * @throws IOException if the DNA is not valid
+    */
+  private static byte[] decompress(byte[] payload) throws IOException {
+    Reader dna = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.US_ASCII));
+    if (ByteCodec.isBytes(dna)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ByteCodec.decompress(dna, bytes);
+      return bytes.toByteArray();
+    }
+    StringWriter text = new StringWriter();
+    try (Reader in = new DnaReader(dna)) {
+      in.transferTo(text);
+    }
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+    * Close a connection, ignoring failures.
+    * @param channel the connection
+    */
+  private static void close(SocketChannel channel) {
+    try {
+      channel.close();
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+    * Stop accepting connections and drop the open ones.
+    * @throws IOException if the listening channel cannot be closed
+    */
+  @Override
+  public synchronized void close() throws IOException {
+    if (server == null)
+      return;
+    closing = true;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    server.close();
+    executor.shutdownNow();
+    if (address instanceof UnixDomainSocketAddress)
+      Files.deleteIfExists(((UnixDomainSocketAddress)address).getPath());
+    server = null;
+  }
+
+  /**
+    * Run a server until the process is killed.
+    * @param args "-port" with a port or "-unix" with a socket file, and "-parallelism" with the number of requests run at once
+    */
+  public static void main(String[] args) {
+    List<String> options = Arrays.asList(args);
+    int parallelism = options.contains("-parallelism") ? Integer.parseInt(options.get(options.indexOf("-parallelism") + 1))
+                                                       : Runtime.getRuntime().availableProcessors();
+    CompressionServer server = new CompressionServer(address(options), parallelism);
+    try {
+      System.out.println("Listening on " + server.start());
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          server.close();
+        }
+        catch (IOException e) {}
+      }));
+      Thread.currentThread().join();
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -1,3 +1,4 @@
+import java.io.*;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -59,6 +60,27 @@ public class CompressionTester {
     assertEquals(1, h.getReadArray()['!'].getFrequency());
   }
 
+  /**
+    * Test parallel and sparse counting in FrequencyCounter.
+    */
+  @Test
+  public void testFrequencyCounter() {
+    char[] data = new char[1 << 20];
+    for (int i = 0; i < data.length; i++)
+      data[i] = (char)((i * 2654435761L) % 300);
+    FrequencyCounter sequential = new FrequencyCounter();
+    sequential.add(data, 0, data.length);
+    FrequencyCounter parallel = FrequencyCounter.count(data, 0, data.length, java.util.concurrent.ForkJoinPool.commonPool());
+    assertArrayEquals(sequential.symbols(), parallel.symbols());
+    assertArrayEquals(sequential.frequencies(sequential.symbols()), parallel.frequencies(parallel.symbols()));
+    parallel.add(0x1F600);
+    parallel.add(0x1F600);
+    parallel.add(0x20000);
+    assertEquals(2, parallel.get(0x1F600));
+    assertEquals(1, parallel.get(0x20000));
+    assertEquals(0x20000, parallel.symbols()[parallel.symbols().length - 1]);
+  }
+
   /**
     * Test the merge() method of HuffmanCompressor.
     */
@@ -83,8 +105,952 @@ public class CompressionTester {
       */
       @Test
       public void testCreateTree() {
+        int[] freqs = {5, 1, 1, 3, 8, 2, 2, 13, 1, 4, 4, 21, 3};
         HuffmanCompressor h = new HuffmanCompressor("testInputFile", "testOutputFile");
+        java.util.ArrayList<HuffmanNode> sorted = new java.util.ArrayList<HuffmanNode>();
+        for (int i = 0; i < freqs.length; i++)
+          sorted.add(new HuffmanNode((char)('a' + i), freqs[i], null, null, null, null));
+        java.util.Collections.sort(sorted, (h1, h2) -> h1.compareTo(h2));
+        h.getReadList().addAll(sorted);
+        h.createTree();
+        assertEquals(1, h.getReadList().size());
+        /** Build the same tree by sorting after every merge. */
+        java.util.ArrayList<HuffmanNode> list = new java.util.ArrayList<HuffmanNode>();
+        for (HuffmanNode n : sorted)
+          list.add(new HuffmanNode(n.getChar(), n.getFrequency(), null, null, null, null));
+        while (list.size() % 3 != 1)
+          list.add(new HuffmanNode(null, 0, null, null, null, null));
+        java.util.Collections.sort(list, (h1, h2) -> h1.compareTo(h2));
+        while (list.size() > 1) {
+          list.add(h.merge(list.get(0), list.get(1), list.get(2), list.get(3)));
+          list.subList(0, 4).clear();
+          java.util.Collections.sort(list, (h1, h2) -> h1.compareTo(h2));
+        }
+        assertEquals(shape(list.get(0)), shape(h.getReadList().get(0)));
+        long[] weights = new long[freqs.length];
+        for (int i = 0; i < freqs.length; i++)
+          weights[i] = sorted.get(i).getFrequency();
+        int[] lengths = HuffmanTreeBuilder.codeLengths(weights);
+        for (int i = 0; i < freqs.length; i++)
+          assertEquals(depth(h.getReadList().get(0), sorted.get(i).getChar(), 0), lengths[i]);
+      }
+
+    /**
+      * Describe the shape and leaves of a tree.
+      * @param node the root
+      * @return the description
+      */
+      private static String shape(HuffmanNode node) {
+        if (node.one == null)
+          return node.getChar() + ":" + node.getFrequency();
+        return "(" + shape(node.one) + " " + shape(node.two) + " " + shape(node.three) + " " + shape(node.four) + ")";
+      }
+
+    /**
+      * Find the depth of a character in a tree.
+      * @param node the root
+      * @param c the character
+      * @param depth the depth of the root
+      * @return the depth, or -1 if the character is not in the tree
+      */
+      private static int depth(HuffmanNode node, Character c, int depth) {
+        if (node.one == null)
+          return c.equals(node.getChar()) ? depth : -1;
+        for (HuffmanNode child : new HuffmanNode[] {node.one, node.two, node.three, node.four}) {
+          int d = depth(child, c, depth + 1);
+          if (d != -1)
+            return d;
+        }
+        return -1;
+      }
+
+    /**
+      * Test the codewords assigned by CanonicalCode.
+      */
+      @Test
+      public void testCanonicalCode() {
+        int[] symbols = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
+        long[] freqs = {40, 1, 2, 30, 5, 5, 8, 9};
+        CanonicalCode code = CanonicalCode.fromFrequencies(symbols, freqs);
+        int[] lengths = HuffmanTreeBuilder.codeLengths(freqs);
+        for (int i = 0; i < symbols.length; i++) {
+          assertEquals(lengths[i], code.getLength(symbols[i]));
+          for (int j = 0; j < symbols.length; j++) {
+            if (i != j)
+              assertFalse(code.getBinary(symbols[j]).startsWith(code.getBinary(symbols[i])));
+          }
+        }
+        assertEquals("A", code.getBinary('a'));
+        assertEquals("A", CanonicalCode.fromFrequencies(new int[] {'z'}, new long[] {7}).getBinary('z'));
+        try {
+          new CanonicalCode(new int[] {1, 2, 3, 4, 5}, new int[] {1, 1, 1, 1, 1});
+          fail("Five codewords of one nucleotide cannot form a prefix code");
+        }
+        catch (IllegalArgumentException e) {}
+      }
+
+    /**
+      * Test that a FlatTree follows every canonical codeword to its character, also after conversion to and from HuffmanNodes.
+      */
+      @Test
+      public void testFlatTree() {
+        int[] symbols = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
+        CanonicalCode code = CanonicalCode.fromFrequencies(symbols, new long[] {40, 1, 2, 30, 5, 5, 8, 9});
+        FlatTree tree = code.toFlatTree();
+        FlatTree copy = FlatTree.of(tree.toNode());
+        assertEquals(tree.size(), copy.size());
+        for (FlatTree t : new FlatTree[] {tree, copy}) {
+          for (int s : symbols) {
+            int node = 0;
+            for (char c : code.getBinary(s).toCharArray()) {
+              assertFalse(t.isLeaf(node));
+              node = t.child(node, DecodeTable.base(c));
+            }
+            assertTrue(t.isLeaf(node));
+            assertEquals(s, t.symbol(node));
+          }
+        }
+      }
+
+    /**
+      * Test that a StrandHeader reads back the code it was generated from.
+      */
+      @Test
+      public void testStrandHeader() throws IOException {
+        StringBuilder str = new StringBuilder();
+        StrandHeader.writeNumber(str, 1234567890123L);
+        assertEquals(1234567890123L, StrandHeader.readNumber(new StringReader(str.toString())));
+        CanonicalCode code = CanonicalCode.fromFrequencies(new int[] {'a', 'b', 0x4e2d, 0xd83d, 0xde00}, new long[] {9, 3, 3, 1, 1});
+        String header = new StrandHeader(StrandHeader.CANONICAL, code).generate();
+        assertTrue(header.startsWith(StrandHeader.PREFIX + StrandHeader.MAGIC));
+        assertTrue("Header should only list characters that occur", header.length() < 60);
+        Reader in = new StringReader(header);
+        in.skip(StrandHeader.PREFIX.length());
+        StrandHeader read = StrandHeader.read(in);
+        assertEquals(StrandHeader.CANONICAL, read.getFormat());
+        assertArrayEquals(code.getSymbols(), read.getCode().getSymbols());
+        assertArrayEquals(code.getLengths(), read.getCode().getLengths());
+        assertEquals(-1, in.read());
+      }
+
+    /**
+      * Test that the table-driven decoder of Decompressor matches the tree walk.
+      */
+      @Test
+      public void testDecompressTable() throws IOException {
+        File input = writeTempFile("the quick brown fox jumps over the lazy dog, \u00e9\u4e2d! 0123456789 zzzzzzzzzz");
+        File output = File.createTempFile("compressed", ".txt");
+        new HuffmanCompressor(input.getPath(), output.getPath()).huffmanCode(input.getPath(), output.getPath());
+        Decompressor walk = new Decompressor();
+        walk.readFile(output.getPath());
+        walk.decodeBarcode();
+        walk.createTree();
+        walk.decompress();
+        Decompressor table = new Decompressor();
+        table.readFile(output.getPath());
+        table.decodeBarcode();
+        table.createTree();
+        table.decompressTable();
+        assertEquals(walk.getWriteList(), table.getWriteList());
+        assertEquals(readFile(input), toString(table.getWriteList()));
+      }
+
+    /**
+      * Test that a DnaReader streams the same characters that were compressed.
+      */
+      @Test
+      public void testDnaReader() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+          text.append((char)('a' + (i * i) % 26));
+        File input = writeTempFile(text.toString());
+        File output = File.createTempFile("compressed", ".txt");
+        new HuffmanCompressor(input.getPath(), output.getPath()).huffmanCode(input.getPath(), output.getPath());
+        DnaReader in = new DnaReader(new FileReader(output));
+        StringBuilder str = new StringBuilder();
+        int x;
+        while ((x = in.read()) != -1)
+          str.append((char)x);
+        in.close();
+        assertEquals(text.toString(), str.toString());
+        /** DNA cut inside the last character fails, with a code decoded by its DecodeTable and with one short enough for a PrefixTable. */
+        int[] symbols = new int[31];
+        int[] lengths = new int[31];
+        for (int i = 0; i < 31; i++) {
+          symbols[i] = 'A' + i;
+          lengths[i] = Math.min(i / 3 + 1, 10);
+        }
+        long[] counts = new long[31];
+        java.util.Arrays.fill(counts, 1);
+        for (CanonicalCode code : new CanonicalCode[] {new CanonicalCode(symbols, lengths), CanonicalCode.fromFrequencies(symbols, counts)}) {
+          int longest = 0;
+          for (int i = 0; i < code.size(); i++) {
+            if (code.getLengths()[i] == code.getMaxLength())
+              longest = code.getSymbols()[i];
+          }
+          StringWriter dna = new StringWriter();
+          HuffmanCompressor.encode(new StringReader("ABCXYZ" + (char)longest), dna, code);
+          String header = new StrandHeader(StrandHeader.CANONICAL, code).generate();
+          int cut = 1;
+          for (; cut < code.getMaxLength(); cut++) {
+            try (DnaReader truncated = new DnaReader(new StringReader(header + dna.toString().substring(0, dna.toString().length() - cut)))) {
+              while (truncated.read() != -1);
+              fail();
+            }
+            catch (EOFException e) {
+              assertEquals("DNA ended inside a character.", e.getMessage());
+            }
+          }
+          assertTrue(cut > 1);
+        }
+      }
+
+    /**
+      * Test conversion to and from a PackedStrand and decompression of the packed DNA.
+      */
+      @Test
+      public void testPackedStrand() throws IOException {
+        File input = writeTempFile("packed strands hold four nucleotides per byte: ACGT ACGT ACGT");
+        File text = File.createTempFile("compressed", ".txt");
+        new HuffmanCompressor(input.getPath(), text.getPath()).huffmanCode(input.getPath(), text.getPath());
+        File packed = File.createTempFile("compressed", ".dna2");
+        PackedStrand.pack(text.getPath(), packed.getPath());
+        assertTrue(PackedStrand.isPacked(packed.getPath()));
+        assertFalse(PackedStrand.isPacked(text.getPath()));
+        File unpacked = File.createTempFile("unpacked", ".txt");
+        PackedStrand.unpack(packed.getPath(), unpacked.getPath());
+        assertEquals(readFile(text), readFile(unpacked));
+        assertEquals(text.length(), new PackedStrand(packed.getPath()).getBases());
+        File output = File.createTempFile("output", ".txt");
+        new Decompressor().execute(packed.getPath(), output.getPath());
+        assertEquals(readFile(input), readFile(output));
+      }
+
+    /**
+      * Test that block-framed DNA decompresses to the original, with shared and per-block codes.
+      */
+      @Test
+      public void testBlockCompressor() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+          text.append(i % 7 == 0 ? '\n' : (char)('a' + (i * 31) % 26));
+        File input = writeTempFile(text.toString());
+        for (boolean shared : new boolean[] {true, false}) {
+          File output = File.createTempFile("compressed", ".txt");
+          new BlockCompressor(333, shared, java.util.concurrent.ForkJoinPool.commonPool()).compress(input.getPath(), output.getPath());
+          File decompressed = File.createTempFile("output", ".txt");
+          new Decompressor().execute(output.getPath(), decompressed.getPath());
+          assertEquals(text.toString(), readFile(decompressed));
+          File parallel = File.createTempFile("output", ".txt");
+          new Decompressor().executeParallel(output.getPath(), parallel.getPath(), 3);
+          assertEquals(text.toString(), readFile(parallel));
+        }
+      }
+
+    /**
+      * Test decompression of character ranges through a BlockIndex.
+      */
+      @Test
+      public void testDecompressRange() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+          text.append((char)('a' + (i * 7 + i / 26) % 26));
+        File input = writeTempFile(text.toString());
+        for (boolean shared : new boolean[] {true, false}) {
+          File output = File.createTempFile("compressed", ".txt");
+          BlockCompressor b = new BlockCompressor(250, shared, java.util.concurrent.ForkJoinPool.commonPool());
+          b.setIndexed(true);
+          b.compress(input.getPath(), output.getPath());
+          assertEquals(text.substring(0, 10), new Decompressor().decompressRange(output.getPath(), 0, 10));
+          assertEquals(text.substring(240, 1010), new Decompressor().decompressRange(output.getPath(), 240, 770));
+          assertEquals(text.substring(2990), new Decompressor().decompressRange(output.getPath(), 2990, 100));
+          assertEquals("", new Decompressor().decompressRange(output.getPath(), 5000, 10));
+          File decompressed = File.createTempFile("output", ".txt");
+          new Decompressor().execute(output.getPath(), decompressed.getPath());
+          assertEquals(text.toString(), readFile(decompressed));
+        }
+      }
+
+    /**
+      * Test that adaptive DNA written in a single pass from a Reader decodes to the original, including characters first seen late in the input.
+      */
+      @Test
+      public void testAdaptiveHuffman() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40000; i++)
+          text.append(i < 20000 ? (char)('a' + (i * i) % 5) : (char)('\u4e00' + (i * 13) % 300));
+        StringWriter dna = new StringWriter();
+        AdaptiveHuffman.compress(new StringReader(text.toString()), dna);
+        assertTrue(dna.toString().startsWith(new StrandHeader(StrandHeader.ADAPTIVE, null).generate()));
+        DnaReader in = new DnaReader(new StringReader(dna.toString()));
+        StringBuilder str = new StringBuilder();
+        int x;
+        while ((x = in.read()) != -1)
+          str.append((char)x);
+        in.close();
+        assertEquals(text.toString(), str.toString());
+        StringWriter empty = new StringWriter();
+        AdaptiveHuffman.compress(new StringReader(""), empty);
+        assertEquals(-1, new DnaReader(new StringReader(empty.toString())).read());
+      }
+
+    /**
+      * Test that adaptive DNA over a large alphabet round-trips without rebuilding the code for every new character, which took tens of seconds here.
+      */
+      @Test(timeout = 10000)
+      public void testAdaptiveLargeAlphabet() throws IOException {
+        StringBuilder text = new StringBuilder();
+        java.util.Random random = new java.util.Random(3);
+        for (int i = 0; i < 300000; i++)
+          text.append((char)('\u4e00' + (int)Math.abs(random.nextGaussian() * 5000) % 20000));
+        StringWriter dna = new StringWriter();
+        AdaptiveHuffman.compress(new StringReader(text.toString()), dna);
+        DnaReader in = new DnaReader(new StringReader(dna.toString()));
+        StringBuilder str = new StringBuilder();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1)
+          str.append(buffer, 0, n);
+        in.close();
+        assertEquals(text.toString(), str.toString());
+      }
+
+    /**
+      * Test that compression and decompression report their stages and measurements to listeners and over JMX.
+      */
+      @Test
+      public void testMetrics() throws Exception {
+        File input = writeTempFile("aaaaaaaabbbbccde");
+        File output = File.createTempFile("compressed", ".txt");
+        File json = File.createTempFile("metrics", ".json");
+        json.delete();
+        final java.util.List<CompressionMetrics> runs = new java.util.ArrayList<CompressionMetrics>();
+        JmxMetrics jmx = JmxMetrics.register();
+        jmx.reset();
+        HuffmanCompressor h = new HuffmanCompressor(input.getPath(), output.getPath());
+        h.addListener(runs::add);
+        h.addListener(jmx);
+        h.addListener(new JsonMetricsListener(json.getPath()));
+        h.huffmanCode(input.getPath(), output.getPath());
+        CompressionMetrics m = runs.get(0);
+        assertEquals("compress", m.getOperation());
+        assertEquals(java.util.Arrays.asList("count", "code", "encode"), new java.util.ArrayList<String>(m.getStageNanos().keySet()));
+        assertEquals(16, m.getCharacters());
+        assertEquals(5, m.getAlphabetSize());
+        assertEquals(2, m.getMaxCodeLength());
+        assertEquals((8 + 4 + 2 + 2 * 2) / 16.0, m.getAverageCodeLength(), 1e-9);
+        assertEquals(output.length(), m.getBases());
+        Decompressor d = new Decompressor();
+        d.addListener(runs::add);
+        d.addListener(jmx);
+        d.execute(output.getPath(), File.createTempFile("output", ".txt").getPath());
+        assertEquals("decompress", runs.get(1).getOperation());
+        assertEquals(16, runs.get(1).getCharacters());
+        javax.management.ObjectName name = new javax.management.ObjectName(JmxMetrics.OBJECT_NAME);
+        assertEquals(2L, java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Runs"));
+        assertEquals(32L, java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TotalCharacters"));
+        assertTrue(readFile(json).startsWith("{\"operation\":\"compress\",\"stages\":{\"count\":"));
+      }
+
+    /**
+      * Test that the Pipeline delivers every character in order through small buffers, and that a failing stage reaches the caller.
+      */
+      @Test
+      public void testPipeline() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+          text.append((char)('a' + (i * 7) % 26));
+        StringWriter dna = new StringWriter();
+        char[] chars = text.toString().toCharArray();
+        CanonicalCode code = FrequencyCounter.count(chars, 0, chars.length, java.util.concurrent.ForkJoinPool.commonPool()).toCode();
+        Pipeline.run(new StringReader(text.toString()), dna, (in, out) -> HuffmanCompressor.encode(in, out, code), 100, 2);
+        StringWriter direct = new StringWriter();
+        HuffmanCompressor.encode(new StringReader(text.toString()), direct, code);
+        assertEquals(direct.toString(), dna.toString());
+        try {
+          Pipeline.run(new StringReader(text.toString()), new StringWriter(), (in, out) -> {
+            in.read();
+            throw new IOException("stage failed");
+          }, 100, 2);
+          fail();
+        }
+        catch (IOException e) {
+          assertEquals("stage failed", e.getMessage());
+        }
+      }
+
+    /**
+      * Test that every byte value, including ones that are not valid in any charset, survives compression in byte mode from a file and from a buffer.
+      */
+      @Test
+      public void testByteCodec() throws IOException {
+        byte[] data = new byte[50000];
+        for (int i = 0; i < data.length; i++)
+          data[i] = (byte)(i % 7 == 0 ? i * 31 : i % 3 - 1);
+        File input = File.createTempFile("input", ".bin");
+        File output = File.createTempFile("compressed", ".txt");
+        File decompressed = File.createTempFile("output", ".bin");
+        java.nio.file.Files.write(input.toPath(), data);
+        new HuffmanCompressor(input.getPath(), output.getPath()).byteCode(input.getPath(), output.getPath());
+        new Decompressor().execute(output.getPath(), decompressed.getPath());
+        assertArrayEquals(data, java.nio.file.Files.readAllBytes(decompressed.toPath()));
+        StringWriter dna = new StringWriter();
+        ByteCodec.compress(java.nio.ByteBuffer.wrap(data), dna);
+        assertEquals(readFile(output), dna.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(data.length, ByteCodec.decompress(new StringReader(dna.toString()), bytes));
+        assertArrayEquals(data, bytes.toByteArray());
+        assertTrue(ByteCodec.toCode(ByteCodec.count(java.nio.ByteBuffer.wrap(data))).size() <= ByteCodec.ALPHABET);
+      }
+
+    /**
+      * Test that length-limited codes respect the limit, cost no less than the Huffman code and no more than needed, and decode through a PrefixTable.
+      */
+      @Test
+      public void testLengthLimitedCode() throws IOException {
+        int n = 40;
+        int[] symbols = new int[n];
+        long[] freqs = new long[n];
+        for (int i = 0; i < n; i++) {
+          symbols[i] = 'A' + i;
+          freqs[i] = i < 4 ? 1 : (long)Math.pow(2.2, i);
+        }
+        CanonicalCode huffman = CanonicalCode.fromFrequencies(symbols, freqs);
+        assertTrue(huffman.getMaxLength() > 8);
+        CanonicalCode limited = CanonicalCode.fromFrequencies(symbols, freqs, 8);
+        CanonicalCode loose = CanonicalCode.fromFrequencies(symbols, freqs, 12);
+        assertEquals(8, limited.getMaxLength());
+        assertTrue(cost(huffman, freqs) <= cost(loose, freqs));
+        assertTrue(cost(loose, freqs) <= cost(limited, freqs));
+        /** A limit the Huffman code already meets changes nothing. */
+        int[] tight = HuffmanTreeBuilder.limitedCodeLengths(freqs, huffman.getMaxLength());
+        long tightCost = 0;
+        for (int i = 0; i < n; i++)
+          tightCost += freqs[i] * tight[i];
+        assertEquals(cost(huffman, freqs), tightCost);
+        assertArrayEquals(new int[] {1, 1, 1, 1}, HuffmanTreeBuilder.limitedCodeLengths(new long[] {5, 1, 9, 2}, 1));
+        try {
+          HuffmanTreeBuilder.limitedCodeLengths(new long[] {1, 1, 1, 1, 1}, 1);
+          fail();
+        }
+        catch (IllegalArgumentException e) {}
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+          for (int j = 0; j < Math.min(freqs[i], 5000); j++)
+            text.append((char)symbols[i]);
+        }
+        File input = writeTempFile(text.toString());
+        File output = File.createTempFile("compressed", ".txt");
+        File decompressed = File.createTempFile("output", ".txt");
+        HuffmanCompressor h = new HuffmanCompressor(input.getPath(), output.getPath());
+        h.setMaxCodeLength(PrefixTable.MAX_BASES);
+        h.huffmanCode(input.getPath(), output.getPath());
+        new Decompressor().execute(output.getPath(), decompressed.getPath());
+        assertEquals(text.toString(), readFile(decompressed));
+      }
+
+    /**
+      * Return the number of nucleotides a code spends on characters with the given frequencies.
+      * @param code the code
+      * @param freqs the frequency of each character of the code, in the order of the characters 'A' onwards
+      * @return the nucleotides
+      */
+      private static long cost(CanonicalCode code, long[] freqs) {
+        long total = 0;
+        for (int i = 0; i < freqs.length; i++)
+          total += freqs[i] * code.getLength('A' + i);
+        return total;
+      }
+
+    /**
+      * Test that DNA compressed with a saved code table names the table in a short header and decodes through it, escaping characters the sample lacked.
+      */
+      @Test
+      public void testCodeTable() throws IOException {
+        String sample = "2024-01-01 INFO request served in 12ms\n2024-01-01 WARN request served in 340ms\n";
+        CodeTable table = CodeTable.train("logs", 3, new StringReader(sample), CanonicalCode.MAX_LENGTH);
+        File dir = java.nio.file.Files.createTempDirectory("tables").toFile();
+        table.save(new File(dir, "logs-3" + CodeTable.EXTENSION).getPath());
+        String text = "2024-02-02 ERROR request failed in 7ms ~#\n";
+        File input = writeTempFile(text);
+        File output = File.createTempFile("compressed", ".txt");
+        File decompressed = File.createTempFile("output", ".txt");
+        new HuffmanCompressor(input.getPath(), output.getPath()).trainedCode(input.getPath(), output.getPath(), CodeTable.load(dir + "/logs-3.table"));
+        assertTrue(new StrandHeader(table).generate().length() < 40);
+        String previous = System.getProperty("huffman.tables");
+        System.setProperty("huffman.tables", dir.getPath());
+        try {
+          new Decompressor().execute(output.getPath(), decompressed.getPath());
+        }
+        finally {
+          if (previous == null)
+            System.clearProperty("huffman.tables");
+          else
+            System.setProperty("huffman.tables", previous);
+        }
+        assertEquals(text, readFile(decompressed));
+        assertSame(CodeTable.find("logs", 3), CodeTable.find("logs", 3));
+        /** A code too long for a PrefixTable is decoded with its DecodeTable, and literals may be split between buffers either way. */
+        int[] symbols = new int[31];
+        int[] lengths = new int[31];
+        for (int i = 0; i < 31; i++) {
+          symbols[i] = i == 0 ? CodeTable.ESCAPE : 'a' + i;
+          lengths[i] = Math.min(i / 3 + 1, 10);
+        }
+        for (CodeTable t : new CodeTable[] {table, new CodeTable("", 0, new CanonicalCode(symbols, lengths))}) {
+          StringWriter dna = new StringWriter();
+          t.encode(new StringReader(text + "abcxyz"), dna);
+          char[] bases = dna.toString().toCharArray();
+          for (int step : new int[] {1, 5, bases.length}) {
+            CodeTable.Decoder decoder = t.decoder();
+            char[] out = new char[bases.length];
+            int pos = 0;
+            for (int i = 0; i < bases.length; i += step)
+              pos = decoder.decode(bases, i, Math.min(i + step, bases.length), out, pos);
+            pos = decoder.finish(out, pos);
+            assertEquals(text + "abcxyz", new String(out, 0, pos));
+          }
+        }
+      }
+
+    /**
+      * Test that the CodeCache reuses a code for a similar histogram but not for one with other characters, and reuses decode tables for an identical code.
+      */
+      @Test
+      public void testCodeCache() {
+        CodeCache cache = new CodeCache(2);
+        FrequencyCounter a = new FrequencyCounter();
+        FrequencyCounter b = new FrequencyCounter();
+        FrequencyCounter c = new FrequencyCounter();
+        for (int s = 'a'; s <= 'f'; s++) {
+          a.add(s, 1000 >> (s - 'a'));
+          b.add(s, 2000 >> (s - 'a'));
+          c.add(s + 1, 1000 >> (s - 'a'));
+        }
+        CanonicalCode code = cache.code(a, CanonicalCode.MAX_LENGTH);
+        assertSame(code, cache.code(b, CanonicalCode.MAX_LENGTH));
+        assertNotSame(code, cache.code(c, CanonicalCode.MAX_LENGTH));
+        assertSame(cache.decodeTable(code), cache.decodeTable(a.toCode()));
+        assertSame(cache.prefixTable(code), cache.prefixTable(code));
+        assertEquals(3, cache.getHits());
+        assertEquals(4, cache.getMisses());
+      }
+
+    /**
+      * Test that a batch of files, nested and empty ones included, survives compression to separate files and to an archive, and that failures are reported.
+      */
+      @Test
+      public void testBatchCompressor() throws IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("batch");
+        java.util.Map<String, String> files = new java.util.TreeMap<String, String>();
+        for (int i = 0; i < 30; i++)
+          files.put((i % 3 == 0 ? "sub/" : "") + "file" + i + ".txt", i == 7 ? "" : "entry " + i + " " + "abc".repeat(i * 50));
+        for (java.util.Map.Entry<String, String> e : files.entrySet()) {
+          java.nio.file.Files.createDirectories(dir.resolve(e.getKey()).getParent());
+          java.nio.file.Files.write(dir.resolve(e.getKey()), e.getValue().getBytes("UTF-8"));
+        }
+        java.util.List<java.nio.file.Path> inputs = BatchCompressor.expand(dir.toString());
+        assertEquals(30, inputs.size());
+        assertEquals(10, BatchCompressor.expand(dir + "/sub/*.txt").size());
+        BatchCompressor batch = new BatchCompressor(4);
+        java.nio.file.Path archive = dir.resolve("all.dna");
+        Archive toc = batch.archive(inputs, dir, archive.toString());
+        assertEquals(30, toc.getEntries().size());
+        assertEquals(("entry 3 " + "abc".repeat(150)).length(), toc.find("sub/file3.txt").getCharacters());
+        java.nio.file.Path extracted = dir.resolve("extracted");
+        batch.extract(archive.toString(), extracted);
+        java.nio.file.Path compressed = dir.resolve("compressed");
+        java.nio.file.Path decompressed = dir.resolve("decompressed");
+        batch.compressAll(inputs, dir, compressed);
+        batch.decompressAll(BatchCompressor.expand(compressed.toString()), compressed, decompressed);
+        for (java.util.Map.Entry<String, String> e : files.entrySet()) {
+          assertEquals(e.getValue(), readFile(extracted.resolve(e.getKey()).toFile()));
+          assertEquals(e.getValue(), readFile(decompressed.resolve(e.getKey()).toFile()));
+        }
+        try {
+          batch.compressAll(java.util.Arrays.asList(dir.resolve("missing.txt"), inputs.get(0)), dir, compressed);
+          fail();
+        }
+        catch (IOException e) {
+          assertEquals(1, e.getSuppressed().length);
+        }
+        /** Files outside the base directory are named by their file names alone, so two of the same name are rejected before anything is written. */
+        java.nio.file.Files.createDirectories(dir.resolve("copy"));
+        java.nio.file.Files.copy(dir.resolve("sub/file3.txt"), dir.resolve("copy/file3.txt"));
+        java.util.List<java.nio.file.Path> clash = java.util.Arrays.asList(dir.resolve("sub/file3.txt"), dir.resolve("copy/file3.txt"));
+        java.nio.file.Path other = java.nio.file.Files.createTempDirectory("base");
+        try {
+          batch.archive(clash, other, dir.resolve("clash.dna").toString());
+          fail();
+        }
+        catch (IOException e) {
+          assertTrue(e.getMessage().endsWith("would both be named file3.txt."));
+        }
+        assertFalse(java.nio.file.Files.exists(dir.resolve("clash.dna")));
+        try {
+          batch.compressAll(clash, other, other);
+          fail();
+        }
+        catch (IOException e) {
+          assertTrue(e.getMessage().endsWith("would both be named file3.txt."));
+        }
+      }
+
+    /**
+      * Test that the kernels in use agree with the scalar kernels at every offset and length, and find the first invalid character.
+      */
+      @Test
+      public void testKernels() {
+        NucleotideKernels scalar = new NucleotideKernels();
+        NucleotideKernels kernels = NucleotideKernels.get();
+        java.util.Random random = new java.util.Random(11);
+        char[] bases = new char[1000];
+        for (int i = 0; i < bases.length; i++)
+          bases[i] = "ATCG".charAt(random.nextInt(4));
+        for (int from = 0; from < 9; from++) {
+          for (int bytes = 0; bytes < 200; bytes += 1 + bytes / 8) {
+            byte[] expected = new byte[bytes + 3];
+            byte[] actual = new byte[bytes + 3];
+            scalar.pack(bases, from, bytes, expected, 3);
+            kernels.pack(bases, from, bytes, actual, 3);
+            assertArrayEquals(expected, actual);
+            char[] unpacked = new char[4 * bytes + 1];
+            kernels.unpack(actual, 3, bytes, unpacked, 1);
+            assertEquals(new String(bases, from, 4 * bytes), new String(unpacked, 1, 4 * bytes));
+            long[] counts = new long[4];
+            long[] expectedCounts = new long[4];
+            scalar.count(bases, from, from + 4 * bytes, expectedCounts);
+            kernels.count(bases, from, from + 4 * bytes, counts);
+            assertArrayEquals(expectedCounts, counts);
+          }
+        }
+        assertEquals(-1, kernels.findInvalid(bases, 0, bases.length));
+        for (int i : new int[] {0, 5, 31, 64, 999}) {
+          char c = bases[i];
+          bases[i] = i % 2 == 0 ? 'N' : 'a';
+          assertEquals(i, kernels.findInvalid(bases, 0, bases.length));
+          assertEquals(scalar.findInvalid(bases, 1, i), kernels.findInvalid(bases, 1, i));
+          bases[i] = c;
+        }
+      }
 
+    /**
+      * Test that a MappedReader decodes characters split across windows, surrogate pairs read one char at a time and malformed bytes as a String would.
+      */
+      @Test
+      public void testMappedReader() throws IOException {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+          str.append(i % 7 == 0 ? "\u00e9" : i % 11 == 0 ? "\u4e2d" : i % 13 == 0 ? "\ud83d\ude00" : "x" + i);
+        byte[] bytes = (str + "\u00e9").getBytes("UTF-8");
+        bytes[bytes.length - 1] = (byte)0xff;
+        String expected = new String(bytes, "UTF-8");
+        File file = File.createTempFile("mapped", ".txt");
+        file.deleteOnExit();
+        java.nio.file.Files.write(file.toPath(), bytes);
+        for (int window = 16; window < 24; window++) {
+          StringBuilder bulk = new StringBuilder();
+          try (Reader in = new MappedReader(file.getPath(), java.nio.charset.StandardCharsets.UTF_8, window)) {
+            char[] buffer = new char[window + 3];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) != -1)
+              bulk.append(buffer, 0, n);
+          }
+          assertEquals(expected, bulk.toString());
+          StringBuilder single = new StringBuilder();
+          try (Reader in = new MappedReader(file.getPath(), java.nio.charset.StandardCharsets.UTF_8, window)) {
+            int c;
+            while ((c = in.read()) != -1)
+              single.append((char)c);
+          }
+          assertEquals(expected, single.toString());
+        }
+        assertEquals(-1, new MappedReader(writeTempFile("").getPath()).read());
+      }
+
+    /**
+      * Test that DNA compressed with a code estimated from a prefix or from strided runs decompresses, characters missing from the sample included.
+      */
+      @Test
+      public void testSampledCode() throws IOException {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+          str.append("acgt".charAt(i % 4)).append(i % 10);
+        String text = str + "XYZ~|";
+        File input = writeTempFile(text);
+        FrequencyCounter sample = FrequencyCounter.sampleFile(input.getPath(), 100, 1);
+        assertEquals(100, sample.total());
+        assertEquals(0, sample.get('X'));
+        try {
+          FrequencyCounter.sampleFile(input.getPath(), 100, 0);
+          fail("A sample cannot be split into no chunks");
+        }
+        catch (IllegalArgumentException e) {}
+        for (int chunks : new int[] {1, 4}) {
+          File output = writeTempFile("");
+          HuffmanCompressor h = new HuffmanCompressor(input.getPath(), output.getPath());
+          h.sampledCode(input.getPath(), output.getPath(), 100, chunks);
+          try (DnaReader in = new DnaReader(new BufferedReader(new FileReader(output)))) {
+            assertEquals(StrandHeader.SAMPLED, in.getHeader().getFormat());
+            StringBuilder decoded = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1)
+              decoded.append((char)c);
+            assertEquals(text, decoded.toString());
+          }
+        }
+      }
+
+    /**
+      * Test that an order-1 context model round-trips through its header and DnaReader, keeps codes only for contexts that pay for them and beats order-0.
+      */
+      @Test
+      public void testContextModel() throws IOException {
+        StringBuilder str = new StringBuilder();
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < 20000; i++)
+          str.append(random.nextInt(3) == 0 ? "qu" : "the ".substring(0, 1 + random.nextInt(4)));
+        String text = str + "z";
+        ContextModel model = ContextModel.count(new StringReader(text), CanonicalCode.MAX_LENGTH);
+        assertTrue(model.size() > 0);
+        assertSame(model.getGlobal(), model.getCode('z'));
+        assertSame(model.getGlobal(), model.getCode(-1));
+        File input = writeTempFile(text);
+        File output = writeTempFile("");
+        File order0 = writeTempFile("");
+        HuffmanCompressor h = new HuffmanCompressor(input.getPath(), output.getPath());
+        h.contextCode(input.getPath(), output.getPath());
+        new HuffmanCompressor(input.getPath(), order0.getPath()).huffmanCode(input.getPath(), order0.getPath());
+        assertTrue(output.length() < order0.length());
+        try (DnaReader in = new DnaReader(new BufferedReader(new FileReader(output)))) {
+          assertEquals(StrandHeader.CONTEXT, in.getHeader().getFormat());
+          assertEquals(model.size(), in.getHeader().getContext().size());
+          StringBuilder decoded = new StringBuilder();
+          int c;
+          while ((c = in.read()) != -1)
+            decoded.append((char)c);
+          assertEquals(text, decoded.toString());
+        }
+        File decompressed = writeTempFile("");
+        new Decompressor().execute(output.getPath(), decompressed.getPath());
+        assertEquals(text, readFile(decompressed));
+        /** A global code too long for a PrefixTable is decoded with its DecodeTable, switching to a context's PrefixTable and back. */
+        int[] symbols = new int[31];
+        int[] lengths = new int[31];
+        for (int i = 0; i < 31; i++) {
+          symbols[i] = 'A' + i;
+          lengths[i] = Math.min(i / 3 + 1, 10);
+        }
+        ContextModel mixed = new ContextModel(new CanonicalCode(symbols, lengths));
+        mixed.setCode('A', CanonicalCode.fromFrequencies(new int[] {'A', 'B', 'C'}, new long[] {5, 3, 1}));
+        StringBuilder letters = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+          int previous = i == 0 ? -1 : letters.charAt(i - 1);
+          letters.append((char)('A' + random.nextInt(previous == 'A' ? 3 : 31)));
+        }
+        StringWriter mixedDna = new StringWriter();
+        mixed.encode(new StringReader(letters.toString()), mixedDna);
+        try (DnaReader in = new DnaReader(new StringReader(new StrandHeader(mixed).generate() + mixedDna))) {
+          char[] buffer = new char[letters.length()];
+          int n = 0;
+          int r;
+          while ((r = in.read(buffer, n, buffer.length - n)) > 0)
+            n += r;
+          assertEquals(letters.toString(), new String(buffer, 0, n));
+          assertEquals(-1, in.read());
+        }
+        /** A single character is coded with the global code alone. */
+        ContextModel one = ContextModel.count(new StringReader("a"), CanonicalCode.MAX_LENGTH);
+        StringWriter dna = new StringWriter();
+        String header = new StrandHeader(one).generate();
+        assertEquals(1, one.encode(new StringReader("a"), dna));
+        try (DnaReader in = new DnaReader(new StringReader(header + dna.toString()))) {
+          assertEquals('a', in.read());
+          assertEquals(-1, in.read());
+        }
+      }
+
+    /**
+      * Test that a CompressionServer answers concurrent clients over TCP and a Unix domain socket, reports failures and counts its requests.
+      */
+      @Test
+      public void testCompressionServer() throws Exception {
+        java.nio.file.Path socket = java.nio.file.Files.createTempDirectory("server").resolve("huffman.sock");
+        for (java.net.SocketAddress address : new java.net.SocketAddress[] {new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0),
+                                                                             java.net.UnixDomainSocketAddress.of(socket)}) {
+          try (CompressionServer server = new CompressionServer(address, 2)) {
+            java.net.SocketAddress bound = server.start();
+            java.util.concurrent.ExecutorService clients = java.util.concurrent.Executors.newFixedThreadPool(4);
+            java.util.List<java.util.concurrent.Future<Boolean>> results = new java.util.ArrayList<java.util.concurrent.Future<Boolean>>();
+            for (int t = 0; t < 4; t++) {
+              int seed = t;
+              results.add(clients.submit(() -> {
+                try (CompressionClient client = new CompressionClient(bound)) {
+                  for (int i = 0; i < 20; i++) {
+                    String text = i == 0 ? "" : "message " + seed + " " + "abcab".repeat(i);
+                    String dna = client.compress(text);
+                    if (!text.equals(new String(client.decompress(dna), "UTF-8")))
+                      return false;
+                    byte[] bytes = {0, (byte)seed, (byte)255, (byte)i};
+                    if (!java.util.Arrays.equals(bytes, client.decompress(client.compressBytes(bytes))))
+                      return false;
+                  }
+                }
+                return true;
+              }));
+            }
+            for (java.util.concurrent.Future<Boolean> result : results)
+              assertTrue(result.get());
+            clients.shutdown();
+            try (CompressionClient client = new CompressionClient(bound)) {
+              try {
+                client.decompress("AAGGCAT");
+                fail();
+              }
+              catch (IOException e) {
+                assertNotNull(e.getMessage());
+              }
+              assertTrue(client.stats().contains("\"failures\":1"));
+            }
+            assertEquals(4 * 20 * 4 + 2, server.getStats().getRequests());
+            /** Clients that never finish sending their payloads, and more idle clients than a thread pool would hold, take no worker, so another client is
+              * still served. */
+            java.nio.channels.SocketChannel[] stalled = new java.nio.channels.SocketChannel[100];
+            for (int i = 0; i < stalled.length; i++) {
+              stalled[i] = CompressionServer.connect(bound);
+              if (i < 2)
+                stalled[i].write(java.nio.ByteBuffer.wrap(new byte[] {CompressionServer.COMPRESS, 0, 0, 0, 100}));
+            }
+            java.util.concurrent.ExecutorService other = java.util.concurrent.Executors.newSingleThreadExecutor();
+            java.util.concurrent.Future<String> served = other.submit(() -> {
+              try (CompressionClient client = new CompressionClient(bound)) {
+                return client.compress("abc");
+              }
+            });
+            assertTrue(served.get(10, java.util.concurrent.TimeUnit.SECONDS).startsWith(StrandHeader.PREFIX));
+            other.shutdown();
+            for (java.nio.channels.SocketChannel channel : stalled)
+              channel.close();
+          }
+        }
+        /** A payload that does not fit the bytes held at once waits, unread, until the payload held before it is freed. */
+        try (CompressionServer server = new CompressionServer(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0), 2)) {
+          server.setMaxBuffered(1000);
+          java.net.SocketAddress bound = server.start();
+          java.nio.channels.SocketChannel stalled = CompressionServer.connect(bound);
+          stalled.write(java.nio.ByteBuffer.wrap(new byte[] {CompressionServer.COMPRESS, 0, 0, 900 >> 8, (byte)900}));
+          Thread.sleep(200);
+          java.util.concurrent.ExecutorService other = java.util.concurrent.Executors.newSingleThreadExecutor();
+          java.util.concurrent.Future<String> served = other.submit(() -> {
+            try (CompressionClient client = new CompressionClient(bound)) {
+              return client.compress("abc".repeat(300));
+            }
+          });
+          try {
+            served.get(1, java.util.concurrent.TimeUnit.SECONDS);
+            fail();
+          }
+          catch (java.util.concurrent.TimeoutException e) {}
+          stalled.close();
+          assertTrue(served.get(10, java.util.concurrent.TimeUnit.SECONDS).startsWith(StrandHeader.PREFIX));
+          other.shutdown();
+        }
+      }
+
+    /**
+      * Test that a HuffmanCodec round-trips messages through nucleotides, packed bytes and caller buffers, from several threads and with a code too long for
+      * a single-level table, and rejects invalid DNA.
+      */
+      @Test
+      public void testHuffmanCodec() throws Exception {
+        HuffmanCodec codec = HuffmanCodec.train("{\"id\": 12, \"name\": \"abc\", \"tags\": [\"x\", \"y\"]}".repeat(20));
+        String[] messages = {"", "{\"id\": 7}", "{\"name\": \"Zo\u00e9 \u4e2d\"}", "\u0000\uffff"};
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+        java.util.List<java.util.concurrent.Future<?>> results = new java.util.ArrayList<java.util.concurrent.Future<?>>();
+        for (int t = 0; t < 4; t++) {
+          results.add(pool.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+              for (String m : messages) {
+                String dna = codec.encode(m);
+                assertEquals(codec.encodedLength(m), dna.length());
+                assertEquals(m, codec.decode(dna));
+                byte[] packed = codec.encodeToBytes(m);
+                assertEquals(m, codec.decode(packed, 0, packed.length));
+              }
+            }
+            return null;
+          }));
+        }
+        for (java.util.concurrent.Future<?> result : results)
+          result.get();
+        pool.shutdown();
+        String m = messages[2];
+        byte[] buffer = new byte[codec.packedLength(m) + 5];
+        assertEquals(codec.packedLength(m), codec.encode(m, buffer, 5));
+        char[] text = new char[m.length() + 1];
+        assertEquals(m.length(), codec.decode(buffer, 5, buffer.length - 5, text, 1));
+        assertEquals(m, new String(text, 1, m.length()));
+        char[] dna = new char[codec.encodedLength(m)];
+        assertEquals(dna.length, codec.encode(m, dna, 0));
+        assertEquals(m.length(), codec.decode(new String(dna), text, 0));
+        try {
+          codec.encode(m, new char[dna.length - 1], 0);
+          fail();
+        }
+        catch (IndexOutOfBoundsException e) {}
+        try {
+          codec.decode("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA" + "N");
+          fail();
+        }
+        catch (IOException e) {}
+        FrequencyCounter skewed = new FrequencyCounter();
+        for (int s = 0; s < 30; s++)
+          skewed.add('a' + s, 1L << Math.min(2 * s, 60));
+        HuffmanCodec deep = new HuffmanCodec(new CodeTable("", 0, CodeTable.escapedCode(skewed, CanonicalCode.MAX_LENGTH)));
+        assertTrue(deep.getTable().getCode().getMaxLength() > PrefixTable.MAX_BASES);
+        for (String s : new String[] {"abcxyz", "aaaa!"})
+          assertEquals(s, deep.decode(deep.encode(s)));
+      }
+
+    /**
+      * Write a String to a temporary file.
+      * @param text the contents
+      * @return the file
+      */
+      private static File writeTempFile(String text) throws IOException {
+        File file = File.createTempFile("input", ".txt");
+        file.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(file));
+        w.write(text);
+        w.close();
+        return file;
+      }
+
+    /**
+      * Read a file into a String.
+      * @param file the file
+      * @return the contents
+      */
+      private static String readFile(File file) throws IOException {
+        StringBuilder str = new StringBuilder();
+        Reader r = new BufferedReader(new FileReader(file));
+        int x;
+        while ((x = r.read()) != -1)
+          str.append((char)x);
+        r.close();
+        return str.toString();
+      }
+
+    /**
+      * Join a list of characters into a String.
+      * @param list the characters
+      * @return the String
+      */
+      private static String toString(java.util.List<Character> list) {
+        StringBuilder str = new StringBuilder();
+        for (Character c : list)
+          str.append(c);
+        return str.toString();
       }
 
 }
@@ -0,0 +1,435 @@
+import java.io.*;
+
+/**
+  * Order-1 context model: a canonical code for each preceding character, so that a character is coded by how often it follows the previous one rather than by
+  * how often it occurs overall. A context has its own code only when the nucleotides it saves over the global code exceed the nucleotides its code adds to the
+  * header; the first character and characters after any other context use the global code.
+  * <p>
+  * In the header the global code is written as by StrandHeader.writeCode(), followed by the number of context codes and, for each context in ascending order,
+  * the gap from the previous context and the code. Contexts and the characters of their codes are written as indices among the characters of the global code
+  * rather than as characters, which keeps the gaps small.
+  */
+public class ContextModel {
+
+  /** characters below this are counted in pairs without hashing */
+  private static final int DENSE_PAIRS = 256;
+
+  /** the code of the first character and of the contexts without a code */
+  private CanonicalCode global;
+  /** the code of each preceding character, null for those using the global code */
+  private CanonicalCode[] contexts = new CanonicalCode[FrequencyCounter.DENSE];
+  /** the number of contexts with a code */
+  private int size;
+  /** the index of every character of the global code among its characters in ascending order */
+  private int[] index;
+  /** the PrefixTable of the code after each character, offset by one so that the first character is at 0, or null where it has a DecodeTable */
+  private PrefixTable[] prefixes;
+  /** the DecodeTable of the code after each character, offset by one, where the code is too long for a PrefixTable */
+  private DecodeTable[] tables;
+
+  /**
+    * Constructor
+    * @param global the code of the first character and of the contexts without a code
+    */
+  public ContextModel(CanonicalCode global) {
+    this.global = global;
+    this.index = index(global);
+  }
+
+  /**
+    * Count the characters and the pairs of consecutive characters of the input and build the model.
+    * @param in the characters, read to the end
+    * @param maxLength the longest codeword allowed
+    * @return the model
+    * @throws IOException if the input cannot be read
+    */
+  public static ContextModel count(Reader in, int maxLength) throws IOException {
+    FrequencyCounter counts = new FrequencyCounter();
+    IntLongMap[] pairs = new IntLongMap[FrequencyCounter.DENSE];
+    /** Pairs of characters below DENSE_PAIRS, which most text is made of, are counted in an array rather than hashed. */
+    long[] dense = new long[DENSE_PAIRS * DENSE_PAIRS];
+    char[] buffer = new char[8192];
+    int previous = -1;
+    int n;
+    while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+      counts.add(buffer, 0, n);
+      for (int i = 0; i < n; i++) {
+        int c = buffer[i];
+        if (previous >= 0) {
+          if ((previous | c) < DENSE_PAIRS)
+            dense[previous * DENSE_PAIRS + c]++;
+          else {
+            if (pairs[previous] == null)
+              pairs[previous] = new IntLongMap();
+            pairs[previous].add(c, 1);
+          }
+        }
+        previous = c;
+      }
+    }
+    for (int i = 0; i < dense.length; i++) {
+      if (dense[i] != 0) {
+        if (pairs[i / DENSE_PAIRS] == null)
+          pairs[i / DENSE_PAIRS] = new IntLongMap();
+        pairs[i / DENSE_PAIRS].add(i % DENSE_PAIRS, dense[i]);
+      }
+    }
+    return build(counts, pairs, maxLength);
+  }
+
+  /**
+    * Build the model from counts, keeping a context code only where it pays for its place in the header.
+    * @param counts the frequency of every character
+    * @param pairs for each character, the frequency of every character that follows it, or null if nothing follows it
+    * @param maxLength the longest codeword allowed
+    * @return the model
+    */
+  public static ContextModel build(FrequencyCounter counts, IntLongMap[] pairs, int maxLength) {
+    CanonicalCode global = counts.toCode(maxLength);
+    ContextModel model = new ContextModel(global);
+    int[] index = model.index;
+    for (int p = 0; p < pairs.length; p++) {
+      if (pairs[p] == null)
+        continue;
+      int[] symbols = pairs[p].keys();
+      long[] frequencies = new long[symbols.length];
+      for (int i = 0; i < symbols.length; i++)
+        frequencies[i] = pairs[p].get(symbols[i]);
+      CanonicalCode code = CanonicalCode.fromFrequencies(symbols, frequencies, maxLength);
+      long saved = 0;
+      for (int i = 0; i < symbols.length; i++)
+        saved += frequencies[i] * (global.getLength(symbols[i]) - code.getLength(symbols[i]));
+      StringBuilder cost = new StringBuilder();
+      StrandHeader.writeNumber(cost, index[p]);
+      writeCode(cost, code, index);
+      if (saved > cost.length())
+        model.setCode(p, code);
+    }
+    return model;
+  }
+
+  /**
+    * Give a context its own code.
+    * @param previous the preceding character
+    * @param code the code of the characters following it
+    */
+  public void setCode(int previous, CanonicalCode code) {
+    if (contexts[previous] == null)
+      size++;
+    contexts[previous] = code;
+  }
+
+  /**
+    * Return the code of the character following another.
+    * @param previous the preceding character, or -1 for the first character
+    * @return the code of the context, or the global code
+    */
+  public CanonicalCode getCode(int previous) {
+    CanonicalCode code = previous < 0 ? null : contexts[previous];
+    return code != null ? code : global;
+  }
+
+  /**
+    * Return the global code.
+    * @return the code
+    */
+  public CanonicalCode getGlobal() {
+    return global;
+  }
+
+  /**
+    * Return the number of contexts with a code of their own.
+    * @return the number of context codes
+    */
+  public int size() {
+    return size;
+  }
+
+  /**
+    * Write the nucleotides of every character read, without a header.
+    * @param in the characters
+    * @param out the destination of the nucleotides
+    * @return the number of nucleotides written
+    * @throws IOException if the input cannot be read or the destination cannot be written
+    */
+  public long encode(Reader in, Writer out) throws IOException {
+    if (size == 0)
+      return HuffmanCompressor.encode(in, out, global);
+    char[] buffer = new char[8192];
+    char[] dna = new char[buffer.length * CanonicalCode.MAX_LENGTH];
+    long bases = 0;
+    int previous = -1;
+    int n;
+    while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+      int pos = 0;
+      for (int i = 0; i < n; i++) {
+        pos = getCode(previous).encode(buffer[i], dna, pos);
+        previous = buffer[i];
+      }
+      out.write(dna, 0, pos);
+      bases += pos;
+    }
+    return bases;
+  }
+
+  /**
+    * Return a decoder, which holds the state of one strand. The decode tables of the codes are built, or taken from the shared CodeCache, on the first call.
+    * @return the decoder
+    */
+  public Decoder decoder() {
+    if (prefixes == null) {
+      PrefixTable[] prefixes = new PrefixTable[contexts.length + 1];
+      DecodeTable[] tables = new DecodeTable[contexts.length + 1];
+      for (int p = -1; p < contexts.length; p++) {
+        CanonicalCode code = getCode(p);
+        if (p >= 0 && code == global) {
+          prefixes[p + 1] = prefixes[0];
+          tables[p + 1] = tables[0];
+        }
+        else if (code.size() > 0 && PrefixTable.fits(code))
+          prefixes[p + 1] = CodeCache.shared().prefixTable(code);
+        else
+          tables[p + 1] = CodeCache.shared().decodeTable(code);
+      }
+      this.tables = tables;
+      this.prefixes = prefixes;
+    }
+    return new Decoder();
+  }
+
+  /**
+    * Decoder of the nucleotides of one strand, fed a buffer at a time. Each character is resolved with the PrefixTable of the code of its context, one lookup
+    * per character, or one nucleotide per step with the context's DecodeTable if its code is too long for a PrefixTable.
+    */
+  public class Decoder {
+
+    /** nucleotides not yet resolved, two bits each */
+    private int window;
+    /** number of nucleotides in window */
+    private int windowBases;
+    /** the state of the DecodeTable of the current context */
+    private int state;
+    /** the PrefixTable of the context of the previous character, starting with the global code, or null if it decodes with a DecodeTable */
+    private PrefixTable prefix = prefixes[0];
+    /** the DecodeTable of the current context, if it has no PrefixTable */
+    private DecodeTable table = tables[0];
+    /** the number of nucleotides the current context looks up at once */
+    private int need = prefix != null ? prefix.getBases() : 1;
+
+    /**
+      * Decode nucleotides. A codeword may be split between calls.
+      * @param input the nucleotides
+      * @param from the index of the first nucleotide
+      * @param to the index after the last nucleotide
+      * @param out the destination, with room for a character per nucleotide and PrefixTable.MAX_BASES more
+      * @param pos the index of the first character in the destination
+      * @return the index after the last character decoded
+      * @throws IOException if a char is not a nucleotide or the nucleotides match no codeword
+      */
+    public int decode(char[] input, int from, int to, char[] out, int pos) throws IOException {
+      PrefixTable[] prefixes = ContextModel.this.prefixes;
+      PrefixTable prefix = this.prefix;
+      int window = this.window;
+      int windowBases = this.windowBases;
+      int need = this.need;
+      for (int i = from; i < to; i++) {
+        int b = DecodeTable.base(input[i]);
+        if (b < 0)
+          throw new IOException("Invalid nucleotide: " + input[i]);
+        window = (window << 2) | b;
+        if (++windowBases < need)
+          continue;
+        /** resolve characters of contexts with a PrefixTable here, and leave the rest to drain */
+        while (prefix != null && windowBases >= need) {
+          int entry = prefix.get(window >>> (2 * (windowBases - need)));
+          if (entry == 0)
+            throw new IOException("Nucleotides do not match the Huffman Tree.");
+          windowBases -= PrefixTable.length(entry);
+          window &= (1 << (2 * windowBases)) - 1;
+          int symbol = PrefixTable.symbol(entry);
+          out[pos++] = (char)symbol;
+          prefix = prefixes[symbol + 1];
+          if (prefix != null)
+            need = prefix.getBases();
+          else {
+            table = tables[symbol + 1];
+            need = 1;
+          }
+        }
+        if (prefix == null && windowBases > 0) {
+          this.window = window;
+          this.windowBases = windowBases;
+          this.prefix = null;
+          this.need = 1;
+          pos = drain(out, pos, false);
+          window = this.window;
+          windowBases = this.windowBases;
+          prefix = this.prefix;
+          need = this.need;
+        }
+      }
+      this.window = window;
+      this.windowBases = windowBases;
+      this.prefix = prefix;
+      this.need = need;
+      return pos;
+    }
+
+    /**
+      * Decode the nucleotides left once the DNA has ended.
+      * @param out the destination, with room for PrefixTable.MAX_BASES characters
+      * @param pos the index of the first character in the destination
+      * @return the index after the last character decoded
+      * @throws IOException if the nucleotides match no codeword or the DNA ended inside a character
+      */
+    public int finish(char[] out, int pos) throws IOException {
+      pos = drain(out, pos, true);
+      if (windowBases != 0 || state != 0)
+        throw new EOFException("DNA ended inside a character.");
+      return pos;
+    }
+
+    /**
+      * Resolve characters from the window until it holds too few nucleotides for the code of the current context. Since a PrefixTable of a shorter code
+      * needs fewer nucleotides, one nucleotide may complete several characters.
+      * @param out the destination
+      * @param pos the index of the next character in the destination
+      * @param end whether the DNA has ended, in which case a short window is padded to be looked up
+      * @return the index after the characters decoded
+      * @throws IOException if the nucleotides match no codeword
+      */
+    private int drain(char[] out, int pos, boolean end) throws IOException {
+      while (windowBases > 0) {
+        int symbol;
+        if (prefix != null) {
+          int entry;
+          if (windowBases >= need)
+            entry = prefix.get(window >>> (2 * (windowBases - need)));
+          else if (end) {
+            entry = prefix.get(window << (2 * (need - windowBases)));
+            if (entry != 0 && PrefixTable.length(entry) > windowBases)
+              throw new EOFException("DNA ended inside a character.");
+          }
+          else
+            return pos;
+          if (entry == 0)
+            throw new IOException("Nucleotides do not match the Huffman Tree.");
+          symbol = PrefixTable.symbol(entry);
+          windowBases -= PrefixTable.length(entry);
+        }
+        else {
+          int b = (window >>> (2 * --windowBases)) & 3;
+          int entry = table.step(state, b);
+          int count;
+          try {
+            count = DecodeTable.count(entry);
+          }
+          catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+          }
+          symbol = count == 1 ? table.stepSymbol(state, b) : -1;
+          state = DecodeTable.next(entry);
+        }
+        window &= (1 << (2 * windowBases)) - 1;
+        if (symbol >= 0) {
+          out[pos++] = (char)symbol;
+          prefix = prefixes[symbol + 1];
+          table = tables[symbol + 1];
+          need = prefix != null ? prefix.getBases() : 1;
+        }
+      }
+      return pos;
+    }
+  }
+
+  /**
+    * Append the codes of the model.
+    * @param str the nucleotides
+    */
+  public void write(StringBuilder str) {
+    StrandHeader.writeCode(str, global);
+    StrandHeader.writeNumber(str, size);
+    int last = -1;
+    for (int p = 0; p < contexts.length; p++) {
+      if (contexts[p] == null)
+        continue;
+      StrandHeader.writeNumber(str, index[p] - last - 1);
+      writeCode(str, contexts[p], index);
+      last = index[p];
+    }
+  }
+
+  /**
+    * Read the codes of a model.
+    * @param in the DNA
+    * @return the model
+    * @throws IOException if the DNA cannot be read or does not hold a valid model
+    */
+  public static ContextModel read(Reader in) throws IOException {
+    ContextModel model = new ContextModel(StrandHeader.readCode(in));
+    int[] symbols = model.global.getSymbols();
+    java.util.Arrays.sort(symbols);
+    long n = StrandHeader.readNumber(in);
+    if (n > symbols.length)
+      throw new IOException("Header lists too many contexts.");
+    long p = -1;
+    for (long k = 0; k < n; k++) {
+      p += StrandHeader.readNumber(in) + 1;
+      if (p >= symbols.length)
+        throw new IOException("Header lists an invalid context.");
+      long m = StrandHeader.readNumber(in);
+      if (m > symbols.length)
+        throw new IOException("Header lists too many characters.");
+      int[] contextSymbols = new int[(int)m];
+      int[] lengths = new int[(int)m];
+      long s = -1;
+      for (int i = 0; i < m; i++) {
+        s += StrandHeader.readNumber(in) + 1;
+        if (s >= symbols.length)
+          throw new IOException("Header lists an invalid character.");
+        contextSymbols[i] = symbols[(int)s];
+        lengths[i] = (int)Math.min(StrandHeader.readNumber(in), Integer.MAX_VALUE);
+      }
+      try {
+        model.setCode(symbols[(int)p], new CanonicalCode(contextSymbols, lengths));
+      }
+      catch (IllegalArgumentException e) {
+        throw new IOException(e.getMessage());
+      }
+    }
+    return model;
+  }
+
+  /**
+    * Append a context code, its characters written as indices among the characters of the global code.
+    * @param str the nucleotides
+    * @param code the context code
+    * @param index the index of every character of the global code
+    */
+  private static void writeCode(StringBuilder str, CanonicalCode code, int[] index) {
+    int[] symbols = code.getSymbols();
+    java.util.Arrays.sort(symbols);
+    StrandHeader.writeNumber(str, symbols.length);
+    int last = -1;
+    for (int s : symbols) {
+      StrandHeader.writeNumber(str, index[s] - last - 1);
+      StrandHeader.writeNumber(str, code.getLength(s));
+      last = index[s];
+    }
+  }
+
+  /**
+    * Return the index of every character of a code among its characters in ascending order.
+    * @param code the code
+    * @return the index of each character, by character
+    */
+  private static int[] index(CanonicalCode code) {
+    int[] symbols = code.getSymbols();
+    java.util.Arrays.sort(symbols);
+    int[] index = new int[FrequencyCounter.DENSE];
+    for (int i = 0; i < symbols.length; i++)
+      index[symbols[i]] = i;
+    return index;
+  }
+
+}
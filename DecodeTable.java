@@ -0,0 +1,247 @@
+import java.util.*;
+
+/**
+  * Lookup tables for decoding nucleotides with a quaternary Huffman Tree. Every internal node of the tree is a state, and each state has an entry for every
+  * combination of the next few nucleotides giving the characters emitted and the state reached, so the decoder resolves several nucleotides per probe instead of one.
+  */
+public class DecodeTable {
+
+  /** largest number of nucleotides resolved by a single probe */
+  public static final int MAX_PROBE_BASES = 4;
+  /** budget of table entries before the probe width is reduced */
+  private static final int ENTRY_BUDGET = 1 << 22;
+  /** count marking an entry that walks off the tree */
+  private static final int INVALID = 7;
+  /** nucleotide code of every char, -1 if the char is not a nucleotide */
+  private static final int[] BASES = new int[128];
+
+  static {
+    Arrays.fill(BASES, -1);
+    BASES['A'] = 0;
+    BASES['T'] = 1;
+    BASES['C'] = 2;
+    BASES['G'] = 3;
+  }
+
+  /** number of nucleotides resolved by a probe */
+  private int probeBases;
+  /** number of states */
+  private int states;
+  /** next state and symbol count of every (state, chunk) pair */
+  private int[] entries;
+  /** symbols emitted by every (state, chunk) pair */
+  private int[] symbols;
+  /** next state and symbol count of every (state, nucleotide) pair */
+  private int[] steps;
+  /** symbol emitted by every (state, nucleotide) pair */
+  private int[] stepSymbols;
+
+  /**
+    * Build the tables for a linked tree.
+    * @param root the root of the Huffman Tree
+    */
+  public DecodeTable(HuffmanNode root) {
+    this(FlatTree.of(root));
+  }
+
+  /**
+    * Build the tables for a tree.
+    * @param tree the Huffman Tree
+    */
+  public DecodeTable(FlatTree tree) {
+    /** Number the internal nodes in id order, so that the root is state 0. */
+    int[] stateOf = new int[tree.size()];
+    int[] nodes = new int[tree.size()];
+    int count = 0;
+    for (int n = 0; n < tree.size(); n++) {
+      if (!tree.isLeaf(n)) {
+        stateOf[n] = count;
+        nodes[count++] = n;
+      }
+    }
+    this.states = count;
+    this.probeBases = MAX_PROBE_BASES;
+    while (probeBases > 1 && (long)states * (1 << (2 * probeBases)) * (probeBases + 1) > ENTRY_BUDGET)
+      probeBases /= 2;
+    int width = 1 << (2 * probeBases);
+    entries = new int[states * width];
+    symbols = new int[states * width * probeBases];
+    steps = new int[states * 4];
+    stepSymbols = new int[states * 4];
+    for (int s = 0; s < states; s++) {
+      for (int c = 0; c < width; c++)
+        fill(tree, nodes, stateOf, s, c, probeBases, entries, symbols, s * width + c);
+      for (int b = 0; b < 4; b++)
+        fill(tree, nodes, stateOf, s, b, 1, steps, stepSymbols, s * 4 + b);
+    }
+  }
+
+  /**
+    * Walk the tree from a state along a chunk of nucleotides and record the result.
+    * @param tree the Huffman Tree
+    * @param nodes the internal node of every state
+    * @param stateOf the state of every internal node
+    * @param state the starting state
+    * @param chunk the nucleotides, first nucleotide in the highest bits
+    * @param length the number of nucleotides in the chunk
+    * @param entryTable the table receiving the next state and symbol count
+    * @param symbolTable the table receiving the symbols
+    * @param index the index of the entry
+    */
+  private static void fill(FlatTree tree, int[] nodes, int[] stateOf, int state, int chunk, int length, int[] entryTable, int[] symbolTable, int index) {
+    int node = nodes[state];
+    int count = 0;
+    for (int j = length - 1; j >= 0; j--) {
+      node = tree.child(node, (chunk >> (2 * j)) & 3);
+      if (node == FlatTree.NONE || tree.symbol(node) == FlatTree.EMPTY) {
+        entryTable[index] = INVALID;
+        return;
+      }
+      if (tree.isLeaf(node)) {
+        symbolTable[index * length + count++] = tree.symbol(node);
+        node = 0;
+      }
+    }
+    entryTable[index] = (stateOf[node] << 3) | count;
+  }
+
+  /**
+    * Return the nucleotide code (A = 0, T = 1, C = 2, G = 3) of a char.
+    * @param c the char
+    * @return the code, or -1 if the char is not a nucleotide
+    */
+  public static int base(int c) {
+    return c < 128 ? BASES[c] : -1;
+  }
+
+  /**
+    * Return whether the tree has no internal nodes, in which case there is nothing to decode.
+    * @return whether the table is empty
+    */
+  public boolean isEmpty() {
+    return states == 0;
+  }
+
+  /**
+    * Return the number of nucleotides resolved by a probe.
+    * @return the probe width
+    */
+  public int getProbeBases() {
+    return probeBases;
+  }
+
+  /**
+    * Probe the table with a chunk of getProbeBases() nucleotides.
+    * @param state the current state
+    * @param chunk the nucleotides, first nucleotide in the highest bits
+    * @return the entry, read with next() and count()
+    */
+  public int probe(int state, int chunk) {
+    return entries[(state << (2 * probeBases)) + chunk];
+  }
+
+  /**
+    * Return a symbol emitted by a probe.
+    * @param state the state that was probed
+    * @param chunk the chunk that was probed
+    * @param i the index of the symbol, less than count()
+    * @return the symbol
+    */
+  public int symbol(int state, int chunk, int i) {
+    return symbols[((state << (2 * probeBases)) + chunk) * probeBases + i];
+  }
+
+  /**
+    * Advance by a single nucleotide.
+    * @param state the current state
+    * @param base the nucleotide code
+    * @return the entry, read with next() and count()
+    */
+  public int step(int state, int base) {
+    return steps[state * 4 + base];
+  }
+
+  /**
+    * Return the symbol emitted by step() when its count is one.
+    * @param state the state that was stepped
+    * @param base the nucleotide code
+    * @return the symbol
+    */
+  public int stepSymbol(int state, int base) {
+    return stepSymbols[state * 4 + base];
+  }
+
+  /**
+    * Decode a run of nucleotides that starts and ends on character boundaries, such as a block.
+    * @param bases the nucleotides as characters
+    * @param off the index of the first nucleotide
+    * @param len the number of nucleotides
+    * @param out the destination, which must have room for the decoded characters
+    * @param outOff the index of the first character in the destination
+    * @return the number of characters decoded
+    * @throws IllegalStateException if the nucleotides are not valid or end inside a character
+    */
+  public int decode(char[] bases, int off, int len, char[] out, int outOff) {
+    if (isEmpty())
+      return 0;
+    int pos = outOff;
+    int state = 0;
+    int i = off;
+    for (; i + probeBases <= off + len; i += probeBases) {
+      int chunk = 0;
+      for (int j = 0; j < probeBases; j++)
+        chunk = (chunk << 2) | checkedBase(bases[i + j]);
+      int entry = probe(state, chunk);
+      int count = count(entry);
+      for (int j = 0; j < count; j++)
+        out[pos++] = (char)symbol(state, chunk, j);
+      state = next(entry);
+    }
+    for (; i < off + len; i++) {
+      int b = checkedBase(bases[i]);
+      int entry = step(state, b);
+      if (count(entry) == 1)
+        out[pos++] = (char)stepSymbol(state, b);
+      state = next(entry);
+    }
+    if (state != 0)
+      throw new IllegalStateException("Nucleotides end inside a character.");
+    return pos - outOff;
+  }
+
+  /**
+    * Return the nucleotide code of a char, which must be a nucleotide.
+    * @param c the char
+    * @return the code
+    * @throws IllegalStateException if the char is not a nucleotide
+    */
+  private static int checkedBase(char c) {
+    int b = base(c);
+    if (b < 0)
+      throw new IllegalStateException("Invalid nucleotide: " + c);
+    return b;
+  }
+
+  /**
+    * Return the state reached by an entry.
+    * @param entry the entry
+    * @return the next state
+    */
+  public static int next(int entry) {
+    return entry >>> 3;
+  }
+
+  /**
+    * Return the number of symbols emitted by an entry.
+    * @param entry the entry
+    * @return the number of symbols
+    * @throws IllegalStateException if the nucleotides do not follow a path of the tree
+    */
+  public static int count(int entry) {
+    int count = entry & 7;
+    if (count == INVALID)
+      throw new IllegalStateException("Nucleotides do not match the Huffman Tree.");
+    return count;
+  }
+
+}
@@ -1,5 +1,8 @@
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
   * Decompress a file composes solely of nucleotides and has a barcode appended to the front. Generated by HuffmanCompressor.
@@ -12,10 +15,16 @@ public class Decompressor extends HuffmanCompressor {
   private ArrayList<Character> readList = new ArrayList<Character>();
   /** list containing the decompressed file */
   private ArrayList<Character> writeList = new ArrayList<Character>();
-  /** the Huffman Tree */
+  /** the characters and frequencies of a legacy barcode */
   private ArrayList<HuffmanNode> nodeList = new ArrayList<HuffmanNode>();
-  /** list containing HuffmanNodes with characters and their corresponding frequencies; size based on total UTF-8 characters */
-  private HuffmanNode[] readArray = new HuffmanNode[1112064];
+  /** list containing HuffmanNodes with characters and their corresponding frequencies; sized by the legacy barcode */
+  private HuffmanNode[] readArray;
+  /** index of the next barcode nucleotide in readList */
+  private int position;
+  /** the header read by readHeader(), or by decodeBarcode() from a StrandHeader */
+  private StrandHeader header;
+  /** the Huffman Tree built by createTree() */
+  private FlatTree tree;
 
   /**
     * Constructor
@@ -45,27 +54,41 @@ public class Decompressor extends HuffmanCompressor {
     */
   public int readBases() {
     int freq = 0;
-    while (!(readList.get(0).toString() + readList.get(1).toString()).equals("TT")) {
+    while (!(readList.get(position).toString() + readList.get(position + 1).toString()).equals("TT")) {
       /** Determine the frequency encoded by the DNA. */
-      freq = (freq * 10) + frequency(readList.get(0).toString() + readList.get(1).toString());
-      /** remove characters once they're read */
-      readList.remove(0);
-      readList.remove(0);
+      freq = (freq * 10) + frequency(readList.get(position).toString() + readList.get(position + 1).toString());
+      position += 2;
     }
-    /** remove characters once they're read */
-    readList.remove(0);
-    readList.remove(0);
+    position += 2;
     return freq;
   }
 
   /**
-    * Decode the barcode appended to the front of the DNA.
+    * Decode the barcode or StrandHeader appended to the front of the DNA.
     */
   public void decodeBarcode() {
+    if (readList.size() >= 2 && (readList.get(0).toString() + readList.get(1).toString()).equals(StrandHeader.PREFIX)) {
+      position = 2;
+      try {
+        header = StrandHeader.read(listReader());
+      }
+      catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+      if (header.getFormat() != StrandHeader.CANONICAL)
+        throw new IllegalStateException("Block-framed, adaptive, byte and trained DNA must be decompressed with execute().");
+      readList.subList(0, position).clear();
+      position = 0;
+      return;
+    }
     int size = readBases();
+    readArray = new HuffmanNode[size];
     for (int i = 0; i < size; i++) {
       readArray[i] = new HuffmanNode((char)i, readBases(), null, null, null, null);
     }
+    /** remove the barcode once it's read */
+    readList.subList(0, position).clear();
+    position = 0;
     /** Start creating the tree. */
     for (HuffmanNode n : readArray) {
       if (n != null && n.getFrequency() != 0)
@@ -80,6 +103,112 @@ public class Decompressor extends HuffmanCompressor {
     });
   }
 
+  /**
+    * Return a Reader over the nucleotides of readList that advances position.
+    * @return the Reader
+    */
+  private Reader listReader() {
+    return new Reader() {
+      @Override
+      public int read(char[] cbuf, int off, int len) {
+        if (position >= readList.size())
+          return -1;
+        int n = Math.min(len, readList.size() - position);
+        for (int i = 0; i < n; i++)
+          cbuf[off + i] = readList.get(position++);
+        return n;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  /**
+    * Read a frequency from a stream of DNA two bases at a time.
+    * @param in the DNA
+    * @return the frequency
+    * @throws IOException if the DNA ends before the frequency does
+    */
+  public int readBases(Reader in) throws IOException {
+    return readBases(in, readPair(in));
+  }
+
+  /**
+    * Read a frequency from a stream of DNA whose first two bases have already been read.
+    * @param in the DNA
+    * @param key the first two bases
+    * @return the frequency
+    * @throws IOException if the DNA ends before the frequency does
+    */
+  private int readBases(Reader in, String key) throws IOException {
+    int freq = 0;
+    for (; !key.equals("TT"); key = readPair(in)) {
+      /** Determine the frequency encoded by the DNA. */
+      freq = (freq * 10) + frequency(key);
+    }
+    return freq;
+  }
+
+  /**
+    * Read the next two bases from a stream of DNA.
+    * @param in the DNA
+    * @return the two bases
+    * @throws IOException if the DNA ends
+    */
+  private String readPair(Reader in) throws IOException {
+    int a = in.read();
+    int b = in.read();
+    if (a == -1 || b == -1)
+      throw new EOFException("DNA ended inside the barcode.");
+    return "" + (char)a + (char)b;
+  }
+
+  /**
+    * Decode the StrandHeader or legacy barcode at the front of a stream of DNA, leaving the stream at the first encoded nucleotide. Unlike decodeBarcode(),
+    * only characters that occur are stored.
+    * @param in the DNA
+    * @throws IOException if the header cannot be read
+    */
+  public void readHeader(Reader in) throws IOException {
+    String key = readPair(in);
+    if (key.equals(StrandHeader.PREFIX)) {
+      header = StrandHeader.read(in);
+      return;
+    }
+    int size = readBases(in, key);
+    for (int i = 0; i < size; i++) {
+      int freq = readBases(in);
+      if (freq != 0)
+        nodeList.add(new HuffmanNode((char)i, freq, null, null, null, null));
+    }
+    header = new StrandHeader(StrandHeader.CANONICAL, barcodeCode());
+  }
+
+  /**
+    * Return the header read by readHeader(). A legacy barcode is returned as the equivalent StrandHeader.
+    * @return the header
+    */
+  public StrandHeader getHeader() {
+    return header;
+  }
+
+  /**
+    * Return the root of the Huffman Tree once createTree() has run, copied into linked HuffmanNodes.
+    * @return the root
+    */
+  public HuffmanNode getRoot() {
+    return tree.toNode();
+  }
+
+  /**
+    * Return the Huffman Tree once createTree() has run.
+    * @return the tree
+    */
+  public FlatTree getTree() {
+    return tree;
+  }
+
   /**
     * Decode the barcode and return frequency.
     * @param key the nucleotides
@@ -107,28 +236,26 @@ public class Decompressor extends HuffmanCompressor {
   }
 
   /**
-    * Create a HuffmanTree by merging the four lowest-frequency HuffmanNodes in the ArrayList containing nodes that represent unique characters from the inputted file with their corresponding frequencies
+    * Create a HuffmanTree by merging the four lowest-frequency HuffmanNodes in the ArrayList containing nodes that represent unique characters from the inputted file with their corresponding frequencies,
+    * then replace it with the FlatTree of the matching canonical code. When the DNA starts with a StrandHeader the tree comes straight from its code.
     */
-  
-   public void createTree() {
-		while (nodeList.size() % 3 != 1) 
-			nodeList.add(new HuffmanNode(null, 0, null, null, null, null));
-		Collections.sort(nodeList, new Comparator<HuffmanNode>() {
-      @Override
-      public int compare(HuffmanNode h1, HuffmanNode h2) {
-        return (h1.compareTo(h2));
-      }
-    });
-    for (int i = 0; nodeList.size() > 1; i++) {
-      mergeNodes();
-      /** Sort the ArrayList based on the frequency of each character. */
-      Collections.sort(nodeList, new Comparator<HuffmanNode>() {
-        @Override
-        public int compare(HuffmanNode h1, HuffmanNode h2) {
-          return (h1.compareTo(h2));
-        }
-      });
-    }		
+  public void createTree() {
+    tree = (header != null ? header.getCode() : barcodeCode()).toFlatTree();
+  }
+
+  /**
+    * Create the canonical code for the characters and frequencies of a legacy barcode held in the ArrayList.
+    * @return the code
+    */
+  private CanonicalCode barcodeCode() {
+    int[] symbols = new int[nodeList.size()];
+    long[] freqs = new long[nodeList.size()];
+    for (int i = 0; i < nodeList.size(); i++) {
+      symbols[i] = nodeList.get(i).getChar();
+      freqs[i] = nodeList.get(i).getFrequency();
+    }
+    /** Only the depth of each leaf is kept; the tree itself is rebuilt from the canonical codewords. */
+    return CanonicalCode.fromFrequencies(symbols, freqs);
   }
 
   /**
@@ -145,31 +272,76 @@ public class Decompressor extends HuffmanCompressor {
     * Decompress the DNA by traversing through the Huffman Tree.
     */
   public void decompress() {
-    HuffmanNode root = nodeList.get(0);
+    int node = 0;
+    int i = 0;
     /** Traverse based on the nucleotide */
-    while (readList.size() > 0) {
-      if (readList.get(0) == 'A' && !isLeaf(root)) {
-        root = root.one;
-        readList.remove(0);
-      }
-      else if (readList.get(0) == 'T' && !isLeaf(root)) {
-        root = root.two;
-        readList.remove(0);
-      }
-      else if (readList.get(0) == 'C' && !isLeaf(root)) {
-        root = root.three;
-        readList.remove(0);
-      }
-      else if (readList.get(0) == 'G' && !isLeaf(root)) {
-        root = root.four;
-        readList.remove(0);
-      }
-      else if (isLeaf(root)) {
+    while (i < readList.size()) {
+      if (tree.isLeaf(node)) {
         /** Add the leaf node to the tree */
-        writeList.add(root.getChar());
-        root = nodeList.get(0);
+        writeList.add((char)tree.symbol(node));
+        node = 0;
+      }
+      else {
+        node = tree.child(node, base(readList.get(i++)));
+        if (node == FlatTree.NONE || tree.symbol(node) == FlatTree.EMPTY)
+          throw new IllegalStateException("Nucleotides do not match the Huffman Tree.");
       }
     }
+    readList.clear();
+    /** Add the last character, which is reached as the DNA runs out */
+    if (node != 0 && tree.isLeaf(node))
+      writeList.add((char)tree.symbol(node));
+  }
+
+  /**
+    * Decompress the DNA with a DecodeTable, resolving several nucleotides per probe. Produces the same output as decompress() in linear time.
+    */
+  public void decompressTable() {
+    DecodeTable table = new DecodeTable(tree);
+    if (table.isEmpty())
+      return;
+    int probe = table.getProbeBases();
+    int n = readList.size();
+    int state = 0;
+    int i = 0;
+    for (; i + probe <= n; i += probe) {
+      int chunk = 0;
+      for (int j = 0; j < probe; j++)
+        chunk = (chunk << 2) | base(readList.get(i + j));
+      int entry = table.probe(state, chunk);
+      int count = DecodeTable.count(entry);
+      for (int j = 0; j < count; j++)
+        writeList.add((char)table.symbol(state, chunk, j));
+      state = DecodeTable.next(entry);
+    }
+    /** Resolve the remaining nucleotides one at a time. */
+    for (; i < n; i++) {
+      int b = base(readList.get(i));
+      int entry = table.step(state, b);
+      if (DecodeTable.count(entry) == 1)
+        writeList.add((char)table.stepSymbol(state, b));
+      state = DecodeTable.next(entry);
+    }
+  }
+
+  /**
+    * Return the nucleotide code of a char read from the DNA.
+    * @param c the char
+    * @return the nucleotide code
+    */
+  private int base(char c) {
+    int b = DecodeTable.base(c);
+    if (b < 0)
+      throw new IllegalStateException("Invalid nucleotide: " + c);
+    return b;
+  }
+
+  /**
+    * Return the list containing the decompressed file.
+    * @return the decompressed characters
+    */
+  public ArrayList<Character> getWriteList() {
+    return writeList;
   }
 
   /**
@@ -188,25 +360,355 @@ public class Decompressor extends HuffmanCompressor {
 	}
 
   /**
-    * Execute the decompression
+    * Execute the decompression, streaming the DNA through a DnaReader with constant memory. Packed containers are decoded with executePacked().
+    * Either name may be "-" for stdin or stdout; characters read from stdin are written out as soon as they are decoded.
     * @param inputFileName file containing the DNA
     * @param outputFileName file containing the decompressed data
     */
 	public void execute(String inputFileName, String outputFileName) {
+		if (PackedStrand.isPacked(inputFileName)) {
+			executePacked(inputFileName, outputFileName);
+			return;
+		}
+		CompressionMetrics metrics = new CompressionMetrics("decompress");
+		long start = System.nanoTime();
+		boolean stdin = inputFileName.equals("-");
+		try (Reader source = new BufferedReader(stdin ? new InputStreamReader(System.in) : new FileReader(inputFileName))) {
+			if (ByteCodec.isBytes(source)) {
+				/** Bytes are written to the stream as they are, never through a charset. */
+				try (OutputStream os = new BufferedOutputStream(outputFileName.equals("-") ? System.out : new FileOutputStream(outputFileName))) {
+					DnaReader in = new DnaReader(source);
+					endStage(metrics, "header", start);
+					metrics.setCode(in.getHeader().getCode(), null);
+					metrics.setCharacters(ByteCodec.decompress(in, os));
+				}
+			}
+			else {
+				try (BufferedWriter bw = new BufferedWriter(outputFileName.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputFileName))) {
+					transfer(source, bw, (in, out) -> decode(in, out, stdin, metrics, start));
+				}
+			}
+		}
+		catch (FileNotFoundException e) {
+			System.out.println("File not found.");
+			return;
+		}
+		catch (IOException e) {
+			System.out.println("Input / output exception: " + e.getMessage());
+			return;
+		}
+		/** The decode stage runs from the end of the header until the writer thread has drained. */
+		endStage(metrics, "decode", metrics.getStageNanos().get("header") + start);
+		complete(metrics, inputFileName, outputFileName);
+	}
+
+  /**
+    * Decode a stream of DNA through a DnaReader, recording the header and the number of characters.
+    * @param source the DNA
+    * @param out the destination of the decompressed characters
+    * @param flush whether to flush after every read, so that characters from a slow source are written as soon as they are decoded
+    * @param metrics the metrics of the run
+    * @param start the time the run started, from System.nanoTime()
+    * @throws IOException if the DNA cannot be read or is not valid, or the destination cannot be written
+    */
+	private void decode(Reader source, Writer out, boolean flush, CompressionMetrics metrics, long start) throws IOException {
+		DnaReader in = new DnaReader(source);
+		endStage(metrics, "header", start);
+		char[] buffer = new char[8192];
+		long characters = 0;
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			characters += n;
+			if (flush)
+				out.flush();
+		}
+		metrics.setCode(in.getHeader().getCode(), null);
+		metrics.setCharacters(characters);
+	}
+
+  /**
+    * Execute the decompression of a PackedStrand container, decoding straight from the memory-mapped file.
+    * @param inputFileName file containing the packed DNA
+    * @param outputFileName file containing the decompressed data
+    */
+	public void executePacked(String inputFileName, String outputFileName) {
+		CompressionMetrics metrics = new CompressionMetrics("decompress");
+		long start = System.nanoTime();
+		try (PackedStrand in = new PackedStrand(inputFileName)) {
+			readHeader(in.reader());
+			start = endStage(metrics, "header", start);
+			if (header.getFormat() == StrandHeader.BYTES) {
+				try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outputFileName))) {
+					metrics.setCharacters(in.decompress(os));
+				}
+			}
+			else {
+				try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFileName))) {
+					metrics.setCharacters(in.decompress(bw));
+				}
+			}
+			endStage(metrics, "decode", start);
+			metrics.setCode(header.getCode(), null);
+			metrics.setBases(in.getBases());
+		}
+		catch (IOException e) {
+			System.out.println("Input / output exception: " + e.getMessage());
+			return;
+		}
+		complete(metrics, inputFileName, outputFileName);
+	}
+
+  /**
+    * Record the file sizes of a finished run and hand its metrics to the listeners. Text DNA holds one nucleotide per byte.
+    * @param metrics the metrics of the run
+    * @param inputFileName file containing the DNA
+    * @param outputFileName file containing the decompressed data
+    */
+	private void complete(CompressionMetrics metrics, String inputFileName, String outputFileName) {
+		metrics.setFiles(inputFileName, outputFileName);
+		if (metrics.getBases() == 0 && metrics.getInputBytes() > 0)
+			metrics.setBases(metrics.getInputBytes());
+		complete(metrics);
+	}
+
+  /**
+    * Decompress a range of characters from block-framed text DNA with a BlockIndex, decoding only the blocks that overlap the range.
+    * @param inputFileName file containing the DNA
+    * @param start the offset of the first character
+    * @param length the number of characters
+    * @return the characters, fewer than length if the DNA ends first
+    * @throws IOException if the file cannot be read or has no index
+    */
+	public String decompressRange(String inputFileName, long start, long length) throws IOException {
+		BlockIndex index = BlockIndex.read(inputFileName);
+		if (index == null)
+			throw new IOException(inputFileName + " has no block index.");
+		StringBuilder str = new StringBuilder();
+		try (FileChannel channel = FileChannel.open(Paths.get(inputFileName), StandardOpenOption.READ)) {
+			readHeader(BlockIndex.reader(channel, 0));
+			DecodeTable shared = header.getCode() != null ? new DecodeTable(header.getCode().toFlatTree()) : null;
+			long end = Math.min(start + length, index.getLength());
+			for (int b = index.findBlock(start); b < index.size() && index.getCharOffset(b) < end; b++) {
+				char[] block = decodeFrame(BlockIndex.reader(channel, index.getBaseOffset(b)), shared);
+				long from = Math.max(start, index.getCharOffset(b)) - index.getCharOffset(b);
+				long to = Math.min(end, index.getCharOffset(b + 1)) - index.getCharOffset(b);
+				str.append(block, (int)from, (int)(to - from));
+			}
+		}
+		return str.toString();
+	}
+
+  /**
+    * Read and decode the frame of one block.
+    * @param in the DNA, positioned at the frame
+    * @param shared the decode table shared by every block, or null if the frame carries its code
+    * @return the characters of the block
+    * @throws IOException if the frame cannot be read or is not valid
+    */
+	public char[] decodeFrame(Reader in, DecodeTable shared) throws IOException {
+		Callable<char[]> frame = readFrame(in, shared);
+		if (frame == null)
+			throw new IOException("Block index points at the end of the DNA.");
+		return call(frame);
+	}
+
+  /**
+    * Read the frame of one block, leaving the decoding to be done later, possibly on another thread.
+    * @param in the DNA, positioned at the frame
+    * @param shared the decode table shared by every block, or null if the frame carries its code
+    * @return the task that decodes the block, or null for the frame that ends the DNA
+    * @throws IOException if the frame cannot be read
+    */
+	private Callable<char[]> readFrame(Reader in, DecodeTable shared) throws IOException {
+		long chars = StrandHeader.readNumber(in);
+		if (chars == 0)
+			return null;
+		long bases = StrandHeader.readNumber(in);
+		if (chars > Integer.MAX_VALUE || bases > Integer.MAX_VALUE)
+			throw new IOException("Block is too large.");
+		CanonicalCode code = shared == null ? StrandHeader.readCode(in) : null;
+		char[] nucleotides = new char[(int)bases];
+		int n = 0;
+		int r;
+		while (n < nucleotides.length && (r = in.read(nucleotides, n, nucleotides.length - n)) != -1)
+			n += r;
+		if (n < nucleotides.length)
+			throw new EOFException("DNA ended inside a block.");
+		return () -> {
+			DecodeTable table = shared != null ? shared : new DecodeTable(code.toFlatTree());
+			char[] block = new char[(int)chars];
+			try {
+				if (table.decode(nucleotides, 0, nucleotides.length, block, 0) != chars)
+					throw new IOException("Block does not hold the number of characters in its frame.");
+			}
+			catch (IllegalStateException | ArrayIndexOutOfBoundsException e) {
+				throw new IOException("Block is not valid: " + e.getMessage());
+			}
+			return block;
+		};
+	}
+
+  /**
+    * Run a decoding task, passing on its IOException.
+    * @param task the task
+    * @return the characters decoded
+    * @throws IOException if the task fails
+    */
+	private static char[] call(Callable<char[]> task) throws IOException {
+		try {
+			return task.call();
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+  /**
+    * Execute the decompression, decoding the blocks of block-framed DNA concurrently and writing them in order. At most two blocks per thread are held in
+    * memory at once. Other DNA is decompressed by execute().
+    * @param inputFileName file containing the DNA
+    * @param outputFileName file containing the decompressed data
+    * @param threads the number of decoding threads
+    */
+	public void executeParallel(String inputFileName, String outputFileName, int threads) {
+		if (PackedStrand.isPacked(inputFileName)) {
+			executePacked(inputFileName, outputFileName);
+			return;
+		}
+		try (Reader in = new BufferedReader(new FileReader(inputFileName))) {
+			readHeader(in);
+		}
+		catch (FileNotFoundException e) {
+			System.out.println("File not found.");
+			return;
+		}
+		catch (IOException e) {
+			System.out.println("Input / output exception: " + e.getMessage());
+			return;
+		}
+		if (header.getFormat() != StrandHeader.BLOCKS) {
+			/** Without blocks there is nothing to split. */
+			execute(inputFileName, outputFileName);
+			return;
+		}
+		CompressionMetrics metrics = new CompressionMetrics("decompress");
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (Reader in = new BufferedReader(new FileReader(inputFileName), 1 << 16);
+		     Writer bw = new BufferedWriter(new FileWriter(outputFileName), 1 << 16)) {
+			readHeader(in);
+			DecodeTable shared = header.getCode() != null ? new DecodeTable(header.getCode().toFlatTree()) : null;
+			start = endStage(metrics, "header", start);
+			ArrayDeque<Future<char[]>> inFlight = new ArrayDeque<Future<char[]>>();
+			long characters = 0;
+			Callable<char[]> frame;
+			while ((frame = readFrame(in, shared)) != null) {
+				inFlight.add(pool.submit(frame));
+				if (inFlight.size() >= 2 * threads)
+					characters += write(bw, get(inFlight.poll()));
+			}
+			while (!inFlight.isEmpty())
+				characters += write(bw, get(inFlight.poll()));
+			bw.flush();
+			endStage(metrics, "decode", start);
+			metrics.setCode(header.getCode(), null);
+			metrics.setCharacters(characters);
+		}
+		catch (FileNotFoundException e) {
+			System.out.println("File not found.");
+			return;
+		}
+		catch (IOException | IllegalStateException e) {
+			System.out.println("Input / output exception: " + e.getMessage());
+			return;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		complete(metrics, inputFileName, outputFileName);
+	}
+
+  /**
+    * Write a decoded block.
+    * @param bw the destination
+    * @param block the characters of the block
+    * @return the number of characters written
+    * @throws IOException if the destination cannot be written
+    */
+	private static int write(Writer bw, char[] block) throws IOException {
+		bw.write(block);
+		return block.length;
+	}
+
+  /**
+    * Wait for a decoded block.
+    * @param future the block
+    * @return the characters of the block
+    * @throws IOException if decoding the block failed
+    */
+	private static char[] get(Future<char[]> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while decoding blocks.");
+		}
+	}
+
+  /**
+    * Execute the decompression with the whole DNA held in memory.
+    * @param inputFileName file containing the DNA
+    * @param outputFileName file containing the decompressed data
+    */
+	public void executeInMemory(String inputFileName, String outputFileName) {
+		CompressionMetrics metrics = new CompressionMetrics("decompress");
+		long start = System.nanoTime();
 		readFile(inputFileName);
+		start = endStage(metrics, "read", start);
 		decodeBarcode();
 		createTree();
-		decompress();
+		start = endStage(metrics, "header", start);
+		decompressTable();
+		start = endStage(metrics, "decode", start);
 		writeToFile(outputFileName);
+		endStage(metrics, "write", start);
+		metrics.setCode(header != null ? header.getCode() : null, null);
+		metrics.setCharacters(writeList.size());
+		complete(metrics, inputFileName, outputFileName);
 	}
 
   /**
     * Run the program.
-    * @param args the arguments
+    * @param args the input file, the output file, and optionally -threads followed by the number of threads for block-framed DNA and -metrics followed by a file to append JSON metrics to
     */
 	public static void main(String[] args) {
 		Decompressor d = new Decompressor();
-		d.execute(args[0], args[1]);
+		List<String> options = Arrays.asList(args).subList(2, args.length);
+		if (options.contains("-metrics"))
+			d.addListener(new JsonMetricsListener(options.get(options.indexOf("-metrics") + 1)));
+		try {
+			/** Every table named with -table is registered, so the DNA can reference any of them. */
+			for (int i = 0; i + 1 < options.size(); i++) {
+				if (options.get(i).equals("-table"))
+					CodeTable.register(CodeTable.load(options.get(i + 1)));
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Code table could not be read: " + e.getMessage());
+			return;
+		}
+		if (options.contains("-threads"))
+			d.executeParallel(args[0], args[1], Integer.parseInt(options.get(options.indexOf("-threads") + 1)));
+		else
+			d.execute(args[0], args[1]);
 	}
 
 }
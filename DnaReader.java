@@ -0,0 +1,331 @@
+import java.io.*;
+
+/**
+  * Reader that decompresses DNA generated by HuffmanCompressor or BlockCompressor as it is read. The header is parsed when the reader is created, after which the
+  * nucleotides are decoded from a fixed-size buffer, so memory use does not depend on the length of the DNA.
+  */
+public class DnaReader extends Reader {
+
+  /** size of the nucleotide buffer */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** the source of the DNA */
+  private Reader in;
+  /** whether the DNA is divided into blocks */
+  private boolean blocks;
+  /** the decode table of the code shared by every block, or null if each block carries its own */
+  private DecodeTable shared;
+  /** the header read from the front of the DNA */
+  private StrandHeader header;
+  /** the model of adaptive DNA, or null if the code is fixed */
+  private AdaptiveHuffman adaptive;
+  /** the decoder of trained or sampled DNA, or null */
+  private CodeTable.Decoder trained;
+  /** the decoder of context DNA, or null */
+  private ContextModel.Decoder context;
+  /** the single-level table of a short code, or null if the code is decoded with a DecodeTable */
+  private PrefixTable prefix;
+  /** nucleotides collected for the next lookup in prefix */
+  private int window;
+  /** number of nucleotides in window */
+  private int windowBases;
+  /** the decode table of the current block */
+  private DecodeTable table;
+  /** the number of nucleotides resolved by a probe */
+  private int probe;
+  /** the current state of the decoder */
+  private int state;
+  /** nucleotides left in the current block, or -1 if the DNA is not divided into blocks */
+  private long remaining = -1;
+  /** nucleotides read from the source */
+  private char[] input = new char[BUFFER_SIZE];
+  /** decoded characters not yet returned */
+  private char[] pending = new char[BUFFER_SIZE + Math.max(DecodeTable.MAX_PROBE_BASES, PrefixTable.MAX_BASES)];
+  /** index of the next pending character */
+  private int start;
+  /** index after the last pending character */
+  private int end;
+  /** nucleotides collected for the next probe */
+  private int chunk;
+  /** number of nucleotides in chunk */
+  private int chunkBases;
+  /** whether the source has been exhausted */
+  private boolean eof;
+
+  /**
+    * Read the header from the front of the DNA and prepare to decode the rest.
+    * @param in the DNA
+    * @throws IOException if the header cannot be read
+    */
+  public DnaReader(Reader in) throws IOException {
+    this.in = in;
+    Decompressor d = new Decompressor();
+    d.readHeader(in);
+    this.header = d.getHeader();
+    if (header.getFormat() == StrandHeader.ARCHIVE)
+      throw new IOException("Archives hold many files and must be extracted with BatchCompressor.");
+    if (header.getFormat() == StrandHeader.ADAPTIVE) {
+      this.adaptive = new AdaptiveHuffman();
+      return;
+    }
+    if (header.getTable() != null) {
+      this.trained = header.getTable().decoder();
+      return;
+    }
+    if (header.getContext() != null && header.getContext().size() > 0) {
+      this.context = header.getContext().decoder();
+      return;
+    }
+    /** Context DNA whose model kept no context codes is plain DNA in the global code. */
+    this.blocks = header.getFormat() == StrandHeader.BLOCKS;
+    CanonicalCode code = header.getCode();
+    if (!blocks && code.size() > 0 && PrefixTable.fits(code)) {
+      /** A length-limited code is decoded one character per lookup, without states. */
+      this.prefix = CodeCache.shared().prefixTable(code);
+      return;
+    }
+    if (code != null)
+      this.shared = CodeCache.shared().decodeTable(code);
+    if (blocks)
+      this.remaining = 0;
+    else
+      setTable(shared);
+  }
+
+  /**
+    * Return the header read from the front of the DNA.
+    * @return the header
+    */
+  public StrandHeader getHeader() {
+    return header;
+  }
+
+  /**
+    * Switch to a decode table.
+    * @param table the table
+    */
+  private void setTable(DecodeTable table) {
+    this.table = table;
+    this.probe = table.getProbeBases();
+    this.state = 0;
+  }
+
+  /**
+    * Read decompressed characters into a portion of an array.
+    * @param cbuf the destination
+    * @param off the offset at which to start storing characters
+    * @param len the maximum number of characters to read
+    * @return the number of characters read, or -1 at the end of the DNA
+    * @throws IOException if the DNA cannot be read or is not valid
+    */
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    while (start == end) {
+      if (eof)
+        return -1;
+      fill();
+    }
+    int n = Math.min(len, end - start);
+    System.arraycopy(pending, start, cbuf, off, n);
+    start += n;
+    return n;
+  }
+
+  /**
+    * Read the next block of nucleotides and decode it into the pending characters.
+    * @throws IOException if the DNA cannot be read or is not valid
+    */
+  private void fill() throws IOException {
+    start = 0;
+    end = 0;
+    if (prefix != null) {
+      fillPrefix();
+      return;
+    }
+    if (adaptive != null) {
+      fillAdaptive();
+      return;
+    }
+    if (trained != null) {
+      fillTrained();
+      return;
+    }
+    if (context != null) {
+      fillContext();
+      return;
+    }
+    if (remaining == 0) {
+      finishChunk();
+      if (table != null && state != 0)
+        throw new IOException("Block ended inside a character.");
+      if (!nextBlock()) {
+        eof = true;
+        return;
+      }
+    }
+    int n = in.read(input, 0, remaining < 0 ? input.length : (int)Math.min(input.length, remaining));
+    if (n == -1) {
+      if (blocks)
+        throw new EOFException("DNA ended inside a block.");
+      eof = true;
+      finishChunk();
+      if (table != null && state != 0)
+        throw new EOFException("DNA ended inside a character.");
+      return;
+    }
+    if (remaining > 0)
+      remaining -= n;
+    if (table.isEmpty())
+      return;
+    for (int i = 0; i < n; i++) {
+      int b = DecodeTable.base(input[i]);
+      if (b < 0)
+        throw new IOException("Invalid nucleotide: " + input[i]);
+      chunk = (chunk << 2) | b;
+      if (++chunkBases == probe) {
+        int entry = table.probe(state, chunk);
+        int count = count(entry);
+        for (int j = 0; j < count; j++)
+          pending[end++] = (char)table.symbol(state, chunk, j);
+        state = DecodeTable.next(entry);
+        chunk = 0;
+        chunkBases = 0;
+      }
+    }
+  }
+
+  /**
+    * Read the next nucleotides and decode them into the pending characters with the PrefixTable. Once the window holds as many nucleotides as the longest
+    * codeword, the character at its front is looked up and its nucleotides are dropped; at the end of the DNA the window is padded to decode the rest.
+    * @throws IOException if the DNA cannot be read or is not valid
+    */
+  private void fillPrefix() throws IOException {
+    int bases = prefix.getBases();
+    int n = in.read(input, 0, input.length);
+    if (n == -1) {
+      eof = true;
+      while (windowBases > 0) {
+        int entry = prefix.get(window << (2 * (bases - windowBases)));
+        int length = PrefixTable.length(entry);
+        if (entry == 0)
+          throw new IOException("Nucleotides do not match the Huffman Tree.");
+        if (length > windowBases)
+          throw new EOFException("DNA ended inside a character.");
+        pending[end++] = (char)PrefixTable.symbol(entry);
+        windowBases -= length;
+        window &= (1 << (2 * windowBases)) - 1;
+      }
+      return;
+    }
+    for (int i = 0; i < n; i++) {
+      int b = DecodeTable.base(input[i]);
+      if (b < 0)
+        throw new IOException("Invalid nucleotide: " + input[i]);
+      window = (window << 2) | b;
+      if (++windowBases == bases) {
+        int entry = prefix.get(window);
+        if (entry == 0)
+          throw new IOException("Nucleotides do not match the Huffman Tree.");
+        pending[end++] = (char)PrefixTable.symbol(entry);
+        windowBases -= PrefixTable.length(entry);
+        window &= (1 << (2 * windowBases)) - 1;
+      }
+    }
+  }
+
+  /**
+    * Read the next nucleotides and decode them into the pending characters with the adaptive model, which updates as it goes.
+    * @throws IOException if the DNA cannot be read or is not valid
+    */
+  private void fillAdaptive() throws IOException {
+    int n = in.read(input, 0, input.length);
+    if (n == -1) {
+      eof = true;
+      adaptive.finish();
+      return;
+    }
+    end = adaptive.decode(input, 0, n, pending, 0);
+  }
+
+  /**
+    * Read the next nucleotides and decode them into the pending characters with the code of a CodeTable.
+    * @throws IOException if the DNA cannot be read or is not valid
+    */
+  private void fillTrained() throws IOException {
+    int n = in.read(input, 0, input.length);
+    if (n == -1) {
+      eof = true;
+      end = trained.finish(pending, 0);
+      return;
+    }
+    end = trained.decode(input, 0, n, pending, 0);
+  }
+
+  /**
+    * Read the next nucleotides and decode them into the pending characters with the code of each character's context.
+    * @throws IOException if the DNA cannot be read or is not valid
+    */
+  private void fillContext() throws IOException {
+    int n = in.read(input, 0, input.length);
+    if (n == -1) {
+      eof = true;
+      end = context.finish(pending, 0);
+      return;
+    }
+    end = context.decode(input, 0, n, pending, 0);
+  }
+
+  /**
+    * Resolve the nucleotides left over from the last probe one at a time.
+    * @throws IOException if the nucleotides do not follow a path of the tree
+    */
+  private void finishChunk() throws IOException {
+    for (int j = chunkBases - 1; j >= 0; j--) {
+      int b = (chunk >> (2 * j)) & 3;
+      int entry = table.step(state, b);
+      if (count(entry) == 1)
+        pending[end++] = (char)table.stepSymbol(state, b);
+      state = DecodeTable.next(entry);
+    }
+    chunk = 0;
+    chunkBases = 0;
+  }
+
+  /**
+    * Read the frame of the next block.
+    * @return false if the DNA has no more blocks
+    * @throws IOException if the frame cannot be read
+    */
+  private boolean nextBlock() throws IOException {
+    if (StrandHeader.readNumber(in) == 0)
+      return false;
+    remaining = StrandHeader.readNumber(in);
+    setTable(shared != null ? shared : CodeCache.shared().decodeTable(StrandHeader.readCode(in)));
+    return true;
+  }
+
+  /**
+    * Return the number of symbols emitted by an entry.
+    * @param entry the entry
+    * @return the number of symbols
+    * @throws IOException if the nucleotides do not follow a path of the tree
+    */
+  private static int count(int entry) throws IOException {
+    try {
+      return DecodeTable.count(entry);
+    }
+    catch (IllegalStateException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /**
+    * Close the source of the DNA.
+    * @throws IOException if the source cannot be closed
+    */
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
@@ -0,0 +1,165 @@
+import java.util.*;
+
+/**
+  * Quaternary Huffman Tree stored in parallel int arrays indexed by node id instead of linked HuffmanNode objects. The root is node 0, the children of node n are
+  * at children[4 * n] to children[4 * n + 3] in nucleotide order (A, T, C, G), and symbols[n] holds the character of a leaf. A node costs five ints, and walking
+  * the tree reads neighbouring array slots rather than chasing references and boxed Characters.
+  */
+public class FlatTree {
+
+  /** child id of a missing child */
+  public static final int NONE = -1;
+  /** symbol of an internal node */
+  public static final int INTERNAL = -1;
+  /** symbol of a leaf without a character, such as the padding of a legacy tree */
+  public static final int EMPTY = -2;
+
+  /** the four child ids of every node */
+  private int[] children;
+  /** the character of every leaf, INTERNAL or EMPTY otherwise */
+  private int[] symbols;
+  /** the number of nodes */
+  private int size;
+
+  /**
+    * Create a tree whose root is an internal node without children.
+    * @param capacity the number of nodes to allocate room for
+    */
+  public FlatTree(int capacity) {
+    children = new int[4 * Math.max(capacity, 1)];
+    symbols = new int[Math.max(capacity, 1)];
+    addNode(INTERNAL);
+  }
+
+  /**
+    * Copy a linked tree, numbering its nodes in depth-first order.
+    * @param root the root of the Huffman Tree
+    * @return the flat tree
+    */
+  public static FlatTree of(HuffmanNode root) {
+    FlatTree tree = new FlatTree(16);
+    tree.symbols[0] = symbol(root);
+    ArrayDeque<HuffmanNode> nodes = new ArrayDeque<HuffmanNode>();
+    ArrayDeque<Integer> ids = new ArrayDeque<Integer>();
+    nodes.push(root);
+    ids.push(0);
+    while (!nodes.isEmpty()) {
+      HuffmanNode node = nodes.pop();
+      int id = ids.pop();
+      HuffmanNode[] kids = {node.one, node.two, node.three, node.four};
+      for (int b = 0; b < 4; b++) {
+        if (kids[b] != null) {
+          int child = tree.addNode(symbol(kids[b]));
+          tree.children[4 * id + b] = child;
+          nodes.push(kids[b]);
+          ids.push(child);
+        }
+      }
+    }
+    return tree;
+  }
+
+  /**
+    * Return the flat symbol of a linked node.
+    * @param node the node
+    * @return the character, INTERNAL or EMPTY
+    */
+  private static int symbol(HuffmanNode node) {
+    if (node.one != null || node.two != null || node.three != null || node.four != null)
+      return INTERNAL;
+    return node.getChar() == null ? EMPTY : node.getChar();
+  }
+
+  /**
+    * Add the path of a codeword to the tree, ending in a leaf.
+    * @param code the codeword, two bits per nucleotide, first nucleotide in the highest bits
+    * @param length the number of nucleotides in the codeword
+    * @param symbol the character of the leaf
+    * @throws IllegalArgumentException if the codeword passes through a leaf or ends on an existing node
+    */
+  public void insert(long code, int length, int symbol) {
+    int node = 0;
+    for (int j = length - 1; j >= 0; j--) {
+      if (symbols[node] != INTERNAL)
+        throw new IllegalArgumentException("Codeword passes through a leaf.");
+      int slot = 4 * node + ((int)(code >>> (2 * j)) & 3);
+      if (children[slot] == NONE) {
+        int child = addNode(j == 0 ? symbol : INTERNAL);
+        children[slot] = child;
+        node = child;
+      }
+      else if (j == 0)
+        throw new IllegalArgumentException("Codeword is a prefix of another.");
+      else
+        node = children[slot];
+    }
+  }
+
+  /**
+    * Append a node without children.
+    * @param symbol the character, INTERNAL or EMPTY
+    * @return the id of the node
+    */
+  private int addNode(int symbol) {
+    if (size == symbols.length) {
+      symbols = Arrays.copyOf(symbols, size * 2);
+      children = Arrays.copyOf(children, size * 8);
+    }
+    Arrays.fill(children, 4 * size, 4 * size + 4, NONE);
+    symbols[size] = symbol;
+    return size++;
+  }
+
+  /**
+    * Return the number of nodes.
+    * @return the number of nodes
+    */
+  public int size() {
+    return size;
+  }
+
+  /**
+    * Return the child reached from a node by a nucleotide.
+    * @param node the parent
+    * @param base the nucleotide code (A = 0, T = 1, C = 2, G = 3)
+    * @return the child, or NONE
+    */
+  public int child(int node, int base) {
+    return children[4 * node + base];
+  }
+
+  /**
+    * Return the character of a node.
+    * @param node the node
+    * @return the character of a leaf, INTERNAL or EMPTY otherwise
+    */
+  public int symbol(int node) {
+    return symbols[node];
+  }
+
+  /**
+    * Return whether a node is a leaf.
+    * @param node the node
+    * @return whether the node is a leaf
+    */
+  public boolean isLeaf(int node) {
+    return symbols[node] != INTERNAL;
+  }
+
+  /**
+    * Copy the tree into linked HuffmanNodes.
+    * @return the root of the Huffman Tree
+    */
+  public HuffmanNode toNode() {
+    HuffmanNode[] nodes = new HuffmanNode[size];
+    /** Children always have larger ids than their parents, so build from the last node back. */
+    for (int n = size - 1; n >= 0; n--) {
+      HuffmanNode[] kids = new HuffmanNode[4];
+      for (int b = 0; b < 4; b++)
+        kids[b] = children[4 * n + b] == NONE ? null : nodes[children[4 * n + b]];
+      nodes[n] = new HuffmanNode(symbols[n] >= 0 ? Character.valueOf((char)symbols[n]) : null, 0, kids[0], kids[1], kids[2], kids[3]);
+    }
+    return nodes[0];
+  }
+
+}
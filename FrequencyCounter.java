@@ -0,0 +1,283 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+  * Histogram of characters on primitive counters: a dense long array for the Basic Multilingual Plane and an IntLongMap for sparse higher code points.
+  * Large inputs are counted in parallel, each worker thread filling its own histogram, and the histograms are merged once all the tasks are done.
+  */
+public class FrequencyCounter {
+
+  /** the number of characters counted in the dense array */
+  public static final int DENSE = 1 << 16;
+  /** the number of characters below which a task counts instead of splitting */
+  private static final int THRESHOLD = 1 << 18;
+  /** the number of characters read from a file per task */
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  /** the frequency of every character below DENSE */
+  private long[] dense = new long[DENSE];
+  /** the frequency of every character from DENSE up */
+  private IntLongMap sparse = new IntLongMap();
+
+  /**
+    * Count one occurrence of a character.
+    * @param symbol the character or code point
+    */
+  public void add(int symbol) {
+    if (symbol < DENSE)
+      dense[symbol]++;
+    else
+      sparse.add(symbol, 1);
+  }
+
+  /**
+    * Count several occurrences of a character.
+    * @param symbol the character or code point
+    * @param count the number of occurrences
+    */
+  public void add(int symbol, long count) {
+    if (symbol < DENSE)
+      dense[symbol] += count;
+    else
+      sparse.add(symbol, count);
+  }
+
+  /**
+    * Count the characters of part of an array.
+    * @param data the characters
+    * @param from the index of the first character
+    * @param to the index after the last character
+    */
+  public void add(char[] data, int from, int to) {
+    long[] d = dense;
+    for (int i = from; i < to; i++)
+      d[data[i]]++;
+  }
+
+  /**
+    * Add the counts of another histogram to this one.
+    * @param other the other histogram
+    */
+  public void merge(FrequencyCounter other) {
+    for (int c = 0; c < DENSE; c++)
+      dense[c] += other.dense[c];
+    sparse.addAll(other.sparse);
+  }
+
+  /**
+    * Return the frequency of a character.
+    * @param symbol the character or code point
+    * @return the frequency
+    */
+  public long get(int symbol) {
+    return symbol < DENSE ? dense[symbol] : sparse.get(symbol);
+  }
+
+  /**
+    * Return the number of characters counted.
+    * @return the sum of the frequencies
+    */
+  public long total() {
+    long total = 0;
+    for (long f : dense)
+      total += f;
+    for (int s : sparse.keys())
+      total += sparse.get(s);
+    return total;
+  }
+
+  /**
+    * Return the characters that occur, in ascending order.
+    * @return the characters
+    */
+  public int[] symbols() {
+    int n = 0;
+    for (long f : dense) {
+      if (f != 0)
+        n++;
+    }
+    int[] high = sparse.keys();
+    int[] result = new int[n + high.length];
+    n = 0;
+    for (int c = 0; c < DENSE; c++) {
+      if (dense[c] != 0)
+        result[n++] = c;
+    }
+    System.arraycopy(high, 0, result, n, high.length);
+    return result;
+  }
+
+  /**
+    * Return the frequencies of characters.
+    * @param symbols the characters
+    * @return the frequency of each character
+    */
+  public long[] frequencies(int[] symbols) {
+    long[] result = new long[symbols.length];
+    for (int i = 0; i < symbols.length; i++)
+      result[i] = get(symbols[i]);
+    return result;
+  }
+
+  /**
+    * Return the canonical code for the characters that occur.
+    * @return the code
+    */
+  public CanonicalCode toCode() {
+    return toCode(CanonicalCode.MAX_LENGTH);
+  }
+
+  /**
+    * Return the canonical code for the characters that occur, with no codeword longer than a limit.
+    * @param maxLength the longest codeword allowed
+    * @return the code
+    */
+  public CanonicalCode toCode(int maxLength) {
+    int[] symbols = symbols();
+    return CanonicalCode.fromFrequencies(symbols, frequencies(symbols), maxLength);
+  }
+
+  /**
+    * Count part of an array of characters in parallel.
+    * @param data the characters
+    * @param from the index of the first character
+    * @param to the index after the last character
+    * @param pool the pool running the tasks
+    * @return the histogram
+    */
+  public static FrequencyCounter count(char[] data, int from, int to, ForkJoinPool pool) {
+    Map<Thread, FrequencyCounter> counters = new ConcurrentHashMap<Thread, FrequencyCounter>();
+    pool.invoke(new CountTask(data, from, to, counters));
+    return merge(counters);
+  }
+
+  /**
+    * Count the characters of a file in parallel, decoding as many blocks at a time as the pool can count at once from the memory-mapped file.
+    * @param fileName the file
+    * @param pool the pool running the tasks
+    * @return the histogram
+    * @throws IOException if the file cannot be read
+    */
+  public static FrequencyCounter countFile(String fileName, ForkJoinPool pool) throws IOException {
+    Map<Thread, FrequencyCounter> counters = new ConcurrentHashMap<Thread, FrequencyCounter>();
+    try (Reader in = new MappedReader(fileName)) {
+      char[] window = new char[BLOCK_SIZE * pool.getParallelism()];
+      int n;
+      while ((n = readFully(in, window)) > 0)
+        pool.invoke(new CountTask(window, 0, n, counters));
+    }
+    return merge(counters);
+  }
+
+  /**
+    * Merge the histograms of the threads that counted.
+    * @param counters the histogram of each thread
+    * @return the sum of the histograms
+    */
+  private static FrequencyCounter merge(Map<Thread, FrequencyCounter> counters) {
+    FrequencyCounter total = new FrequencyCounter();
+    for (FrequencyCounter counter : counters.values())
+      total.merge(counter);
+    return total;
+  }
+
+  /**
+    * Estimate the frequencies of the characters of a file from a sample instead of counting the whole file: the first sampleSize characters, or with more
+    * than one chunk, runs of sampleSize / chunks characters starting at evenly spaced offsets, so a file whose content drifts is sampled throughout.
+    * @param fileName the file
+    * @param sampleSize the number of characters to count
+    * @param chunks the number of runs the sample is split into, at least 1
+    * @return the histogram of the sample
+    * @throws IOException if the file cannot be read
+    * @throws IllegalArgumentException if chunks is less than 1
+    */
+  public static FrequencyCounter sampleFile(String fileName, long sampleSize, int chunks) throws IOException {
+    if (chunks < 1)
+      throw new IllegalArgumentException("A sample needs at least one chunk, not " + chunks + ".");
+    FrequencyCounter sample = new FrequencyCounter();
+    try (MappedReader in = new MappedReader(fileName)) {
+      long size = in.getSize();
+      long length = Math.max(1, sampleSize / chunks);
+      char[] buffer = new char[(int)Math.min(length, 8192)];
+      for (int k = 0; k < chunks; k++) {
+        in.position(size / chunks * k);
+        boolean aligned = k == 0;
+        long left = length;
+        int n;
+        while (left > 0 && (n = in.read(buffer, 0, (int)Math.min(buffer.length, left))) != -1) {
+          int from = 0;
+          /** A run may start inside a multi-byte character, which decodes as replacement characters up to the first whole one. */
+          while (!aligned && from < n && buffer[from] == '\uFFFD')
+            from++;
+          aligned |= from < n;
+          sample.add(buffer, from, n);
+          left -= n;
+        }
+      }
+    }
+    return sample;
+  }
+
+  /**
+    * Fill an array from a Reader.
+    * @param in the Reader
+    * @param buffer the array
+    * @return the number of characters read, less than the length of the array only at the end of the input
+    * @throws IOException if the input cannot be read
+    */
+  private static int readFully(Reader in, char[] buffer) throws IOException {
+    int n = 0;
+    int r;
+    while (n < buffer.length && (r = in.read(buffer, n, buffer.length - n)) != -1)
+      n += r;
+    return n;
+  }
+
+  /**
+    * Task counting a range of characters, split in half until it is small enough. A leaf adds its range to the histogram of the thread running it, so the
+    * histograms are as many as the threads rather than the leaves, and none is merged on join.
+    */
+  private static class CountTask extends RecursiveAction {
+
+    /** the version of the serialized form, which RecursiveTask inherits from Serializable */
+    private static final long serialVersionUID = 1L;
+
+    /** the characters */
+    private char[] data;
+    /** the index of the first character */
+    private int from;
+    /** the index after the last character */
+    private int to;
+    /** the histogram of each thread, each written only by its thread */
+    private transient Map<Thread, FrequencyCounter> counters;
+
+    /**
+      * Constructor
+      * @param data the characters
+      * @param from the index of the first character
+      * @param to the index after the last character
+      * @param counters the histogram of each thread
+      */
+    CountTask(char[] data, int from, int to, Map<Thread, FrequencyCounter> counters) {
+      this.data = data;
+      this.from = from;
+      this.to = to;
+      this.counters = counters;
+    }
+
+    /**
+      * Count the range into the histogram of the current thread.
+      */
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        counters.computeIfAbsent(Thread.currentThread(), t -> new FrequencyCounter()).add(data, from, to);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new CountTask(data, from, mid, counters), new CountTask(data, mid, to, counters));
+    }
+  }
+
+}
@@ -0,0 +1,327 @@
+import java.io.*;
+
+/**
+  * Thread-safe in-memory codec for messages already held in memory, built once from a code and reused for every message so that no tree or table is built per
+  * call. Messages are encoded with the code of a CodeTable, so characters missing from the code are escaped, and carry no header: the encoder and the decoder
+  * must share the codec, or a table saved and loaded with CodeTable.
+  * <p>
+  * Messages are encoded either to nucleotides, one per char, or to packed bytes: the number of characters as a four-byte integer followed by the nucleotides
+  * four to a byte, first nucleotide in the highest bits, as in a PackedStrand. Each form has a variant that writes into a buffer supplied by the caller.
+  * Codes of at most PrefixTable.MAX_BASES nucleotides, which train() builds, are decoded with one table lookup per character.
+  */
+public class HuffmanCodec {
+
+  /** the number of bytes before the packed nucleotides of a message */
+  public static final int LENGTH_BYTES = 4;
+
+  /** the table whose code is used */
+  private CodeTable table;
+  /** the code over the escape and the characters plus one */
+  private CanonicalCode code;
+  /** the single-level decode table, or null if the code is too long for one */
+  private PrefixTable prefix;
+  /** the number of nucleotides of an escaped character */
+  private int escapeLength;
+
+  /**
+    * Source of the nucleotides of a message, as two-bit codes.
+    */
+  private interface Bases {
+
+    /**
+      * Return a nucleotide.
+      * @param index the index of the nucleotide
+      * @return the code of the nucleotide
+      * @throws IOException if the char at that index is not a nucleotide
+      */
+    int base(int index) throws IOException;
+  }
+
+  /**
+    * Destination of decoded characters.
+    */
+  private interface Sink {
+
+    /**
+      * Store a character.
+      * @param c the character
+      * @param index the index of the character in the message
+      */
+    void put(char c, int index);
+  }
+
+  /**
+    * Constructor
+    * @param table the table whose code is used
+    */
+  public HuffmanCodec(CodeTable table) {
+    this.table = table;
+    this.code = table.getCode();
+    this.prefix = PrefixTable.fits(code) ? new PrefixTable(code) : null;
+    this.escapeLength = code.getLength(CodeTable.ESCAPE) + CodeTable.LITERAL_BASES;
+  }
+
+  /**
+    * Build a codec from sample text, with codewords of at most PrefixTable.MAX_BASES nucleotides whenever the sample's characters fit in such a code.
+    * @param sample text like the messages to be encoded
+    * @return the codec
+    */
+  public static HuffmanCodec train(CharSequence sample) {
+    FrequencyCounter counts = new FrequencyCounter();
+    for (int i = 0; i < sample.length(); i++)
+      counts.add(sample.charAt(i));
+    int maxLength = counts.symbols().length < 1 << (2 * PrefixTable.MAX_BASES) ? PrefixTable.MAX_BASES : CanonicalCode.MAX_LENGTH;
+    return new HuffmanCodec(new CodeTable("", 0, CodeTable.escapedCode(counts, maxLength)));
+  }
+
+  /**
+    * Return the table whose code is used, which can be saved for a decoder in another process.
+    * @return the table
+    */
+  public CodeTable getTable() {
+    return table;
+  }
+
+  /**
+    * Return the number of nucleotides a message encodes to.
+    * @param text the message
+    * @return the number of nucleotides
+    */
+  public int encodedLength(CharSequence text) {
+    long length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      int symbol = text.charAt(i) + 1;
+      length += code.contains(symbol) ? code.getLength(symbol) : escapeLength;
+    }
+    return Math.toIntExact(length);
+  }
+
+  /**
+    * Return the number of bytes a message encodes to when packed.
+    * @param text the message
+    * @return the number of bytes
+    */
+  public int packedLength(CharSequence text) {
+    return LENGTH_BYTES + (encodedLength(text) + 3) / 4;
+  }
+
+  /**
+    * Encode a message to nucleotides.
+    * @param text the message
+    * @return the nucleotides
+    */
+  public String encode(CharSequence text) {
+    char[] dna = new char[encodedLength(text)];
+    encode(text, dna, 0);
+    return new String(dna);
+  }
+
+  /**
+    * Encode a message to nucleotides in a buffer.
+    * @param text the message
+    * @param dst the buffer
+    * @param off the index of the first nucleotide in the buffer
+    * @return the number of nucleotides written
+    * @throws IndexOutOfBoundsException if the buffer has no room for encodedLength(text) nucleotides, in which case nothing is written
+    */
+  public int encode(CharSequence text, char[] dst, int off) {
+    int length = encodedLength(text);
+    if (off < 0 || length > dst.length - off)
+      throw new IndexOutOfBoundsException("Buffer has no room for " + length + " nucleotides at " + off + ".");
+    int pos = off;
+    for (int i = 0; i < text.length(); i++)
+      pos = table.encode(text.charAt(i), dst, pos);
+    return pos - off;
+  }
+
+  /**
+    * Encode a message to packed bytes.
+    * @param text the message
+    * @return the bytes
+    */
+  public byte[] encodeToBytes(CharSequence text) {
+    byte[] packed = new byte[packedLength(text)];
+    encode(text, packed, 0);
+    return packed;
+  }
+
+  /**
+    * Encode a message to packed bytes in a buffer.
+    * @param text the message
+    * @param dst the buffer
+    * @param off the index of the first byte in the buffer
+    * @return the number of bytes written
+    * @throws IndexOutOfBoundsException if the buffer has no room for packedLength(text) bytes, in which case nothing is written
+    */
+  public int encode(CharSequence text, byte[] dst, int off) {
+    int length = encodedLength(text);
+    int bytes = LENGTH_BYTES + (length + 3) / 4;
+    if (off < 0 || bytes > dst.length - off)
+      throw new IndexOutOfBoundsException("Buffer has no room for " + bytes + " bytes at " + off + ".");
+    /** Pad the nucleotides to whole bytes with A, which the character count tells the decoder to ignore. */
+    char[] dna = new char[(length + 3) & ~3];
+    int pos = 0;
+    for (int i = 0; i < text.length(); i++)
+      pos = table.encode(text.charAt(i), dna, pos);
+    java.util.Arrays.fill(dna, pos, dna.length, 'A');
+    int n = text.length();
+    for (int i = 0; i < LENGTH_BYTES; i++)
+      dst[off + i] = (byte)(n >>> (8 * (LENGTH_BYTES - 1 - i)));
+    NucleotideKernels.get().pack(dna, 0, dna.length / 4, dst, off + LENGTH_BYTES);
+    return bytes;
+  }
+
+  /**
+    * Decode nucleotides to a message.
+    * @param dna the nucleotides of exactly one message
+    * @return the message
+    * @throws IOException if the nucleotides are not valid for the code
+    */
+  public String decode(CharSequence dna) throws IOException {
+    StringBuilder text = new StringBuilder(dna.length() / 2);
+    decode(text(dna), dna.length(), -1, (c, i) -> text.append(c));
+    return text.toString();
+  }
+
+  /**
+    * Decode nucleotides to a message in a buffer.
+    * @param dna the nucleotides of exactly one message
+    * @param dst the buffer
+    * @param off the index of the first character in the buffer
+    * @return the number of characters written
+    * @throws IOException if the nucleotides are not valid for the code
+    * @throws IndexOutOfBoundsException if the message does not fit in the buffer
+    */
+  public int decode(CharSequence dna, char[] dst, int off) throws IOException {
+    return decode(text(dna), dna.length(), -1, (c, i) -> dst[off + i] = c);
+  }
+
+  /**
+    * Return the number of characters of a packed message.
+    * @param packed the bytes
+    * @param off the index of the first byte of the message
+    * @return the number of characters
+    */
+  public static int decodedLength(byte[] packed, int off) {
+    int n = 0;
+    for (int i = 0; i < LENGTH_BYTES; i++)
+      n = (n << 8) | (packed[off + i] & 0xff);
+    return n;
+  }
+
+  /**
+    * Decode packed bytes to a message.
+    * @param packed the bytes
+    * @param off the index of the first byte of the message
+    * @param len the number of bytes of the message
+    * @return the message
+    * @throws IOException if the bytes are not valid for the code
+    */
+  public String decode(byte[] packed, int off, int len) throws IOException {
+    char[] text = new char[checkPacked(packed, off, len)];
+    decode(packed, off, len, text, 0);
+    return new String(text);
+  }
+
+  /**
+    * Decode packed bytes to a message in a buffer.
+    * @param packed the bytes
+    * @param off the index of the first byte of the message
+    * @param len the number of bytes of the message
+    * @param dst the buffer, which must have room for decodedLength(packed, off) characters
+    * @param dstOff the index of the first character in the buffer
+    * @return the number of characters written
+    * @throws IOException if the bytes are not valid for the code
+    * @throws IndexOutOfBoundsException if the message does not fit in the buffer
+    */
+  public int decode(byte[] packed, int off, int len, char[] dst, int dstOff) throws IOException {
+    int n = checkPacked(packed, off, len);
+    if (dstOff < 0 || n > dst.length - dstOff)
+      throw new IndexOutOfBoundsException("Buffer has no room for " + n + " characters at " + dstOff + ".");
+    int start = off + LENGTH_BYTES;
+    Bases bases = i -> (packed[start + (i >>> 2)] >> (2 * (3 - (i & 3)))) & 3;
+    return decode(bases, 4 * (len - LENGTH_BYTES), n, (c, i) -> dst[dstOff + i] = c);
+  }
+
+  /**
+    * Check the bounds of a packed message and return its number of characters.
+    * @param packed the bytes
+    * @param off the index of the first byte of the message
+    * @param len the number of bytes of the message
+    * @return the number of characters
+    * @throws IOException if the message is shorter than its length field
+    */
+  private static int checkPacked(byte[] packed, int off, int len) throws IOException {
+    if (off < 0 || len < LENGTH_BYTES || len > packed.length - off)
+      throw new IOException("Packed message is shorter than its length.");
+    int n = decodedLength(packed, off);
+    if (n < 0)
+      throw new IOException("Packed message has an invalid length.");
+    return n;
+  }
+
+  /**
+    * Return the nucleotides of a CharSequence.
+    * @param dna the nucleotides
+    * @return the source
+    */
+  private static Bases text(CharSequence dna) {
+    return i -> {
+      int b = DecodeTable.base(dna.charAt(i));
+      if (b < 0)
+        throw new IOException("Invalid nucleotide: " + dna.charAt(i));
+      return b;
+    };
+  }
+
+  /**
+    * Decode characters until the nucleotides or the characters run out.
+    * @param in the nucleotides
+    * @param length the number of nucleotides
+    * @param count the number of characters, or -1 to decode every nucleotide
+    * @param out the destination of the characters
+    * @return the number of characters decoded
+    * @throws IOException if the nucleotides are not valid for the code or end inside a character
+    */
+  private int decode(Bases in, int length, int count, Sink out) throws IOException {
+    int pos = 0;
+    int n = 0;
+    while (count < 0 ? pos < length : n < count) {
+      int symbol;
+      if (prefix != null) {
+        /** Look up the codeword at the front of the next getBases() nucleotides, padding past the end with A. */
+        int window = 0;
+        for (int j = 0; j < prefix.getBases(); j++)
+          window = (window << 2) | (pos + j < length ? in.base(pos + j) : 0);
+        int entry = prefix.get(window);
+        if (entry == 0)
+          throw new IOException("Nucleotides do not match the code.");
+        symbol = PrefixTable.symbol(entry);
+        pos += PrefixTable.length(entry);
+      }
+      else {
+        long bits = 0;
+        symbol = -1;
+        for (int j = 1; symbol < 0; j++) {
+          if (j > CanonicalCode.MAX_LENGTH || pos >= length)
+            throw new IOException(pos >= length ? "DNA ended inside a character." : "Nucleotides do not match the code.");
+          bits = (bits << 2) | in.base(pos++);
+          symbol = code.lookup(bits, j);
+        }
+      }
+      int c = symbol - 1;
+      if (symbol == CodeTable.ESCAPE) {
+        if (pos + CodeTable.LITERAL_BASES > length)
+          throw new EOFException("DNA ended inside a character.");
+        c = 0;
+        for (int j = 0; j < CodeTable.LITERAL_BASES; j++)
+          c = (c << 2) | in.base(pos++);
+      }
+      if (pos > length)
+        throw new EOFException("DNA ended inside a character.");
+      out.put((char)c, n++);
+    }
+    return n;
+  }
+
+}
@@ -1,8 +1,10 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
-  * Compress a file using Huffman Encoding specified by a base-4 tree in which each branch is a separate nucleotide. The output file includes a barcode which specifies the frequency of each character in the input file that can be used to decode the file. The file itself is composed solely of nucleotides. Decodes all characters represented in UTF-8.
+  * Compress a file using Huffman Encoding specified by a base-4 tree in which each branch is a separate nucleotide. The output file includes a header which specifies the codeword length of each character in the input file that can be used to decode the file. The file itself is composed solely of nucleotides. Decodes all characters represented in UTF-8.
   */
 public class HuffmanCompressor {
 
@@ -14,12 +16,28 @@ public class HuffmanCompressor {
   private HuffmanNode[] readArray;
   /** ArrayList to count frequencies and assemble tree */
   private ArrayList<HuffmanNode> readList = new ArrayList<HuffmanNode>();
+  /** whether readArray and readList still have to be filled from the counts of readInput() */
+  private boolean nodesPending;
   /**Store the nucleotide parsing of the Huffman Tree. */
   private StringBuilder str = new StringBuilder();
   /**store the root of the Huffman tree */
   private HuffmanNode rt;
   /** store the size of the ArrayList before creating a HuffmanTree from the list */
   private int size;
+  /** whether to write the DNA as a PackedStrand container instead of text */
+  private boolean packed;
+  /** the frequencies counted by readInput() */
+  private FrequencyCounter counts = new FrequencyCounter();
+  /** the longest codeword canonicalCode() may assign */
+  private int maxCodeLength = CanonicalCode.MAX_LENGTH;
+  /** the cache of codes by histogram fingerprint, or null to build every code */
+  private CodeCache codeCache;
+  /** whether reading, encoding and writing overlap on a Pipeline */
+  private boolean pipelined = true;
+  /** whether traverse() prints every codeword */
+  private boolean verbose;
+  /** the listeners told about every run */
+  private List<CompressionListener> listeners = new java.util.concurrent.CopyOnWriteArrayList<CompressionListener>();
 
   /**
     * Constructor
@@ -34,15 +52,19 @@ public class HuffmanCompressor {
   /**
     * Check the max index of any character in a tree to create an array accordingly.
     * @param inputFile the name of the file to be read
+    * @deprecated readInput() sizes the array itself, so this only costs an extra read of the file.
     */
+  @Deprecated
   public void checkSize(String inputFile) {
-    try {
-      BufferedReader inp = new BufferedReader(new FileReader(inputFile));
-      int x;
+    try (Reader inp = new MappedReader(inputFile)) {
+      char[] buffer = new char[8192];
+      int n;
       int size = 0;
-      while ((x = inp.read()) != -1) {
-        if (x > size)
-          size = x;
+      while ((n = inp.read(buffer, 0, buffer.length)) != -1) {
+        for (int i = 0; i < n; i++) {
+          if (buffer[i] > size)
+            size = buffer[i];
+        }
       }
       readArray = new HuffmanNode[size + 1];
     }
@@ -50,24 +72,14 @@ public class HuffmanCompressor {
   }
 
   /**
-    * Method to read the input file and store its characters into first an array of HuffmanNodes with corresponding frequencies then into an ArrayList
+    * Method to read the input file and count its characters in parallel on primitive histograms. The array and ArrayList of HuffmanNodes used by the legacy
+    * tree are filled from the counts only when first needed, since canonicalCode() works from the counts alone.
     * @param inputFile the file to be read
     */
   public void readInput(String inputFile) {
     try {
-      BufferedReader inp = new BufferedReader(new FileReader(inputFile));
-      int x;
-      while ((x = inp.read()) != -1) {
-        /** Immediately acccesses the location because the characters are stored in a location corresponding to their ASCII value. */
-        if (readArray[x] == null)
-          readArray[x] = new HuffmanNode((char)x, 1, null, null, null, null);
-        else
-          readArray[x].increaseFrequency();
-      }
-      for (HuffmanNode n : readArray) {
-        if (n != null)
-          readList.add(n);
-      }
+      counts = FrequencyCounter.countFile(inputFile, ForkJoinPool.commonPool());
+      nodesPending = true;
     }
     catch (FileNotFoundException e) {
       System.out.println("File not found.");
@@ -75,6 +87,23 @@ public class HuffmanCompressor {
     catch (IOException e) {
       System.out.println("Input / output exception.");
     }
+  }
+
+  /**
+    * Store the counts of readInput() into first an array of HuffmanNodes with corresponding frequencies then into an ArrayList, sorted by frequency, unless
+    * that has already been done.
+    */
+  private void fillNodes() {
+    if (!nodesPending)
+      return;
+    nodesPending = false;
+    int[] symbols = counts.symbols();
+    /** The characters are stored in a location corresponding to their value, so the array ends at the largest one. */
+    readArray = new HuffmanNode[symbols.length == 0 ? 1 : symbols[symbols.length - 1] + 1];
+    for (int x : symbols) {
+      readArray[x] = new HuffmanNode((char)x, (int)Math.min(counts.get(x), Integer.MAX_VALUE), null, null, null, null);
+      readList.add(readArray[x]);
+    }
     /** Sort the ArrayList based on frequency of each character. */
     Collections.sort(readList, new Comparator<HuffmanNode>() {
       @Override
@@ -89,6 +118,7 @@ public class HuffmanCompressor {
     * @return the list of HuffmanNodes arranged into a tree
     */
   public ArrayList<HuffmanNode> getReadList() {
+    fillNodes();
     return readList;
   }
 
@@ -97,6 +127,7 @@ public class HuffmanCompressor {
     * @return the list of HuffmanNodes with characters and frequencies
     */
   public HuffmanNode[] getReadArray() {
+    fillNodes();
     return readArray;
   }
 
@@ -114,36 +145,22 @@ public class HuffmanCompressor {
 
   /**
     * Method to create a HuffmanTree by merging the four lowest-frequency HuffmanNodes in the
-    * ArrayList containing nodes that represent unique characters from the inputted file with their corresponding frequencies
+    * ArrayList containing nodes that represent unique characters from the inputted file with their corresponding frequencies.
+    * Afterwards the ArrayList holds only the root.
     */
   public void createTree() {
-		/** Add empty HuffmanNodes so that the merge() method never tries to merge anything but four nodes. */
-		while (readList.size() % 3 != 1) 
-			readList.add(new HuffmanNode(null, 0, null, null, null, null));
-		Collections.sort(readList, new Comparator<HuffmanNode>() {
-      @Override
-      public int compare(HuffmanNode h1, HuffmanNode h2) {
-        return (h1.compareTo(h2));
-      }
-    });
-    this.size = readList.size();
-    for (int i = 0; readList.size() > 1; i++) {
-      mergeNodes();
-      /** Sort the ArrayList based on the frequency of each character. */
-      Collections.sort(readList, new Comparator<HuffmanNode>() {
-        @Override
-        public int compare(HuffmanNode h1, HuffmanNode h2) {
-          return (h1.compareTo(h2));
-        }
-      });
-    }
-    this.rt = readList.get(0);
+    fillNodes();
+    this.size = HuffmanTreeBuilder.paddedSize(readList.size());
+    this.rt = HuffmanTreeBuilder.build(readList);
+    readList.clear();
+    readList.add(this.rt);
   }
 
   /**
     * Method to occupy each open index of the readArray with an empty HuffmanNode.
     */
   public void fillArray() {
+    fillNodes();
     for (int i = 0; i < readArray.length; i++) {
       if (readArray[i] == null)
         readArray[i] = new HuffmanNode(null, 0, null, null, null, null);
@@ -183,7 +200,8 @@ public class HuffmanCompressor {
     /** check that the node is a leaf node with a character assignment */
     if (isLeaf(root)) {
       if (root.getChar() != null) {
-        System.out.printf("%c : %-4d : %s \n", root.getChar(), root.getFrequency(), this.str);
+        if (verbose)
+          System.out.printf("%c : %-4d : %s \n", root.getChar(), root.getFrequency(), this.str);
         readArray[root.getChar()].setBinary(this.str.toString());
       }
       this.str = new StringBuilder();
@@ -204,7 +222,8 @@ public class HuffmanCompressor {
   }
 
   /**
-    * Method to generate a barcode to append to the beginning of the output file used to decompress the DNA.
+    * Method to generate a legacy barcode, which records the frequency of every character up to the largest, to append to the beginning of the output file used to decompress the DNA.
+    * Requires fillArray(). Superseded by StrandHeader.
     * @return String barcode
     */
   public String generateBarcode() {
@@ -237,27 +256,313 @@ public class HuffmanCompressor {
 
 
   /**
-    * Method to read a file, create a HuffmanTree, traverse through the tree, and output the nucleotide representation of the entire file to the given outputFile
+    * Method to create the canonical code for the characters counted by readInput().
+    * @return the canonical code
+    */
+  public CanonicalCode canonicalCode() {
+    int maxLength = codeLength(counts.symbols().length);
+    return codeCache != null ? codeCache.code(counts, maxLength) : counts.toCode(maxLength);
+  }
+
+  /**
+    * Return the longest codeword a code over some symbols may have: the length set by setMaxCodeLength(), or CanonicalCode.MAX_LENGTH with a message when
+    * codewords of that length cannot hold every symbol.
+    * @param symbols the number of symbols
+    * @return the longest codeword allowed
+    */
+  private int codeLength(int symbols) {
+    if (maxCodeLength < CanonicalCode.MAX_LENGTH && symbols > 1L << (2 * maxCodeLength)) {
+      lengthFallback(symbols);
+      return CanonicalCode.MAX_LENGTH;
+    }
+    return maxCodeLength;
+  }
+
+  /**
+    * Report that the codeword length set by setMaxCodeLength() is too short for the input and is not applied.
+    * @param symbols the number of symbols, or -1 if not known
+    */
+  private void lengthFallback(int symbols) {
+    System.out.println("Codewords of " + maxCodeLength + " nucleotides cannot hold " + (symbols < 0 ? "the" : symbols + "") + " characters of the input; the length is not limited.");
+  }
+
+  /**
+    * Method to reuse codes between runs whose histograms have the same fingerprint, so that similar files skip building the Huffman Tree.
+    * @param codeCache the cache, or null to build every code
+    */
+  public void setCodeCache(CodeCache codeCache) {
+    this.codeCache = codeCache;
+  }
+
+  /**
+    * Method to limit the length of the codewords, so that the decoder can use a single small table. With at most PrefixTable.MAX_BASES nucleotides
+    * every character is decoded with one probe, at a small cost in compression when the Huffman Tree would be deeper.
+    * @param maxCodeLength the longest codeword, from 1 to CanonicalCode.MAX_LENGTH
+    */
+  public void setMaxCodeLength(int maxCodeLength) {
+    if (maxCodeLength < 1 || maxCodeLength > CanonicalCode.MAX_LENGTH)
+      throw new IllegalArgumentException("Codeword length " + maxCodeLength + " out of range.");
+    this.maxCodeLength = maxCodeLength;
+  }
+
+  /**
+    * Method to read a file, assign a canonical code from the frequencies of its characters, and output the nucleotide representation of the entire file to the given outputFile
     * @param inputFileName the file to be read
     * @param outputFileName the file to be outputted to
     * @return the result of the execution
     */
   public void huffmanCode(String inputFileName, String outputFileName) {
-    checkSize(inputFileName);
+    CompressionMetrics metrics = new CompressionMetrics("compress");
+    long start = System.nanoTime();
     readInput(inputFileName);
-    createTree();
-    fillArray();
-    for (int i = 0; i < this.size; i++)
-      this.traverse(this.rt);
+    start = endStage(metrics, "count", start);
+    CanonicalCode code = canonicalCode();
+    start = endStage(metrics, "code", start);
+    long[] bases = new long[1];
+    try (Reader inp = new MappedReader(inputFileName);
+         Writer bw = packed ? new PackedStrandWriter(outputFileName) : new BufferedWriter(new FileWriter(outputFileName))) {
+      String header = new StrandHeader(StrandHeader.CANONICAL, code).generate();
+      bw.write(header);
+      bases[0] = header.length();
+      transfer(inp, bw, (in, out) -> bases[0] += encode(in, out, code));
+    }
+    catch (FileNotFoundException e) {
+      System.out.println( "FileNotFoundException");
+      return;
+    }
+    catch (IOException e) {
+      System.out.println("IOException");
+      return;
+    }
+    endStage(metrics, "encode", start);
+    metrics.setCode(code, counts);
+    metrics.setCharacters(counts.total());
+    metrics.setBases(bases[0]);
+    metrics.setFiles(inputFileName, outputFileName);
+    complete(metrics);
+  }
+
+  /**
+    * Method to write the nucleotides of every character read, without a header.
+    * @param inp the characters
+    * @param bw the destination of the nucleotides
+    * @param code the code, which must contain every character read
+    * @return the number of nucleotides written
+    * @throws IOException if the input cannot be read or the destination cannot be written
+    */
+  public static long encode(Reader inp, Writer bw, CanonicalCode code) throws IOException {
+    char[] in = new char[8192];
+    char[] out = new char[in.length * CanonicalCode.MAX_LENGTH];
+    long bases = 0;
+    int n;
+    while ((n = inp.read(in, 0, in.length)) != -1) {
+      int pos = 0;
+      for (int i = 0; i < n; i++)
+        pos = code.encode(in[i], out, pos);
+      bw.write(out, 0, pos);
+      bases += pos;
+    }
+    return bases;
+  }
+
+  /**
+    * Method to compress in a single pass with an adaptive code, so the input is read once and nucleotides are written as soon as characters arrive.
+    * Either name may be "-" for stdin or stdout. The DNA is packed if setPacked() was called, which needs an output file.
+    * @param inputFileName the file to be read
+    * @param outputFileName the file to be outputted to
+    */
+  public void adaptiveCode(String inputFileName, String outputFileName) {
+    CompressionMetrics metrics = new CompressionMetrics("compress");
+    long start = System.nanoTime();
+    try (Reader inp = new BufferedReader(inputFileName.equals("-") ? new InputStreamReader(System.in) : new FileReader(inputFileName));
+         Writer bw = packed ? new PackedStrandWriter(outputFileName)
+                            : new BufferedWriter(outputFileName.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputFileName))) {
+      transfer(inp, bw, (in, out) -> AdaptiveHuffman.compress(in, out, metrics));
+    }
+    catch (FileNotFoundException e) {
+      System.out.println( "FileNotFoundException");
+      return;
+    }
+    catch (IOException e) {
+      System.out.println("IOException");
+      return;
+    }
+    endStage(metrics, "encode", start);
+    metrics.setFiles(inputFileName, outputFileName);
+    complete(metrics);
+  }
+
+  /**
+    * Method to compress with a pre-trained CodeTable, so the input is read once without counting and the header only names the table.
+    * Either name may be "-" for stdin or stdout. The DNA is packed if setPacked() was called, which needs an output file.
+    * @param inputFileName the file to be read
+    * @param outputFileName the file to be outputted to
+    * @param table the table, which the decompressor must be able to find with CodeTable.find()
+    */
+  public void trainedCode(String inputFileName, String outputFileName, CodeTable table) {
+    CompressionMetrics metrics = new CompressionMetrics("compress");
+    long start = System.nanoTime();
+    long[] bases = new long[1];
+    try (Reader inp = new BufferedReader(inputFileName.equals("-") ? new InputStreamReader(System.in) : new FileReader(inputFileName));
+         Writer bw = packed ? new PackedStrandWriter(outputFileName)
+                            : new BufferedWriter(outputFileName.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputFileName))) {
+      String header = new StrandHeader(table).generate();
+      bw.write(header);
+      bases[0] = header.length();
+      transfer(inp, bw, (in, out) -> bases[0] += table.encode(in, out));
+    }
+    catch (FileNotFoundException e) {
+      System.out.println( "FileNotFoundException");
+      return;
+    }
+    catch (IOException e) {
+      System.out.println("IOException");
+      return;
+    }
+    endStage(metrics, "encode", start);
+    metrics.setBases(bases[0]);
+    metrics.setFiles(inputFileName, outputFileName);
+    complete(metrics);
+  }
+
+  /**
+    * Method to compress a file in one pass over its characters, with a code estimated from a sample of the file instead of counted from all of it.
+    * Characters the sample missed are written as the escape codeword followed by a literal, as with a CodeTable.
+    * @param inputFileName the file to be read
+    * @param outputFileName the file to be outputted to
+    * @param sampleSize the number of characters sampled
+    * @param chunks the number of evenly spaced runs the sample is split into; 1 samples the start of the file
+    */
+  public void sampledCode(String inputFileName, String outputFileName, long sampleSize, int chunks) {
+    CompressionMetrics metrics = new CompressionMetrics("compress");
+    long start = System.nanoTime();
+    long[] bases = new long[1];
+    StrandHeader strand;
+    try {
+      FrequencyCounter sample = FrequencyCounter.sampleFile(inputFileName, sampleSize, chunks);
+      start = endStage(metrics, "count", start);
+      /** The escape is one more symbol. */
+      strand = StrandHeader.sampled(CodeTable.escapedCode(sample, codeLength(sample.symbols().length + 1)));
+      CodeTable table = strand.getTable();
+      start = endStage(metrics, "code", start);
+      try (Reader inp = new MappedReader(inputFileName);
+           Writer bw = packed ? new PackedStrandWriter(outputFileName) : new BufferedWriter(new FileWriter(outputFileName))) {
+        String header = strand.generate();
+        bw.write(header);
+        bases[0] = header.length();
+        transfer(inp, bw, (in, out) -> bases[0] += table.encode(in, out));
+      }
+    }
+    catch (FileNotFoundException e) {
+      System.out.println( "FileNotFoundException");
+      return;
+    }
+    catch (IOException e) {
+      System.out.println("IOException");
+      return;
+    }
+    endStage(metrics, "encode", start);
+    metrics.setCode(strand.getCode(), null);
+    metrics.setBases(bases[0]);
+    metrics.setFiles(inputFileName, outputFileName);
+    complete(metrics);
+  }
+
+  /**
+    * Method to compress a file with an order-1 context model, coding each character with the code of the character before it where that code pays for its
+    * place in the header. The file is read twice, once to count pairs of characters and once to encode.
+    * @param inputFileName the file to be read
+    * @param outputFileName the file to be outputted to
+    */
+  public void contextCode(String inputFileName, String outputFileName) {
+    CompressionMetrics metrics = new CompressionMetrics("compress");
+    long start = System.nanoTime();
+    long[] bases = new long[1];
+    StrandHeader strand;
+    try {
+      ContextModel counted;
+      try (Reader inp = new MappedReader(inputFileName)) {
+        counted = ContextModel.count(inp, maxCodeLength);
+      }
+      catch (IllegalArgumentException e) {
+        /** The alphabet is known only once counted, so a length too short for it costs a second count. */
+        lengthFallback(-1);
+        try (Reader inp = new MappedReader(inputFileName)) {
+          counted = ContextModel.count(inp, CanonicalCode.MAX_LENGTH);
+        }
+      }
+      strand = new StrandHeader(counted);
+      ContextModel model = strand.getContext();
+      start = endStage(metrics, "count", start);
+      try (Reader inp = new MappedReader(inputFileName);
+           Writer bw = packed ? new PackedStrandWriter(outputFileName) : new BufferedWriter(new FileWriter(outputFileName))) {
+        String header = strand.generate();
+        start = endStage(metrics, "code", start);
+        bw.write(header);
+        bases[0] = header.length();
+        transfer(inp, bw, (in, out) -> bases[0] += model.encode(in, out));
+      }
+    }
+    catch (FileNotFoundException e) {
+      System.out.println( "FileNotFoundException");
+      return;
+    }
+    catch (IOException e) {
+      System.out.println("IOException");
+      return;
+    }
+    endStage(metrics, "encode", start);
+    metrics.setCode(strand.getCode(), null);
+    metrics.setBases(bases[0]);
+    metrics.setFiles(inputFileName, outputFileName);
+    complete(metrics);
+  }
+
+  /**
+    * Method to compress the raw bytes of a file rather than its characters, so that no charset decoding takes place and binary files are preserved.
+    * The file is read twice, once to count and once to encode; stdin, named "-", is held in memory instead. The output may be "-" for stdout.
+    * The DNA is packed if setPacked() was called, which needs an output file.
+    * @param inputFileName the file to be read
+    * @param outputFileName the file to be outputted to
+    */
+  public void byteCode(String inputFileName, String outputFileName) {
+    CompressionMetrics metrics = new CompressionMetrics("compress");
+    long start = System.nanoTime();
     try {
-      BufferedReader inp = new BufferedReader(new FileReader(inputFileName));
-      BufferedWriter bw = new BufferedWriter(new FileWriter(outputFileName));
-      int x;
-      bw.write(generateBarcode());
-      while ((x = inp.read()) != -1) {
-        bw.write(readArray[x].getBinary());
+      byte[] stdin = inputFileName.equals("-") ? System.in.readAllBytes() : null;
+      long[] counts;
+      if (stdin != null)
+        counts = ByteCodec.count(ByteBuffer.wrap(stdin));
+      else {
+        try (InputStream in = new FileInputStream(inputFileName)) {
+          counts = ByteCodec.count(in);
+        }
       }
-      bw.close();
+      start = endStage(metrics, "count", start);
+      int symbols = 0;
+      for (long f : counts) {
+        if (f != 0)
+          symbols++;
+      }
+      CanonicalCode code = ByteCodec.toCode(counts, codeLength(symbols));
+      start = endStage(metrics, "code", start);
+      long bases;
+      try (InputStream in = stdin != null ? new ByteArrayInputStream(stdin) : new FileInputStream(inputFileName);
+           Writer bw = packed ? new PackedStrandWriter(outputFileName)
+                              : new BufferedWriter(outputFileName.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputFileName))) {
+        String header = new StrandHeader(StrandHeader.BYTES, code).generate();
+        bw.write(header);
+        bases = header.length() + ByteCodec.encode(in, bw, code);
+      }
+      endStage(metrics, "encode", start);
+      FrequencyCounter frequencies = new FrequencyCounter();
+      for (int b = 0; b < ByteCodec.ALPHABET; b++)
+        frequencies.add(b, counts[b]);
+      metrics.setCode(code, frequencies);
+      metrics.setCharacters(frequencies.total());
+      metrics.setBases(bases);
+      metrics.setFiles(inputFileName, outputFileName);
+      complete(metrics);
     }
     catch (FileNotFoundException e) {
       System.out.println( "FileNotFoundException");
@@ -267,12 +572,131 @@ public class HuffmanCompressor {
     }
   }
 
+
+  /**
+    * Run a transform from a source to a sink, overlapping it with the reading and writing on a Pipeline unless setPipelined(false) was called.
+    * @param source the source
+    * @param sink the sink, which is flushed but not closed
+    * @param stage the transform
+    * @throws IOException if the source, the transform or the sink fails
+    */
+  protected void transfer(Reader source, Writer sink, Pipeline.Stage stage) throws IOException {
+    if (pipelined)
+      Pipeline.run(source, sink, stage);
+    else {
+      stage.run(source, sink);
+      sink.flush();
+    }
+  }
+
+  /**
+    * Set whether reading, encoding or decoding, and writing run on separate threads. On by default.
+    * @param pipelined whether to use a Pipeline
+    */
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  /**
+    * Set whether traverse() prints the character, frequency and codeword of every leaf.
+    * @param verbose whether to print the codewords
+    */
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /**
+    * Add a listener told about the stages and measurements of every run.
+    * @param listener the listener
+    */
+  public void addListener(CompressionListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+    * Remove a listener.
+    * @param listener the listener
+    */
+  public void removeListener(CompressionListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+    * Record the end of a stage and tell the listeners.
+    * @param metrics the metrics of the run
+    * @param stage the name of the stage
+    * @param start the time the stage started, from System.nanoTime()
+    * @return the time the stage ended, which is when the next one starts
+    */
+  protected long endStage(CompressionMetrics metrics, String stage, long start) {
+    long end = System.nanoTime();
+    metrics.addStage(stage, end - start);
+    for (CompressionListener l : listeners)
+      l.stageCompleted(metrics.getOperation(), stage, end - start);
+    return end;
+  }
+
+  /**
+    * Hand the metrics of a finished run to the listeners.
+    * @param metrics the metrics of the run
+    */
+  protected void complete(CompressionMetrics metrics) {
+    for (CompressionListener l : listeners)
+      l.completed(metrics);
+  }
+
+  /**
+    * Set whether to write the DNA as a PackedStrand container, four nucleotides per byte, instead of one character per nucleotide.
+    * @param packed whether to pack the DNA
+    */
+  public void setPacked(boolean packed) {
+    this.packed = packed;
+  }
+
   /**
     * Main method to run the program.
-    * @param args the input arguments
+    * @param args the input and output files, optionally followed by -packed, -maxlength with the longest codeword in nucleotides, -metrics with a file to append JSON metrics to, and a mode: -table with a code table file, -sample with a number of characters (and -chunks with a number of runs), -context, -adaptive or -bytes, the first of which in that order wins, by default a canonical code of the whole input; with -adaptive either file may be "-" for stdin or stdout
     */
   public static void main(String[] args) {
     HuffmanCompressor h = new HuffmanCompressor(args[0], args[1]);
-    h.huffmanCode(args[0], args[1]);
+    List<String> options = Arrays.asList(args).subList(2, args.length);
+    h.setPacked(options.contains("-packed"));
+    if (options.contains("-maxlength")) {
+      try {
+        h.setMaxCodeLength(Integer.parseInt(options.get(options.indexOf("-maxlength") + 1)));
+      }
+      catch (IllegalArgumentException e) {
+        System.out.println("-maxlength must be a number of nucleotides from 1 to " + CanonicalCode.MAX_LENGTH + ".");
+        return;
+      }
+    }
+    if (options.contains("-metrics"))
+      h.addListener(new JsonMetricsListener(options.get(options.indexOf("-metrics") + 1)));
+    if (options.contains("-table")) {
+      try {
+        CodeTable table = CodeTable.load(options.get(options.indexOf("-table") + 1));
+        h.trainedCode(args[0], args[1], table);
+      }
+      catch (IOException e) {
+        System.out.println("Code table could not be read: " + e.getMessage());
+      }
+    }
+    else if (options.contains("-sample")) {
+      long sampleSize = Long.parseLong(options.get(options.indexOf("-sample") + 1));
+      int chunks = options.contains("-chunks") ? Integer.parseInt(options.get(options.indexOf("-chunks") + 1)) : 1;
+      if (chunks < 1) {
+        System.out.println("-chunks must be at least 1.");
+        return;
+      }
+      h.sampledCode(args[0], args[1], sampleSize, chunks);
+    }
+    else if (options.contains("-context"))
+      h.contextCode(args[0], args[1]);
+    else if (options.contains("-adaptive"))
+      h.adaptiveCode(args[0], args[1]);
+    else if (options.contains("-bytes"))
+      h.byteCode(args[0], args[1]);
+    else
+      h.huffmanCode(args[0], args[1]);
   }
 }
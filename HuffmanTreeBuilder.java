@@ -0,0 +1,197 @@
+import java.util.*;
+
+/**
+  * Build quaternary Huffman Trees in O(n log n) time with the two-queue method: leaves are sorted once by frequency and merged nodes are queued in the
+  * order they are created, which is already sorted. Empty leaves are added so that every merge takes exactly four nodes. Ties go to leaves before merged nodes
+  * and to earlier leaves before later ones, so the compressor and decompressor always build the same tree.
+  */
+public class HuffmanTreeBuilder {
+
+  /**
+    * Return the number of leaves once empty leaves are added so that every merge takes four nodes.
+    * @param leaves the number of leaves
+    * @return the padded number of leaves
+    */
+  public static int paddedSize(int leaves) {
+    int size = leaves;
+    while (size % 3 != 1)
+      size++;
+    return size;
+  }
+
+  /**
+    * Create a HuffmanTree from leaves with their frequencies. Leaves that come first in the list win ties.
+    * @param leaves the leaves
+    * @return the root of the tree
+    */
+  public static HuffmanNode build(List<HuffmanNode> leaves) {
+    int n = leaves.size();
+    int size = paddedSize(n);
+    long[] weights = new long[size];
+    for (int i = 0; i < n; i++)
+      weights[i] = leaves.get(i).getFrequency();
+    int[] children = merge(weights);
+    HuffmanNode[] nodes = new HuffmanNode[size + children.length / 4];
+    for (int i = 0; i < size; i++)
+      nodes[i] = i < n ? leaves.get(i) : new HuffmanNode(null, 0, null, null, null, null);
+    for (int k = 0; k < children.length / 4; k++) {
+      HuffmanNode h1 = nodes[children[4 * k]];
+      HuffmanNode h2 = nodes[children[4 * k + 1]];
+      HuffmanNode h3 = nodes[children[4 * k + 2]];
+      HuffmanNode h4 = nodes[children[4 * k + 3]];
+      nodes[size + k] = new HuffmanNode(null, h1.getFrequency() + h2.getFrequency() + h3.getFrequency() + h4.getFrequency(), h1, h2, h3, h4);
+    }
+    return nodes[nodes.length - 1];
+  }
+
+  /**
+    * Return the depth in the HuffmanTree of every leaf, which is the length of its nucleotide representation.
+    * @param frequencies the frequency of every leaf; earlier leaves win ties
+    * @return the depth of every leaf
+    */
+  public static int[] codeLengths(long[] frequencies) {
+    int n = frequencies.length;
+    int size = paddedSize(n);
+    int[] children = merge(Arrays.copyOf(frequencies, size));
+    int merges = children.length / 4;
+    int[] depth = new int[size + merges];
+    /** The root is created last, so parents are visited before their children. */
+    for (int k = merges - 1; k >= 0; k--) {
+      for (int j = 0; j < 4; j++)
+        depth[children[4 * k + j]] = depth[size + k] + 1;
+    }
+    return Arrays.copyOf(depth, n);
+  }
+
+  /**
+    * Return the depth of every leaf in an optimal quaternary tree no deeper than a limit, with the package-merge method. Coins worth 4^-j are made for every
+    * leaf at every depth j up to the limit; from the deepest depth up, the coins of a depth are sorted, bundled four at a time into packages worth one coin of
+    * the depth above, and merged with the leaves of that depth. The cheapest 4(n - 1) / 3 coins at depth one, unpacked, give each leaf its depth.
+    * @param frequencies the frequency of every leaf; earlier leaves win ties
+    * @param maxLength the largest depth allowed
+    * @return the depth of every leaf
+    * @throws IllegalArgumentException if the leaves do not fit in a tree of that depth
+    */
+  public static int[] limitedCodeLengths(long[] frequencies, int maxLength) {
+    int n = frequencies.length;
+    int size = paddedSize(n);
+    if (maxLength < 1 || (maxLength < 16 && size > 1L << (2 * maxLength)))
+      throw new IllegalArgumentException(n + " leaves do not fit in a tree of depth " + maxLength + ".");
+    long[] weights = Arrays.copyOf(frequencies, size);
+    int[] order = sort(weights);
+    long[] leaves = new long[size];
+    for (int i = 0; i < size; i++)
+      leaves[i] = weights[order[i]];
+    /** packaged[j][k] tells whether the k-th cheapest coin at depth j + 1 is a package rather than a leaf. */
+    boolean[][] packaged = new boolean[maxLength][];
+    long[] coins = leaves;
+    packaged[maxLength - 1] = new boolean[size];
+    for (int j = maxLength - 2; j >= 0; j--) {
+      int packages = coins.length / 4;
+      long[] merged = new long[size + packages];
+      boolean[] isPackage = new boolean[merged.length];
+      int leaf = 0;
+      int pack = 0;
+      for (int k = 0; k < merged.length; k++) {
+        long bundle = pack < packages ? coins[4 * pack] + coins[4 * pack + 1] + coins[4 * pack + 2] + coins[4 * pack + 3] : Long.MAX_VALUE;
+        if (leaf < size && leaves[leaf] <= bundle)
+          merged[k] = leaves[leaf++];
+        else {
+          merged[k] = bundle;
+          isPackage[k] = true;
+          pack++;
+        }
+      }
+      coins = merged;
+      packaged[j] = isPackage;
+    }
+    /** Every leaf among the chosen coins of a depth is one of the cheapest, so the cheapest leaves each gain a nucleotide. */
+    int[] depth = new int[size];
+    int chosen = 4 * ((size - 1) / 3);
+    for (int j = 0; j < maxLength && chosen > 0; j++) {
+      int leafCount = 0;
+      int packages = 0;
+      for (int k = 0; k < chosen; k++) {
+        if (packaged[j][k])
+          packages++;
+        else
+          leafCount++;
+      }
+      for (int i = 0; i < leafCount; i++)
+        depth[order[i]]++;
+      chosen = 4 * packages;
+    }
+    return Arrays.copyOf(depth, n);
+  }
+
+  /**
+    * Merge the four lowest-weight nodes until one remains.
+    * @param weights the weight of every leaf, padded to a size accepted by paddedSize()
+    * @return the four children of every merged node in order of creation; leaves are numbered by index and merged node k is numbered weights.length + k
+    */
+  private static int[] merge(long[] weights) {
+    int size = weights.length;
+    int merges = (size - 1) / 3;
+    int[] order = sort(weights);
+    int[] children = new int[4 * merges];
+    long[] merged = new long[merges];
+    int leaf = 0;
+    int node = 0;
+    for (int k = 0; k < merges; k++) {
+      long sum = 0;
+      for (int j = 0; j < 4; j++) {
+        int id;
+        if (leaf < size && (node == k || weights[order[leaf]] <= merged[node])) {
+          id = order[leaf++];
+          sum += weights[id];
+        }
+        else {
+          id = size + node;
+          sum += merged[node++];
+        }
+        children[4 * k + j] = id;
+      }
+      merged[k] = sum;
+    }
+    return children;
+  }
+
+  /**
+    * Sort leaf indices by weight, breaking ties by index.
+    * @param weights the weights
+    * @return the sorted indices
+    */
+  private static int[] sort(long[] weights) {
+    int size = weights.length;
+    int bits = 32 - Integer.numberOfLeadingZeros(size);
+    long max = 0;
+    for (long w : weights)
+      max = Math.max(max, w);
+    int[] order = new int[size];
+    if (max < (1L << (63 - bits))) {
+      /** Pack the weight and index into one primitive key. */
+      long[] keys = new long[size];
+      for (int i = 0; i < size; i++)
+        keys[i] = (weights[i] << bits) | i;
+      Arrays.sort(keys);
+      long mask = (1L << bits) - 1;
+      for (int i = 0; i < size; i++)
+        order[i] = (int)(keys[i] & mask);
+      return order;
+    }
+    Integer[] boxed = new Integer[size];
+    for (int i = 0; i < size; i++)
+      boxed[i] = i;
+    Arrays.sort(boxed, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int c = Long.compare(weights[a], weights[b]);
+        return c != 0 ? c : Integer.compare(a, b);
+      }
+    });
+    for (int i = 0; i < size; i++)
+      order[i] = boxed[i];
+    return order;
+  }
+
+}
@@ -0,0 +1,119 @@
+import java.util.*;
+
+/**
+  * Open-addressing hash map from non-negative int keys to long values, used to count sparse characters without boxing.
+  */
+public class IntLongMap {
+
+  /** marks an empty slot */
+  private static final int EMPTY = -1;
+
+  /** the keys, EMPTY where a slot is free */
+  private int[] keys;
+  /** the value of each key */
+  private long[] values;
+  /** the number of keys */
+  private int size;
+
+  /**
+    * Create an empty map.
+    */
+  public IntLongMap() {
+    keys = new int[16];
+    values = new long[16];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  /**
+    * Add to the value of a key, which starts at 0.
+    * @param key the key, which must not be negative
+    * @param delta the amount to add
+    */
+  public void add(int key, long delta) {
+    int i = slot(key);
+    if (keys[i] == EMPTY) {
+      keys[i] = key;
+      if (++size * 2 > keys.length)
+        grow();
+      i = slot(key);
+    }
+    values[i] += delta;
+  }
+
+  /**
+    * Return the value of a key.
+    * @param key the key
+    * @return the value, 0 if the key is absent
+    */
+  public long get(int key) {
+    int i = slot(key);
+    return keys[i] == EMPTY ? 0 : values[i];
+  }
+
+  /**
+    * Return the number of keys.
+    * @return the number of keys
+    */
+  public int size() {
+    return size;
+  }
+
+  /**
+    * Return the keys in ascending order.
+    * @return the keys
+    */
+  public int[] keys() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int k : keys) {
+      if (k != EMPTY)
+        result[n++] = k;
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+    * Add every value of another map to this one.
+    * @param other the other map
+    */
+  public void addAll(IntLongMap other) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != EMPTY)
+        add(other.keys[i], other.values[i]);
+    }
+  }
+
+  /**
+    * Find the slot holding a key, or the free slot where it belongs.
+    * @param key the key
+    * @return the slot
+    */
+  private int slot(int key) {
+    int mask = keys.length - 1;
+    int h = key * 0x9E3779B9;
+    int i = (h ^ (h >>> 16)) & mask;
+    while (keys[i] != EMPTY && keys[i] != key)
+      i = (i + 1) & mask;
+    return i;
+  }
+
+  /**
+    * Double the number of slots.
+    */
+  private void grow() {
+    int[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new int[oldKeys.length * 2];
+    values = new long[oldValues.length * 2];
+    Arrays.fill(keys, EMPTY);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int j = slot(oldKeys[i]);
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+
+}
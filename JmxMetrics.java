@@ -0,0 +1,124 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+/**
+  * CompressionListener that publishes totals and the last run over JMX, so that a long-running process can be watched with jconsole or any JMX client.
+  */
+public class JmxMetrics implements CompressionListener, CompressionMetricsMXBean {
+
+  /** the name under which register() publishes the metrics */
+  public static final String OBJECT_NAME = "Huffman:type=CompressionMetrics";
+
+  /** the metrics registered by register() */
+  private static JmxMetrics registered;
+
+  /** the number of runs completed */
+  private long runs;
+  /** the characters of every run */
+  private long totalCharacters;
+  /** the nucleotides of every run */
+  private long totalBases;
+  /** the nanoseconds of each stage of every run */
+  private TreeMap<String, Long> totalStageNanos = new TreeMap<String, Long>();
+  /** the last run */
+  private CompressionMetrics last;
+
+  /**
+    * Create the metrics and register them with the platform MBean server, or return the ones already registered.
+    * @return the metrics
+    * @throws IllegalStateException if the MBean cannot be registered
+    */
+  public static synchronized JmxMetrics register() {
+    if (registered != null)
+      return registered;
+    try {
+      JmxMetrics metrics = new JmxMetrics();
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+      registered = metrics;
+      return metrics;
+    }
+    catch (JMException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+  }
+
+  /**
+    * Add a run to the totals and keep it as the last run.
+    * @param metrics the measurements
+    */
+  @Override
+  public synchronized void completed(CompressionMetrics metrics) {
+    runs++;
+    totalCharacters += metrics.getCharacters();
+    totalBases += metrics.getBases();
+    for (Map.Entry<String, Long> e : metrics.getStageNanos().entrySet())
+      totalStageNanos.merge(metrics.getOperation() + "." + e.getKey(), e.getValue(), Long::sum);
+    last = metrics;
+  }
+
+  @Override
+  public synchronized long getRuns() {
+    return runs;
+  }
+
+  @Override
+  public synchronized long getTotalCharacters() {
+    return totalCharacters;
+  }
+
+  @Override
+  public synchronized long getTotalBases() {
+    return totalBases;
+  }
+
+  @Override
+  public synchronized Map<String, Long> getTotalStageNanos() {
+    return new TreeMap<String, Long>(totalStageNanos);
+  }
+
+  @Override
+  public synchronized String getLastOperation() {
+    return last == null ? null : last.getOperation();
+  }
+
+  @Override
+  public synchronized long getLastCharacters() {
+    return last == null ? 0 : last.getCharacters();
+  }
+
+  @Override
+  public synchronized double getLastCharactersPerSecond() {
+    return last == null ? 0 : last.getCharactersPerSecond();
+  }
+
+  @Override
+  public synchronized int getLastAlphabetSize() {
+    return last == null ? 0 : last.getAlphabetSize();
+  }
+
+  @Override
+  public synchronized int getLastMaxCodeLength() {
+    return last == null ? 0 : last.getMaxCodeLength();
+  }
+
+  @Override
+  public synchronized double getLastAverageCodeLength() {
+    return last == null ? 0 : last.getAverageCodeLength();
+  }
+
+  @Override
+  public synchronized String getLastJson() {
+    return last == null ? null : last.toJson();
+  }
+
+  @Override
+  public synchronized void reset() {
+    runs = 0;
+    totalCharacters = 0;
+    totalBases = 0;
+    totalStageNanos.clear();
+    last = null;
+  }
+
+}
@@ -0,0 +1,34 @@
+import java.io.*;
+
+/**
+  * CompressionListener that appends the metrics of every run to a file as one JSON object per line.
+  */
+public class JsonMetricsListener implements CompressionListener {
+
+  /** the file receiving the metrics */
+  private String fileName;
+
+  /**
+    * Constructor
+    * @param fileName the file receiving the metrics
+    */
+  public JsonMetricsListener(String fileName) {
+    this.fileName = fileName;
+  }
+
+  /**
+    * Append the metrics of a run.
+    * @param metrics the measurements
+    */
+  @Override
+  public synchronized void completed(CompressionMetrics metrics) {
+    try (Writer w = new BufferedWriter(new FileWriter(fileName, true))) {
+      w.write(metrics.toJson());
+      w.write('\n');
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+  }
+
+}
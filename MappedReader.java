@@ -0,0 +1,171 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+  * Reader decoding a file straight from memory-mapped windows, for the passes that count and encode large inputs. A window of WINDOW_SIZE bytes is mapped at a
+  * time and decoded in bulk into the caller's array, so there is no lock or copy per character as with a BufferedReader over a FileReader, and files larger
+  * than 2 GB are read through successive mappings. A character whose bytes cross the end of a window is decoded from the next window, which starts at the
+  * first byte not yet decoded.
+  * <p>
+  * Malformed input is replaced, as FileReader does.
+  */
+public class MappedReader extends Reader {
+
+  /** the number of bytes mapped at a time */
+  public static final int WINDOW_SIZE = 1 << 26;
+
+  /** the number of bytes mapped at a time by this reader */
+  private int windowSize;
+  /** the file */
+  private FileChannel channel;
+  /** the size of the file */
+  private long size;
+  /** the offset in the file of the start of the window */
+  private long start;
+  /** the mapped window */
+  private MappedByteBuffer window;
+  /** decodes the bytes of the file */
+  private CharsetDecoder decoder;
+  /** the second char of a surrogate pair decoded when only one char was wanted */
+  private CharBuffer pending = CharBuffer.allocate(2);
+  /** whether the decoder has been flushed at the end of the file */
+  private boolean flushed;
+
+  /**
+    * Open a file in the default charset.
+    * @param fileName the file
+    * @throws IOException if the file cannot be opened
+    */
+  public MappedReader(String fileName) throws IOException {
+    this(fileName, Charset.defaultCharset(), WINDOW_SIZE);
+  }
+
+  /**
+    * Open a file.
+    * @param fileName the file
+    * @param charset the charset of the file
+    * @param windowSize the number of bytes mapped at a time, at least 16 so that any character fits
+    * @throws FileNotFoundException if the file does not exist, as with FileReader
+    * @throws IOException if the file cannot be opened
+    */
+  public MappedReader(String fileName, Charset charset, int windowSize) throws IOException {
+    if (windowSize < 16)
+      throw new IllegalArgumentException("Window of " + windowSize + " bytes is too small.");
+    this.windowSize = windowSize;
+    try {
+      this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    }
+    catch (NoSuchFileException e) {
+      throw new FileNotFoundException(fileName + " (No such file or directory)");
+    }
+    this.size = channel.size();
+    this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    pending.flip();
+    map(0);
+  }
+
+  /**
+    * Map the window starting at an offset.
+    * @param offset the offset in the file
+    * @throws IOException if the file cannot be mapped
+    */
+  private void map(long offset) throws IOException {
+    start = offset;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, size - offset));
+  }
+
+  /**
+    * Return the size of the file.
+    * @return the number of bytes
+    */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+    * Continue reading from a byte offset, discarding any char decoded but not yet returned. An offset inside a multi-byte character is decoded as
+    * replacement characters up to the next whole one.
+    * @param offset the offset in the file
+    * @throws IOException if the file is closed or cannot be mapped
+    * @throws IllegalArgumentException if the offset is past the end of the file
+    */
+  public void position(long offset) throws IOException {
+    if (channel == null)
+      throw new IOException("Stream closed");
+    if (offset < 0 || offset > size)
+      throw new IllegalArgumentException("Offset " + offset + " is outside the file.");
+    map(offset);
+    decoder.reset();
+    pending.clear();
+    pending.flip();
+    flushed = false;
+  }
+
+  /**
+    * Decode chars into an array, mapping the next window when the current one is used up.
+    * @param cbuf the destination
+    * @param off the index of the first char
+    * @param len the number of chars wanted
+    * @return the number of chars read, or -1 at the end of the file
+    * @throws IOException if the file is closed or cannot be mapped
+    */
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (channel == null)
+      throw new IOException("Stream closed");
+    if (len == 0)
+      return 0;
+    if (len == 1 && !pending.hasRemaining()) {
+      /** A surrogate pair does not fit in one char, so single chars are decoded two at a time and the second kept for the next read. */
+      pending.clear();
+      decode(pending);
+      pending.flip();
+    }
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    while (pending.hasRemaining() && out.hasRemaining())
+      out.put(pending.get());
+    decode(out);
+    int n = out.position() - off;
+    return n == 0 && flushed ? -1 : n;
+  }
+
+  /**
+    * Decode chars until a buffer is full or the file ends.
+    * @param out the buffer
+    * @throws IOException if the file cannot be mapped
+    */
+  private void decode(CharBuffer out) throws IOException {
+    while (out.hasRemaining() && !flushed) {
+      boolean last = start + window.limit() == size;
+      if (decoder.decode(window, out, last).isOverflow())
+        return;
+      /** Short of the end of the file, the window is used up but for the first bytes of a character, which the next window starts with. */
+      if (last)
+        flushed = decoder.flush(out).isUnderflow();
+      else
+        map(start + window.position());
+    }
+  }
+
+  @Override
+  public boolean ready() {
+    return channel != null && (pending.hasRemaining() || !flushed);
+  }
+
+  /**
+    * Unmap the file by dropping the window and close it.
+    * @throws IOException if the file cannot be closed
+    */
+  @Override
+  public void close() throws IOException {
+    if (channel == null)
+      return;
+    window = null;
+    channel.close();
+    channel = null;
+  }
+
+}
@@ -0,0 +1,134 @@
+/**
+  * Bulk kernels converting between nucleotide characters and two-bit codes (A = 0, T = 1, C = 2, G = 3), checking that characters are nucleotides, and
+  * counting each nucleotide. This class is the scalar implementation; get() returns VectorKernels, which computes the same results with the
+  * jdk.incubator.vector API, when that module is present at run time ("--add-modules jdk.incubator.vector") and this class otherwise.
+  * <p>
+  * The code of a nucleotide character is its bit 1 followed by its bit 2, which both implementations use instead of a lookup: 'A' = 0x41, 'T' = 0x54,
+  * 'C' = 0x43 and 'G' = 0x47 give 0, 1, 2 and 3.
+  */
+public class NucleotideKernels {
+
+  /** the nucleotide of each two-bit code */
+  protected static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the kernels used by the codec */
+  private static final NucleotideKernels kernels = load();
+
+  /**
+    * Return the fastest kernels available.
+    * @return VectorKernels if the vector module is present, otherwise the scalar kernels
+    */
+  public static NucleotideKernels get() {
+    return kernels;
+  }
+
+  /**
+    * Load VectorKernels by name, so that this class neither needs the vector module to compile nor fails without it at run time.
+    * @return the kernels
+    */
+  private static NucleotideKernels load() {
+    if (Boolean.getBoolean("huffman.scalar"))
+      return new NucleotideKernels();
+    try {
+      return (NucleotideKernels)Class.forName("VectorKernels").getConstructor().newInstance();
+    }
+    catch (ReflectiveOperationException | LinkageError e) {
+      return new NucleotideKernels();
+    }
+  }
+
+  /**
+    * Return the name of the implementation.
+    * @return "scalar" or "vector"
+    */
+  public String getName() {
+    return "scalar";
+  }
+
+  /**
+    * Return the two-bit code of a nucleotide character, which must be a nucleotide.
+    * @param c the character
+    * @return the code
+    */
+  protected static int code(int c) {
+    return (c & 2) | ((c >> 2) & 1);
+  }
+
+  /**
+    * Find the first character that is not a nucleotide.
+    * @param bases the characters
+    * @param from the index of the first character
+    * @param to the index after the last character
+    * @return the index of the first character other than A, C, G or T, or -1 if there is none
+    */
+  public int findInvalid(char[] bases, int from, int to) {
+    for (int i = from; i < to; i++) {
+      char c = bases[i];
+      if (c != 'A' && c != 'C' && c != 'G' && c != 'T')
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+    * Pack nucleotides four to a byte, first nucleotide in the highest bits.
+    * @param bases the nucleotides, which must all be valid
+    * @param from the index of the first nucleotide
+    * @param bytes the number of bytes to fill, each from four nucleotides
+    * @param out the destination
+    * @param pos the index of the first byte in the destination
+    */
+  public void pack(char[] bases, int from, int bytes, byte[] out, int pos) {
+    for (int k = 0; k < bytes; k++) {
+      int i = from + 4 * k;
+      out[pos + k] = (byte)((code(bases[i]) << 6) | (code(bases[i + 1]) << 4) | (code(bases[i + 2]) << 2) | code(bases[i + 3]));
+    }
+  }
+
+  /**
+    * Unpack bytes into four nucleotides each, first nucleotide from the highest bits.
+    * @param packed the bytes
+    * @param from the index of the first byte
+    * @param bytes the number of bytes
+    * @param out the destination of 4 * bytes nucleotides
+    * @param pos the index of the first nucleotide in the destination
+    */
+  public void unpack(byte[] packed, int from, int bytes, char[] out, int pos) {
+    for (int k = 0; k < bytes; k++) {
+      int b = packed[from + k];
+      int i = pos + 4 * k;
+      out[i] = NUCLEOTIDES[(b >> 6) & 3];
+      out[i + 1] = NUCLEOTIDES[(b >> 4) & 3];
+      out[i + 2] = NUCLEOTIDES[(b >> 2) & 3];
+      out[i + 3] = NUCLEOTIDES[b & 3];
+    }
+  }
+
+  /**
+    * Count each nucleotide.
+    * @param bases the characters
+    * @param from the index of the first character
+    * @param to the index after the last character
+    * @param counts the counts of A, T, C and G, in the order of their codes, added to; other characters are not counted
+    */
+  public void count(char[] bases, int from, int to, long[] counts) {
+    long a = 0;
+    long t = 0;
+    long c = 0;
+    long g = 0;
+    for (int i = from; i < to; i++) {
+      switch (bases[i]) {
+        case 'A': a++; break;
+        case 'T': t++; break;
+        case 'C': c++; break;
+        case 'G': g++; break;
+        default: break;
+      }
+    }
+    counts[0] += a;
+    counts[1] += t;
+    counts[2] += c;
+    counts[3] += g;
+  }
+
+}
@@ -0,0 +1,331 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+  * Binary container for DNA that packs four nucleotides into each byte (A = 0, T = 1, C = 2, G = 3, first nucleotide in the highest bits) instead of one
+  * nucleotide per character. The container is "DNA2", the number of nucleotides as an eight-byte integer, then the packed nucleotides. It is read through
+  * memory-mapped windows, so files larger than 2 GB are supported and decompression probes the DecodeTable straight from the mapped bytes.
+  */
+public class PackedStrand implements Closeable {
+
+  /** the first bytes of every container */
+  public static final byte[] MAGIC = {'D', 'N', 'A', '2'};
+  /** the number of bytes before the packed nucleotides */
+  public static final int HEADER_BYTES = MAGIC.length + 8;
+  /** log2 of the size of each mapped window */
+  private static final int WINDOW_BITS = 30;
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the container file */
+  private FileChannel channel;
+  /** the mapped windows of the file */
+  private MappedByteBuffer[] windows;
+  /** the number of nucleotides in the container */
+  private long bases;
+  /** the index of the next nucleotide returned by reader() */
+  private long cursor;
+
+  /**
+    * Open and map a container file.
+    * @param fileName the container file
+    * @throws IOException if the file cannot be read or is not a container
+    */
+  public PackedStrand(String fileName) throws IOException {
+    this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    long size = channel.size();
+    int count = (int)((size + (1L << WINDOW_BITS) - 1) >>> WINDOW_BITS);
+    this.windows = new MappedByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long start = (long)i << WINDOW_BITS;
+      windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << WINDOW_BITS, size - start));
+    }
+    if (size < HEADER_BYTES || !Arrays.equals(MAGIC, new byte[] {byteAt(0), byteAt(1), byteAt(2), byteAt(3)})) {
+      close();
+      throw new IOException(fileName + " is not a packed DNA file.");
+    }
+    for (int i = 0; i < 8; i++)
+      bases = (bases << 8) | (byteAt(MAGIC.length + i) & 0xff);
+    if (bases < 0 || HEADER_BYTES + (bases + 3) / 4 > size) {
+      close();
+      throw new IOException(fileName + " is shorter than its nucleotide count.");
+    }
+  }
+
+  /**
+    * Check whether a file starts with the container's magic bytes.
+    * @param fileName the file
+    * @return whether the file is a container
+    */
+  public static boolean isPacked(String fileName) {
+    try (InputStream in = new FileInputStream(fileName)) {
+      byte[] start = new byte[MAGIC.length];
+      return in.read(start) == MAGIC.length && Arrays.equals(MAGIC, start);
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+    * Return the number of nucleotides in the container.
+    * @return the number of nucleotides
+    */
+  public long getBases() {
+    return bases;
+  }
+
+  /**
+    * Return a byte of the file.
+    * @param offset the offset in the file
+    * @return the byte
+    */
+  private byte byteAt(long offset) {
+    return windows[(int)(offset >>> WINDOW_BITS)].get((int)(offset & ((1L << WINDOW_BITS) - 1)));
+  }
+
+  /**
+    * Copy bytes of the file, which may span two windows.
+    * @param offset the offset in the file of the first byte
+    * @param dst the destination
+    * @param length the number of bytes
+    */
+  private void copy(long offset, byte[] dst, int length) {
+    int done = 0;
+    while (done < length) {
+      long at = offset + done;
+      ByteBuffer window = windows[(int)(at >>> WINDOW_BITS)].duplicate();
+      window.position((int)(at & ((1L << WINDOW_BITS) - 1)));
+      int n = Math.min(length - done, window.remaining());
+      window.get(dst, done, n);
+      done += n;
+    }
+  }
+
+  /**
+    * Return the code of a nucleotide.
+    * @param index the index of the nucleotide
+    * @return the nucleotide code
+    */
+  public int base(long index) {
+    return (byteAt(HEADER_BYTES + (index >>> 2)) >> (2 * (3 - (int)(index & 3)))) & 3;
+  }
+
+  /**
+    * Return a Reader of the nucleotides as characters, starting where the previous reader stopped.
+    * @return the Reader
+    */
+  public Reader reader() {
+    return new Reader() {
+      /** the bytes being unpacked */
+      private byte[] packed = new byte[1 << 12];
+      /** the unpacking kernels */
+      private NucleotideKernels kernels = NucleotideKernels.get();
+
+      @Override
+      public int read(char[] cbuf, int off, int len) {
+        if (cursor >= bases)
+          return -1;
+        int n = (int)Math.min(len, bases - cursor);
+        int i = 0;
+        for (; i < n && (cursor & 3) != 0; i++)
+          cbuf[off + i] = NUCLEOTIDES[base(cursor++)];
+        /** Whole bytes are copied out of the mapping and unpacked in bulk. */
+        while (n - i >= 4) {
+          int count = Math.min((n - i) >> 2, packed.length);
+          copy(HEADER_BYTES + (cursor >>> 2), packed, count);
+          kernels.unpack(packed, 0, count, cbuf, off + i);
+          i += 4 * count;
+          cursor += 4 * count;
+        }
+        for (; i < n; i++)
+          cbuf[off + i] = NUCLEOTIDES[base(cursor++)];
+        return n;
+      }
+
+      @Override
+      public boolean ready() {
+        return cursor < bases;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  /**
+    * Write the nucleotides as characters, converting the container back to the text form.
+    * @param out the destination
+    * @throws IOException if the destination cannot be written
+    */
+  public void unpack(Writer out) throws IOException {
+    cursor = 0;
+    Reader in = reader();
+    char[] buffer = new char[8192];
+    int n;
+    while ((n = in.read(buffer)) != -1)
+      out.write(buffer, 0, n);
+  }
+
+  /**
+    * Decompress DNA of format BYTES in the container.
+    * @param out the destination of the bytes
+    * @return the number of bytes decompressed
+    * @throws IOException if the DNA is not valid or does not hold bytes, or the destination cannot be written
+    */
+  public long decompress(OutputStream out) throws IOException {
+    cursor = 0;
+    return ByteCodec.decompress(reader(), out);
+  }
+
+  /**
+    * Decompress the DNA in the container. The header is read a nucleotide at a time; the rest is decoded a byte at a time from the mapped windows.
+    * @param out the destination of the decompressed characters
+    * @return the number of characters decompressed
+    * @throws IOException if the DNA is not valid or the destination cannot be written
+    */
+  public long decompress(Writer out) throws IOException {
+    cursor = 0;
+    Decompressor d = new Decompressor();
+    d.readHeader(reader());
+    if (d.getHeader().getFormat() != StrandHeader.CANONICAL) {
+      /** Block-framed DNA goes through a DnaReader over the unpacked nucleotides. */
+      cursor = 0;
+      Reader in = new DnaReader(reader());
+      char[] buffer = new char[8192];
+      long characters = 0;
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+        characters += n;
+      }
+      return characters;
+    }
+    d.createTree();
+    DecodeTable table = new DecodeTable(d.getTree());
+    if (table.isEmpty())
+      return 0;
+    long characters = 0;
+    int probe = table.getProbeBases();
+    int mask = (1 << (2 * probe)) - 1;
+    char[] buffer = new char[8192 + 4];
+    int pos = 0;
+    int state = 0;
+    long i = cursor;
+    /** Step through the nucleotides before the first whole byte of the body, and after the last. */
+    long bodyEnd = bases & ~3L;
+    for (; i < bases && ((i & 3) != 0 || i >= bodyEnd); i++) {
+      int b = base(i);
+      int entry = table.step(state, b);
+      if (count(entry) == 1)
+        buffer[pos++] = (char)table.stepSymbol(state, b);
+      state = DecodeTable.next(entry);
+    }
+    long offset = HEADER_BYTES + (i >>> 2);
+    long end = HEADER_BYTES + (bodyEnd >>> 2);
+    while (offset < end) {
+      MappedByteBuffer window = windows[(int)(offset >>> WINDOW_BITS)];
+      int k = (int)(offset & ((1L << WINDOW_BITS) - 1));
+      int limit = (int)Math.min(window.limit(), k + (end - offset));
+      offset += limit - k;
+      for (; k < limit; k++) {
+        int b = window.get(k) & 0xff;
+        for (int shift = 8 - 2 * probe; shift >= 0; shift -= 2 * probe) {
+          int chunk = (b >> shift) & mask;
+          int entry = table.probe(state, chunk);
+          int count = count(entry);
+          for (int j = 0; j < count; j++)
+            buffer[pos++] = (char)table.symbol(state, chunk, j);
+          state = DecodeTable.next(entry);
+        }
+        if (pos >= 8192) {
+          out.write(buffer, 0, pos);
+          characters += pos;
+          pos = 0;
+        }
+      }
+    }
+    for (i = Math.max(i, bodyEnd); i < bases; i++) {
+      int b = base(i);
+      int entry = table.step(state, b);
+      if (count(entry) == 1)
+        buffer[pos++] = (char)table.stepSymbol(state, b);
+      state = DecodeTable.next(entry);
+    }
+    out.write(buffer, 0, pos);
+    return characters + pos;
+  }
+
+  /**
+    * Return the number of symbols emitted by an entry.
+    * @param entry the entry
+    * @return the number of symbols
+    * @throws IOException if the nucleotides do not follow a path of the tree
+    */
+  private static int count(int entry) throws IOException {
+    try {
+      return DecodeTable.count(entry);
+    }
+    catch (IllegalStateException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /**
+    * Convert DNA in text form to a container.
+    * @param textFileName the DNA as text
+    * @param packedFileName the container to create
+    * @throws IOException if a file cannot be read or written or the text is not DNA
+    */
+  public static void pack(String textFileName, String packedFileName) throws IOException {
+    try (Reader in = new BufferedReader(new FileReader(textFileName));
+         PackedStrandWriter out = new PackedStrandWriter(packedFileName)) {
+      char[] buffer = new char[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1)
+        out.write(buffer, 0, n);
+    }
+  }
+
+  /**
+    * Convert a container to DNA in text form.
+    * @param packedFileName the container
+    * @param textFileName the DNA as text to create
+    * @throws IOException if a file cannot be read or written
+    */
+  public static void unpack(String packedFileName, String textFileName) throws IOException {
+    try (PackedStrand in = new PackedStrand(packedFileName);
+         Writer out = new BufferedWriter(new FileWriter(textFileName))) {
+      in.unpack(out);
+    }
+  }
+
+  /**
+    * Release the file. The mapped windows are released once they are garbage collected.
+    * @throws IOException if the file cannot be closed
+    */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+    * Convert between text and packed DNA.
+    * @param args "pack" or "unpack", the input file, and the output file
+    */
+  public static void main(String[] args) {
+    try {
+      if (args[0].equals("pack"))
+        pack(args[1], args[2]);
+      else
+        unpack(args[1], args[2]);
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+  }
+
+}
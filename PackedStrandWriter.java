@@ -0,0 +1,113 @@
+import java.io.*;
+import java.nio.*;
+
+/**
+  * Writer that packs nucleotides into the binary container read by PackedStrand, four nucleotides per byte. The number of nucleotides is written into the
+  * container when the writer is closed.
+  */
+public class PackedStrandWriter extends Writer {
+
+  /** the container file */
+  private FileOutputStream file;
+  /** buffered output to the container file */
+  private OutputStream out;
+  /** nucleotides collected for the next byte */
+  private int pending;
+  /** the number of nucleotides written */
+  private long bases;
+  /** the bytes packed by the kernels before they are written */
+  private byte[] packed = new byte[1 << 12];
+  /** the packing kernels */
+  private NucleotideKernels kernels = NucleotideKernels.get();
+
+  /**
+    * Create a container file.
+    * @param fileName the container file
+    * @throws IOException if the file cannot be created
+    */
+  public PackedStrandWriter(String fileName) throws IOException {
+    this.file = new FileOutputStream(fileName);
+    this.out = new BufferedOutputStream(file, 1 << 16);
+    out.write(PackedStrand.MAGIC);
+    /** Reserve room for the number of nucleotides. */
+    out.write(new byte[8]);
+  }
+
+  /**
+    * Write nucleotides.
+    * @param cbuf the nucleotides
+    * @param off the offset of the first nucleotide
+    * @param len the number of nucleotides
+    * @throws IOException if a char is not a nucleotide or the file cannot be written
+    */
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    int invalid = kernels.findInvalid(cbuf, off, off + len);
+    if (invalid >= 0)
+      throw new IOException("Invalid nucleotide: " + cbuf[invalid]);
+    int i = off;
+    int end = off + len;
+    for (; i < end && (bases & 3) != 0; i++)
+      add(cbuf[i]);
+    /** Whole bytes are packed in bulk once the previous byte is complete. */
+    while (end - i >= 4) {
+      int count = Math.min((end - i) >> 2, packed.length);
+      kernels.pack(cbuf, i, count, packed, 0);
+      out.write(packed, 0, count);
+      i += 4 * count;
+      bases += 4 * count;
+    }
+    for (; i < end; i++)
+      add(cbuf[i]);
+  }
+
+  /**
+    * Add one nucleotide to the next byte, writing the byte once it is complete.
+    * @param c the nucleotide
+    * @throws IOException if the file cannot be written
+    */
+  private void add(char c) throws IOException {
+    pending = (pending << 2) | DecodeTable.base(c);
+    if ((++bases & 3) == 0) {
+      out.write(pending);
+      pending = 0;
+    }
+  }
+
+  /**
+    * Return the number of nucleotides written so far.
+    * @return the number of nucleotides
+    */
+  public long getBases() {
+    return bases;
+  }
+
+  /**
+    * Flush the packed bytes to the file.
+    * @throws IOException if the file cannot be written
+    */
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+    * Write the last partial byte and the number of nucleotides, then close the file.
+    * @throws IOException if the file cannot be written
+    */
+  @Override
+  public void close() throws IOException {
+    if (file == null)
+      return;
+    int extra = (int)(bases & 3);
+    if (extra != 0)
+      out.write(pending << (2 * (4 - extra)));
+    out.flush();
+    ByteBuffer count = ByteBuffer.allocate(8).putLong(bases);
+    count.flip();
+    file.getChannel().write(count, PackedStrand.MAGIC.length);
+    out.close();
+    file = null;
+  }
+
+}
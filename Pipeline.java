@@ -0,0 +1,342 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+  * Three-stage pipeline that overlaps reading, transforming and writing. A reader thread fills pooled buffers from the source, the calling thread runs the
+  * transform (encoding or decoding) over them, and a writer thread drains the transformed buffers to the sink. The stages are connected by bounded queues, and
+  * every buffer returns to its pool once it has been consumed, so nothing is allocated per chunk and at most DEPTH buffers are in flight on each side.
+  */
+public class Pipeline {
+
+  /** the default number of characters in each buffer */
+  public static final int BUFFER_SIZE = 1 << 16;
+  /** the default number of buffers on each side of the transform */
+  public static final int DEPTH = 4;
+
+  /**
+    * The middle stage, reading from the reader thread and writing to the writer thread.
+    */
+  public interface Stage {
+
+    /**
+      * Transform everything read from one stream into the other.
+      * @param in the characters filled by the reader thread
+      * @param out the destination drained by the writer thread
+      * @throws IOException if the transform fails or either end of the pipeline fails
+      */
+    void run(Reader in, Writer out) throws IOException;
+  }
+
+  /**
+    * Run a stage between a source and a sink with the default buffers.
+    * @param source the source, read only by the reader thread
+    * @param sink the sink, written only by the writer thread and flushed before returning; it is not closed
+    * @param stage the transform
+    * @throws IOException if the source, the stage or the sink fails
+    */
+  public static void run(Reader source, Writer sink, Stage stage) throws IOException {
+    run(source, sink, stage, BUFFER_SIZE, DEPTH);
+  }
+
+  /**
+    * Run a stage between a source and a sink.
+    * @param source the source, read only by the reader thread
+    * @param sink the sink, written only by the writer thread and flushed before returning; it is not closed
+    * @param stage the transform
+    * @param bufferSize the number of characters in each buffer
+    * @param depth the number of buffers on each side of the transform
+    * @throws IOException if the source, the stage or the sink fails
+    */
+  public static void run(Reader source, Writer sink, Stage stage, int bufferSize, int depth) throws IOException {
+    Channel input = new Channel(bufferSize, depth);
+    Channel output = new Channel(bufferSize, depth);
+    Thread reader = new Thread(() -> input.fill(source), "pipeline-reader");
+    Thread writer = new Thread(() -> output.drain(sink), "pipeline-writer");
+    reader.setDaemon(true);
+    writer.setDaemon(true);
+    reader.start();
+    writer.start();
+    boolean done = false;
+    try {
+      Writer out = output.writer();
+      stage.run(input.reader(), out);
+      out.close();
+      writer.join();
+      output.check();
+      done = true;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Pipeline interrupted.");
+    }
+    finally {
+      /** The reader may still be blocked on a full queue if the stage stopped early. */
+      reader.interrupt();
+      if (!done) {
+        /** Wait for the writer so that the caller can close the sink safely. */
+        writer.interrupt();
+        try {
+          writer.join();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+    * A bounded queue of full buffers and a pool of free ones between two threads.
+    */
+  private static class Channel {
+
+    /** the buffers holding characters, in order; a buffer of length -1 ends the stream */
+    private BlockingQueue<Chunk> full;
+    /** the buffers ready to be filled */
+    private BlockingQueue<Chunk> free;
+    /** the failure of the thread at the far end, if any */
+    private volatile IOException error;
+
+    /**
+      * Constructor
+      * @param bufferSize the number of characters in each buffer
+      * @param depth the number of buffers
+      */
+    Channel(int bufferSize, int depth) {
+      full = new ArrayBlockingQueue<Chunk>(depth + 1);
+      free = new ArrayBlockingQueue<Chunk>(depth);
+      for (int i = 0; i < depth; i++)
+        free.add(new Chunk(new char[bufferSize]));
+    }
+
+    /**
+      * Copy a source into the channel until it ends or fails. Runs on the reader thread.
+      * @param source the source
+      */
+    void fill(Reader source) {
+      try {
+        while (true) {
+          Chunk chunk = free.take();
+          try {
+            chunk.length = source.read(chunk.data);
+          }
+          catch (IOException e) {
+            error = e;
+            chunk.length = -1;
+          }
+          full.put(chunk);
+          if (chunk.length < 0)
+            return;
+        }
+      }
+      catch (InterruptedException e) {
+        /** The stage has finished or failed and no longer reads. */
+      }
+    }
+
+    /**
+      * Copy the channel into a sink until it ends, flushing whenever the channel runs dry. Runs on the writer thread.
+      * After a failure the rest of the stream is discarded so that the stage is never left waiting for a free buffer.
+      * @param sink the sink
+      */
+    void drain(Writer sink) {
+      try {
+        while (true) {
+          Chunk chunk = full.take();
+          if (chunk.length < 0)
+            break;
+          try {
+            if (error == null) {
+              sink.write(chunk.data, 0, chunk.length);
+              if (full.isEmpty())
+                sink.flush();
+            }
+          }
+          catch (IOException e) {
+            error = e;
+          }
+          free.put(chunk);
+        }
+        if (error == null)
+          sink.flush();
+      }
+      catch (IOException e) {
+        error = e;
+      }
+      catch (InterruptedException e) {
+        /** The stage has failed. */
+      }
+    }
+
+    /**
+      * Throw the failure of the far end, if any.
+      * @throws IOException the failure
+      */
+    void check() throws IOException {
+      if (error != null)
+        throw error;
+    }
+
+    /**
+      * Return the Reader consuming the channel on the stage's thread.
+      * @return the Reader
+      */
+    Reader reader() {
+      return new Reader() {
+        /** the buffer being read, null between buffers */
+        private Chunk chunk;
+        /** the index of the next character in the buffer */
+        private int pos;
+        /** whether the end of the stream has been reached */
+        private boolean eof;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+          if (len == 0)
+            return 0;
+          while (chunk == null || pos == chunk.length) {
+            if (eof || !next())
+              return -1;
+          }
+          int n = Math.min(len, chunk.length - pos);
+          System.arraycopy(chunk.data, pos, cbuf, off, n);
+          pos += n;
+          return n;
+        }
+
+        @Override
+        public int read() throws IOException {
+          while (chunk == null || pos == chunk.length) {
+            if (eof || !next())
+              return -1;
+          }
+          return chunk.data[pos++];
+        }
+
+        @Override
+        public boolean ready() {
+          return (chunk != null && pos < chunk.length) || !full.isEmpty();
+        }
+
+        /**
+          * Recycle the current buffer and take the next.
+          * @return false at the end of the stream
+          * @throws IOException if the source failed
+          */
+        private boolean next() throws IOException {
+          if (chunk != null)
+            free.add(chunk);
+          chunk = take(full);
+          pos = 0;
+          if (chunk.length < 0) {
+            eof = true;
+            chunk = null;
+            check();
+            return false;
+          }
+          return true;
+        }
+
+        @Override
+        public void close() {}
+      };
+    }
+
+    /**
+      * Return the Writer filling the channel on the stage's thread. Closing it ends the stream.
+      * @return the Writer
+      */
+    Writer writer() {
+      return new Writer() {
+        /** the buffer being filled, null between buffers */
+        private Chunk chunk;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+          while (len > 0) {
+            if (chunk == null) {
+              check();
+              chunk = take(free);
+              chunk.length = 0;
+            }
+            int n = Math.min(len, chunk.data.length - chunk.length);
+            System.arraycopy(cbuf, off, chunk.data, chunk.length, n);
+            chunk.length += n;
+            off += n;
+            len -= n;
+            if (chunk.length == chunk.data.length)
+              flush();
+          }
+        }
+
+        @Override
+        public void flush() throws IOException {
+          if (chunk != null && chunk.length > 0) {
+            put(full, chunk);
+            chunk = null;
+          }
+          check();
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+          put(full, new Chunk(null));
+        }
+      };
+    }
+  }
+
+  /**
+    * Take from a queue, turning an interrupt into an InterruptedIOException.
+    * @param queue the queue
+    * @return the buffer
+    * @throws InterruptedIOException if the thread is interrupted
+    */
+  private static Chunk take(BlockingQueue<Chunk> queue) throws InterruptedIOException {
+    try {
+      return queue.take();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Pipeline interrupted.");
+    }
+  }
+
+  /**
+    * Put into a queue, turning an interrupt into an InterruptedIOException.
+    * @param queue the queue
+    * @param chunk the buffer
+    * @throws InterruptedIOException if the thread is interrupted
+    */
+  private static void put(BlockingQueue<Chunk> queue, Chunk chunk) throws InterruptedIOException {
+    try {
+      queue.put(chunk);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Pipeline interrupted.");
+    }
+  }
+
+  /**
+    * A pooled buffer and the number of characters it holds.
+    */
+  private static class Chunk {
+
+    /** the characters */
+    char[] data;
+    /** the number of characters, -1 at the end of the stream */
+    int length;
+
+    /**
+      * Constructor
+      * @param data the characters, null for the end of the stream
+      */
+    Chunk(char[] data) {
+      this.data = data;
+      this.length = data == null ? -1 : 0;
+    }
+  }
+
+}
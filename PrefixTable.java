@@ -0,0 +1,80 @@
+/**
+  * Single-level decode table for a length-limited canonical code. It has one entry for every string of the longest codeword's length, holding the character
+  * whose codeword starts that string and the codeword's length, so every character is decoded with one probe. With codewords of at most MAX_BASES nucleotides
+  * the table has at most 4^MAX_BASES entries and stays in the L2 cache.
+  */
+public class PrefixTable {
+
+  /** longest codeword the table is built for */
+  public static final int MAX_BASES = 8;
+
+  /** the number of nucleotides indexing the table, the length of the longest codeword */
+  private int bases;
+  /** the character shifted left by five bits plus the codeword length, for every string of nucleotides; 0 if no codeword starts the string */
+  private int[] entries;
+
+  /**
+    * Build the table for a code.
+    * @param code the code, whose codewords must be at most MAX_BASES nucleotides
+    * @throws IllegalArgumentException if a codeword is longer than MAX_BASES
+    */
+  public PrefixTable(CanonicalCode code) {
+    int[] symbols = code.getSymbols();
+    int[] lengths = code.getLengths();
+    long[] codes = code.getCodes();
+    bases = Math.max(1, code.getMaxLength());
+    if (bases > MAX_BASES)
+      throw new IllegalArgumentException("Codewords are longer than " + MAX_BASES + " nucleotides.");
+    entries = new int[1 << (2 * bases)];
+    for (int i = 0; i < symbols.length; i++) {
+      int free = 2 * (bases - lengths[i]);
+      int first = (int)codes[i] << free;
+      java.util.Arrays.fill(entries, first, first + (1 << free), (symbols[i] << 5) | lengths[i]);
+    }
+  }
+
+  /**
+    * Return whether a code is short enough for a table.
+    * @param code the code
+    * @return whether no codeword is longer than MAX_BASES
+    */
+  public static boolean fits(CanonicalCode code) {
+    return code.getMaxLength() <= MAX_BASES;
+  }
+
+  /**
+    * Return the number of nucleotides indexing the table.
+    * @return the length of the longest codeword
+    */
+  public int getBases() {
+    return bases;
+  }
+
+  /**
+    * Look up the codeword at the front of a string of nucleotides.
+    * @param window getBases() nucleotides, two bits each, first nucleotide in the highest bits
+    * @return the entry, 0 if no codeword starts the string
+    */
+  public int get(int window) {
+    return entries[window];
+  }
+
+  /**
+    * Return the character of an entry.
+    * @param entry the entry
+    * @return the character
+    */
+  public static int symbol(int entry) {
+    return entry >>> 5;
+  }
+
+  /**
+    * Return the codeword length of an entry.
+    * @param entry the entry
+    * @return the number of nucleotides
+    */
+  public static int length(int entry) {
+    return entry & 31;
+  }
+
+}
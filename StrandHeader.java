@@ -0,0 +1,268 @@
+import java.io.*;
+
+/**
+  * Versioned header written at the front of the DNA in place of the dense barcode. It stores only the characters that occur and the length of their canonical
+  * codewords, so its size and the memory needed to parse it depend on the number of distinct characters rather than on the largest character.
+  * <p>
+  * Layout: "AAGG", the format number, the number of characters, then for each character in ascending order the gap from the previous character and its codeword
+  * length. Block-framed DNA has a flag before the code, and the code is left out when every block carries its own. Adaptive DNA has no code at all. Numbers are
+  * written in groups of two nucleotides holding a continuation bit and three bits of the number, lowest bits first. A legacy barcode never starts with "AA",
+  * which is how the two are told apart.
+  */
+public class StrandHeader {
+
+  /** first two nucleotides of a header, which a legacy barcode never starts with */
+  public static final String PREFIX = "AA";
+  /** nucleotides that follow the prefix */
+  public static final String MAGIC = "GG";
+  /** format of a single canonical code over the characters of the file */
+  public static final int CANONICAL = 1;
+  /** format of independently encoded blocks, written by BlockCompressor */
+  public static final int BLOCKS = 2;
+  /** format of a code that adapts as the characters are read, written by AdaptiveHuffman */
+  public static final int ADAPTIVE = 3;
+  /** format of a single canonical code over raw bytes rather than characters, written by ByteCodec; the code lists bytes in place of characters */
+  public static final int BYTES = 4;
+  /** format of a pre-trained CodeTable, whose name and version are written in place of its code */
+  public static final int TRAINED = 5;
+  /** format of an Archive of many strands, written by BatchCompressor; it has no code, as its entries carry their own headers */
+  public static final int ARCHIVE = 6;
+  /** format of a code estimated from a sample of the input, listed over an escape and the characters plus one and read as an unnamed CodeTable */
+  public static final int SAMPLED = 7;
+  /** format of an order-1 ContextModel, with a code for each preceding character that pays for its place in the header, listed by ContextModel.write() */
+  public static final int CONTEXT = 8;
+  /** the nucleotide of each two-bit code */
+  private static final char[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+  /** the format of the DNA following the header */
+  private int format;
+  /** the code used by the DNA, or null if every block carries its own */
+  private CanonicalCode code;
+  /** the table named by trained DNA or holding the code of sampled DNA, or null */
+  private CodeTable table;
+  /** the model of context DNA, or null */
+  private ContextModel context;
+
+  /**
+    * Constructor
+    * @param format the format of the DNA following the header
+    * @param code the code used by the DNA, or null if every block carries its own
+    */
+  public StrandHeader(int format, CanonicalCode code) {
+    this.format = format;
+    this.code = code;
+  }
+
+  /**
+    * Create the header of DNA compressed with a trained table.
+    * @param table the table
+    */
+  public StrandHeader(CodeTable table) {
+    this(TRAINED, table.getCode());
+    this.table = table;
+  }
+
+  /**
+    * Create the header of DNA compressed with an order-1 context model.
+    * @param context the model
+    */
+  public StrandHeader(ContextModel context) {
+    this(CONTEXT, context.getGlobal());
+    this.context = context;
+  }
+
+  /**
+    * Return the format of the DNA following the header.
+    * @return the format
+    */
+  public int getFormat() {
+    return format;
+  }
+
+  /**
+    * Return the code used by the DNA.
+    * @return the code, or null if every block carries its own
+    */
+  public CanonicalCode getCode() {
+    return code;
+  }
+
+  /**
+    * Create the header of DNA compressed with a code estimated from a sample.
+    * @param code the code over the escape and the characters plus one
+    * @return the header
+    */
+  public static StrandHeader sampled(CanonicalCode code) {
+    StrandHeader header = new StrandHeader(SAMPLED, code);
+    header.table = new CodeTable("", 0, code);
+    return header;
+  }
+
+  /**
+    * Return the table of trained or sampled DNA.
+    * @return the table, or null if the format is neither TRAINED nor SAMPLED
+    */
+  public CodeTable getTable() {
+    return table;
+  }
+
+  /**
+    * Return the model of context DNA.
+    * @return the model, or null if the format is not CONTEXT
+    */
+  public ContextModel getContext() {
+    return context;
+  }
+
+  /**
+    * Return the nucleotide representation of the header.
+    * @return the header
+    */
+  public String generate() {
+    StringBuilder str = new StringBuilder(PREFIX + MAGIC);
+    writeNumber(str, format);
+    if (format == BLOCKS)
+      writeNumber(str, code != null ? 1 : 0);
+    if (format == TRAINED)
+      CodeTable.writeName(str, table.getName(), table.getVersion());
+    else if (format == CONTEXT)
+      context.write(str);
+    else if (code != null)
+      writeCode(str, code);
+    return str.toString();
+  }
+
+  /**
+    * Append the characters and codeword lengths of a code.
+    * @param str the nucleotides
+    * @param code the code
+    */
+  public static void writeCode(StringBuilder str, CanonicalCode code) {
+    int[] symbols = code.getSymbols();
+    java.util.Arrays.sort(symbols);
+    writeNumber(str, symbols.length);
+    int previous = -1;
+    for (int s : symbols) {
+      writeNumber(str, s - previous - 1);
+      writeNumber(str, code.getLength(s));
+      previous = s;
+    }
+  }
+
+  /**
+    * Read the characters and codeword lengths of a code.
+    * @param in the DNA
+    * @return the code
+    * @throws IOException if the DNA cannot be read or does not hold a valid code
+    */
+  public static CanonicalCode readCode(Reader in) throws IOException {
+    long n = readNumber(in);
+    if (n > Character.MAX_CODE_POINT + 1)
+      throw new IOException("Header lists too many characters.");
+    int[] symbols = new int[(int)n];
+    int[] lengths = new int[(int)n];
+    long previous = -1;
+    for (int i = 0; i < n; i++) {
+      previous += readNumber(in) + 1;
+      if (previous > Character.MAX_CODE_POINT)
+        throw new IOException("Header lists an invalid character.");
+      symbols[i] = (int)previous;
+      lengths[i] = (int)Math.min(readNumber(in), Integer.MAX_VALUE);
+    }
+    try {
+      return new CanonicalCode(symbols, lengths);
+    }
+    catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /**
+    * Read a header whose first two nucleotides, PREFIX, have already been read to tell it apart from a legacy barcode.
+    * @param in the DNA
+    * @return the header
+    * @throws IOException if the DNA cannot be read or does not hold a valid header
+    */
+  public static StrandHeader read(Reader in) throws IOException {
+    if (readBase(in) != 3 || readBase(in) != 3)
+      throw new IOException("Not a DNA header.");
+    int format = (int)readNumber(in);
+    if (format == CANONICAL)
+      return new StrandHeader(format, readCode(in));
+    if (format == BLOCKS)
+      return new StrandHeader(format, readNumber(in) != 0 ? readCode(in) : null);
+    if (format == ADAPTIVE || format == ARCHIVE)
+      return new StrandHeader(format, null);
+    if (format == TRAINED) {
+      String name = CodeTable.readName(in);
+      return new StrandHeader(CodeTable.find(name, (int)Math.min(readNumber(in), Integer.MAX_VALUE)));
+    }
+    if (format == SAMPLED) {
+      CanonicalCode code = readCode(in);
+      if (!CodeTable.isEscaped(code))
+        throw new IOException("Sampled code has no escape.");
+      return sampled(code);
+    }
+    if (format == CONTEXT)
+      return new StrandHeader(ContextModel.read(in));
+    if (format == BYTES) {
+      CanonicalCode code = readCode(in);
+      int[] symbols = code.getSymbols();
+      for (int s : symbols) {
+        if (s >= ByteCodec.ALPHABET)
+          throw new IOException("Header lists an invalid byte.");
+      }
+      return new StrandHeader(format, code);
+    }
+    throw new IOException("Unsupported DNA format " + format + ".");
+  }
+
+  /**
+    * Append a number to the nucleotides.
+    * @param str the nucleotides
+    * @param value the number, which must not be negative
+    */
+  public static void writeNumber(StringBuilder str, long value) {
+    do {
+      int group = (int)(value & 7);
+      value >>>= 3;
+      if (value != 0)
+        group |= 8;
+      str.append(NUCLEOTIDES[group >> 2]).append(NUCLEOTIDES[group & 3]);
+    } while (value != 0);
+  }
+
+  /**
+    * Read a number from the DNA.
+    * @param in the DNA
+    * @return the number
+    * @throws IOException if the DNA ends or the number is too large
+    */
+  public static long readNumber(Reader in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 63; shift += 3) {
+      int group = (readBase(in) << 2) | readBase(in);
+      value |= (long)(group & 7) << shift;
+      if ((group & 8) == 0)
+        return value;
+    }
+    throw new IOException("Number in the DNA header is too large.");
+  }
+
+  /**
+    * Read one nucleotide from the DNA.
+    * @param in the DNA
+    * @return the nucleotide code
+    * @throws IOException if the DNA ends or the char is not a nucleotide
+    */
+  public static int readBase(Reader in) throws IOException {
+    int c = in.read();
+    if (c == -1)
+      throw new EOFException("DNA ended inside the header.");
+    int b = DecodeTable.base(c);
+    if (b < 0)
+      throw new IOException("Invalid nucleotide: " + (char)c);
+    return b;
+  }
+
+}
@@ -0,0 +1,115 @@
+import jdk.incubator.vector.*;
+
+/**
+  * NucleotideKernels on the jdk.incubator.vector API. Characters are loaded as short lanes of the preferred width; validation and counting compare whole
+  * vectors against the four nucleotides, packing shifts every code into place and folds each group of four lanes into one byte, and unpacking spreads each
+  * byte over four lanes and selects the nucleotide of every code. The tail shorter than a vector is left to the scalar kernels.
+  * <p>
+  * Compiled and loaded only with "--add-modules jdk.incubator.vector"; NucleotideKernels.get() falls back to the scalar kernels without it.
+  */
+public class VectorKernels extends NucleotideKernels {
+
+  /** the short lanes of the preferred width */
+  private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+  /** the byte lanes used to load and store one byte per four nucleotides */
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;
+  /** the amount each lane's code is shifted by within its byte: 6, 4, 2, 0, repeated */
+  private static final ShortVector SHIFTS;
+  /** the shuffle copying byte k of a vector to lanes 4k to 4k + 3 */
+  private static final VectorShuffle<Short> SPREAD;
+  /** the number of bytes packed or unpacked per vector */
+  private static final int BYTES_PER_VECTOR = SHORTS.length() / 4;
+
+  static {
+    short[] shifts = new short[SHORTS.length()];
+    int[] spread = new int[SHORTS.length()];
+    for (int i = 0; i < shifts.length; i++) {
+      shifts[i] = (short)(6 - 2 * (i & 3));
+      spread[i] = i / 4;
+    }
+    SHIFTS = ShortVector.fromArray(SHORTS, shifts, 0);
+    SPREAD = VectorShuffle.fromArray(SHORTS, spread, 0);
+  }
+
+  /**
+    * Check that the vector species are usable, so that loading fails early on hardware or runtimes without them.
+    */
+  public VectorKernels() {
+    if (SHORTS.length() < 8 || BYTES_PER_VECTOR > BYTES.length())
+      throw new UnsupportedOperationException("Vectors of " + SHORTS.length() + " shorts are not supported.");
+  }
+
+  @Override
+  public String getName() {
+    return "vector";
+  }
+
+  @Override
+  public int findInvalid(char[] bases, int from, int to) {
+    int i = from;
+    for (int bound = from + SHORTS.loopBound(to - from); i < bound; i += SHORTS.length()) {
+      ShortVector v = ShortVector.fromCharArray(SHORTS, bases, i);
+      VectorMask<Short> valid = v.eq((short)'A').or(v.eq((short)'C')).or(v.eq((short)'G')).or(v.eq((short)'T'));
+      if (!valid.allTrue())
+        return i + valid.not().firstTrue();
+    }
+    return super.findInvalid(bases, i, to);
+  }
+
+  @Override
+  public void pack(char[] bases, int from, int bytes, byte[] out, int pos) {
+    int k = 0;
+    for (; k + BYTES_PER_VECTOR <= bytes; k += BYTES_PER_VECTOR) {
+      ShortVector v = ShortVector.fromCharArray(SHORTS, bases, from + 4 * k);
+      /** The code is bit 1 of the character followed by bit 2. */
+      ShortVector codes = v.and((short)2).or(v.lanewise(VectorOperators.LSHR, 2).and((short)1));
+      LongVector words = codes.lanewise(VectorOperators.LSHL, SHIFTS).reinterpretAsLongs();
+      LongVector folded = words.or(words.lanewise(VectorOperators.LSHR, 16))
+                               .or(words.lanewise(VectorOperators.LSHR, 32))
+                               .or(words.lanewise(VectorOperators.LSHR, 48))
+                               .and(0xFFL);
+      ByteVector packed = (ByteVector)folded.convertShape(VectorOperators.L2B, BYTES, 0);
+      packed.intoArray(out, pos + k, BYTES.indexInRange(0, BYTES_PER_VECTOR));
+    }
+    super.pack(bases, from + 4 * k, bytes - k, out, pos + k);
+  }
+
+  @Override
+  public void unpack(byte[] packed, int from, int bytes, char[] out, int pos) {
+    int k = 0;
+    VectorMask<Byte> load = BYTES.indexInRange(0, BYTES_PER_VECTOR);
+    for (; k + BYTES_PER_VECTOR <= bytes; k += BYTES_PER_VECTOR) {
+      ByteVector b = ByteVector.fromArray(BYTES, packed, from + k, load);
+      ShortVector spread = ((ShortVector)b.convertShape(VectorOperators.B2S, SHORTS, 0)).rearrange(SPREAD);
+      ShortVector codes = spread.lanewise(VectorOperators.LSHR, SHIFTS).and((short)3);
+      ShortVector chars = ShortVector.broadcast(SHORTS, (short)'A')
+                                     .blend((short)'T', codes.eq((short)1))
+                                     .blend((short)'C', codes.eq((short)2))
+                                     .blend((short)'G', codes.eq((short)3));
+      chars.intoCharArray(out, pos + 4 * k);
+    }
+    super.unpack(packed, from + k, bytes - k, out, pos + 4 * k);
+  }
+
+  @Override
+  public void count(char[] bases, int from, int to, long[] counts) {
+    int i = from;
+    long a = 0;
+    long t = 0;
+    long c = 0;
+    long g = 0;
+    for (int bound = from + SHORTS.loopBound(to - from); i < bound; i += SHORTS.length()) {
+      ShortVector v = ShortVector.fromCharArray(SHORTS, bases, i);
+      a += v.eq((short)'A').trueCount();
+      t += v.eq((short)'T').trueCount();
+      c += v.eq((short)'C').trueCount();
+      g += v.eq((short)'G').trueCount();
+    }
+    counts[0] += a;
+    counts[1] += t;
+    counts[2] += c;
+    counts[3] += g;
+    super.count(bases, i, to, counts);
+  }
+
+}
@@ -0,0 +1,221 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+  * The stages of compression and decompression as benchmark operations. JMH refuses benchmarks in the default package, and a named package cannot import the
+  * classes of this repository, so the JMH benchmarks reach the stages through this class by name and call them as plain Callables.
+  * <p>
+  * Each stage is a Callable that prepares the state the stage consumes, such as a counted input for createTree() or a tree for traverse(), and returns the
+  * Callable that runs the stage itself, so that only the stage is timed.
+  */
+public class BenchmarkStages {
+
+  /** the names of the stages */
+  public static final String[] STAGES = {"readInput", "createTree", "traverse", "canonicalCode", "encode", "huffmanCode", "decompress",
+    "decompressTable", "execute", "pack", "unpack", "countBases", "contextEncode", "contextCode", "contextExecute"};
+
+  /** the corpus */
+  private File input;
+  /** the corpus compressed by huffmanCode() */
+  private File dna;
+  /** the corpus compressed by contextCode() */
+  private File contextDna;
+  /** the file written by stages with output */
+  private File output;
+  /** the characters of the corpus */
+  private String text;
+  /** the nucleotides of the compressed corpus */
+  private char[] bases;
+
+  /**
+    * Generate a corpus and compress it for the decompression stages.
+    * @param kind the kind of corpus, one of CorpusGenerator.KINDS
+    * @param size the number of characters
+    * @throws IOException if the temporary files cannot be written
+    */
+  public BenchmarkStages(String kind, int size) throws IOException {
+    input = File.createTempFile("corpus-" + kind, ".txt");
+    dna = File.createTempFile("corpus-" + kind, ".dna");
+    contextDna = File.createTempFile("corpus-" + kind, ".ctx");
+    output = File.createTempFile("corpus-" + kind, ".out");
+    CorpusGenerator.write(kind, size, 42, input);
+    text = new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8);
+    new HuffmanCompressor(input.getPath(), dna.getPath()).huffmanCode(input.getPath(), dna.getPath());
+    new HuffmanCompressor(input.getPath(), contextDna.getPath()).contextCode(input.getPath(), contextDna.getPath());
+    bases = new String(Files.readAllBytes(dna.toPath()), StandardCharsets.US_ASCII).trim().toCharArray();
+  }
+
+  /**
+    * Return a stage.
+    * @param name one of STAGES
+    * @return a Callable that prepares the stage and returns the Callable running it
+    * @throws IllegalArgumentException if the stage is unknown
+    */
+  public Callable<Callable<Object>> stage(String name) {
+    String in = input.getPath();
+    switch (name) {
+      case "readInput":
+        return () -> {
+          HuffmanCompressor h = new HuffmanCompressor(in, output.getPath());
+          return () -> {
+            h.readInput(in);
+            return h;
+          };
+        };
+      case "createTree":
+        return () -> {
+          HuffmanCompressor h = counted();
+          return () -> {
+            h.createTree();
+            return h.getReadList();
+          };
+        };
+      case "traverse":
+        return () -> {
+          HuffmanCompressor h = counted();
+          h.createTree();
+          HuffmanNode root = h.getReadList().get(0);
+          return () -> {
+            h.traverse(root);
+            return h.getReadArray();
+          };
+        };
+      case "canonicalCode":
+        return () -> {
+          HuffmanCompressor h = counted();
+          return h::canonicalCode;
+        };
+      case "encode":
+        return () -> {
+          CanonicalCode code = counted().canonicalCode();
+          return () -> {
+            HuffmanCompressor.encode(new StringReader(text), Writer.nullWriter(), code);
+            return code;
+          };
+        };
+      case "huffmanCode":
+        return () -> {
+          HuffmanCompressor h = new HuffmanCompressor(in, output.getPath());
+          return () -> {
+            h.huffmanCode(in, output.getPath());
+            return h;
+          };
+        };
+      case "decompress":
+        return () -> {
+          Decompressor d = loaded();
+          return () -> {
+            d.decompress();
+            return d.getWriteList();
+          };
+        };
+      case "decompressTable":
+        return () -> {
+          Decompressor d = loaded();
+          return () -> {
+            d.decompressTable();
+            return d.getWriteList();
+          };
+        };
+      case "execute":
+        return () -> {
+          Decompressor d = new Decompressor();
+          return () -> {
+            d.execute(dna.getPath(), output.getPath());
+            return d;
+          };
+        };
+      case "pack":
+        return () -> {
+          NucleotideKernels k = NucleotideKernels.get();
+          byte[] packed = new byte[bases.length / 4];
+          return () -> {
+            k.pack(bases, 0, packed.length, packed, 0);
+            return packed;
+          };
+        };
+      case "unpack":
+        return () -> {
+          NucleotideKernels k = NucleotideKernels.get();
+          byte[] packed = new byte[bases.length / 4];
+          k.pack(bases, 0, packed.length, packed, 0);
+          char[] unpacked = new char[4 * packed.length];
+          return () -> {
+            k.unpack(packed, 0, packed.length, unpacked, 0);
+            return unpacked;
+          };
+        };
+      case "countBases":
+        return () -> {
+          NucleotideKernels k = NucleotideKernels.get();
+          return () -> {
+            long[] counts = new long[4];
+            k.count(bases, 0, bases.length, counts);
+            return counts;
+          };
+        };
+      case "contextEncode":
+        return () -> {
+          ContextModel model = ContextModel.count(new StringReader(text), CanonicalCode.MAX_LENGTH);
+          return () -> {
+            model.encode(new StringReader(text), Writer.nullWriter());
+            return model;
+          };
+        };
+      case "contextCode":
+        return () -> {
+          HuffmanCompressor h = new HuffmanCompressor(in, output.getPath());
+          return () -> {
+            h.contextCode(in, output.getPath());
+            return h;
+          };
+        };
+      case "contextExecute":
+        return () -> {
+          Decompressor d = new Decompressor();
+          return () -> {
+            d.execute(contextDna.getPath(), output.getPath());
+            return d;
+          };
+        };
+      default:
+        throw new IllegalArgumentException("Unknown stage: " + name);
+    }
+  }
+
+  /**
+    * Create a HuffmanCompressor that has counted the corpus.
+    * @return the compressor
+    */
+  private HuffmanCompressor counted() {
+    HuffmanCompressor h = new HuffmanCompressor(input.getPath(), output.getPath());
+    h.readInput(input.getPath());
+    return h;
+  }
+
+  /**
+    * Create a Decompressor holding the compressed corpus and its tree, ready to decompress in memory.
+    * @return the decompressor
+    */
+  private Decompressor loaded() {
+    Decompressor d = new Decompressor();
+    d.readFile(dna.getPath());
+    d.decodeBarcode();
+    d.createTree();
+    return d;
+  }
+
+  /**
+    * Delete the temporary files.
+    */
+  public void close() {
+    input.delete();
+    dna.delete();
+    contextDna.delete();
+    output.delete();
+  }
+
+}
@@ -0,0 +1,94 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+  * Generate reproducible text corpora for the benchmarks. Every kind is drawn from a seeded Random, so the same kind, size and seed always give the same text.
+  */
+public class CorpusGenerator {
+
+  /** the kinds of corpus */
+  public static final String[] KINDS = {"ascii", "skewed", "uniform", "unicode"};
+  /** the words of the ASCII prose, most frequent first */
+  private static final String[] WORDS = {"the", "of", "and", "to", "a", "in", "is", "that", "it", "was", "for", "on", "are", "with", "as", "be", "at", "by",
+    "this", "from", "or", "have", "an", "which", "one", "not", "but", "all", "were", "when", "there", "can", "each", "their", "tree", "node", "code", "base",
+    "strand", "huffman", "nucleotide", "frequency", "character", "compression", "decoder", "quaternary", "sequence", "length", "symbol", "table"};
+  /** the alphabets mixed into the Unicode-heavy corpus: Latin, Greek, Cyrillic, CJK, Hiragana */
+  private static final int[][] SCRIPTS = {{0x0061, 26}, {0x03b1, 25}, {0x0430, 32}, {0x4e00, 2000}, {0x3041, 86}};
+
+  /**
+    * Generate a corpus.
+    * @param kind one of KINDS
+    * @param size the number of characters
+    * @param seed the seed of the random generator
+    * @return the text
+    * @throws IllegalArgumentException if the kind is unknown
+    */
+  public static String generate(String kind, int size, long seed) {
+    Random random = new Random(seed);
+    StringBuilder str = new StringBuilder(size + 16);
+    switch (kind) {
+      case "ascii":
+        /** Zipf-distributed words with punctuation and line breaks. */
+        while (str.length() < size) {
+          str.append(WORDS[(int)Math.min(WORDS.length - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(WORDS.length + 1)) - 1))]);
+          int r = random.nextInt(20);
+          str.append(r == 0 ? ".\n" : r == 1 ? ", " : " ");
+        }
+        break;
+      case "skewed":
+        /** A geometric distribution over 64 characters, so a few dominate and the rest form a long tail. */
+        while (str.length() < size)
+          str.append((char)('0' + Math.min(63, (int)(Math.log(1 - random.nextDouble()) / Math.log(0.7)))));
+        break;
+      case "uniform":
+        /** Every printable ASCII character equally likely, the worst case for a Huffman code. */
+        while (str.length() < size)
+          str.append((char)(' ' + 1 + random.nextInt(94)));
+        break;
+      case "unicode":
+        /** Runs of text in one script at a time, with spaces between words. */
+        while (str.length() < size) {
+          int[] script = SCRIPTS[random.nextInt(SCRIPTS.length)];
+          for (int w = 0; w < 8 && str.length() < size; w++) {
+            for (int i = 1 + random.nextInt(6); i > 0; i--)
+              str.append((char)(script[0] + random.nextInt(script[1])));
+            str.append(' ');
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown corpus kind: " + kind);
+    }
+    str.setLength(size);
+    return str.toString();
+  }
+
+  /**
+    * Write a corpus to a file in UTF-8.
+    * @param kind one of KINDS
+    * @param size the number of characters
+    * @param seed the seed of the random generator
+    * @param file the file to write
+    * @throws IOException if the file cannot be written
+    */
+  public static void write(String kind, int size, long seed, File file) throws IOException {
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      w.write(generate(kind, size, seed));
+    }
+  }
+
+  /**
+    * Write a corpus to a file.
+    * @param args the kind, the number of characters, the output file, and optionally the seed
+    */
+  public static void main(String[] args) {
+    try {
+      write(args[0], Integer.parseInt(args[1]), args.length > 3 ? Long.parseLong(args[3]) : 42, new File(args[2]));
+    }
+    catch (IOException e) {
+      System.out.println("Input / output exception: " + e.getMessage());
+    }
+  }
+
+}
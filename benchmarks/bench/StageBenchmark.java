@@ -0,0 +1,79 @@
+package bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+  * JMH benchmark of every stage of compression and decompression over every kind of generated corpus. The stages are looked up by name in BenchmarkStages,
+  * which lives in the default package with the rest of the code, and each invocation is prepared outside the timed region.
+  */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Dfile.encoding=UTF-8", "--add-modules", "jdk.incubator.vector"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StageBenchmark {
+
+  /** the stage, one of BenchmarkStages.STAGES */
+  @Param({"readInput", "createTree", "traverse", "canonicalCode", "encode", "huffmanCode", "decompress", "decompressTable", "execute", "pack", "unpack",
+    "countBases", "contextEncode", "contextCode", "contextExecute"})
+  public String stage;
+
+  /** the kind of corpus, one of CorpusGenerator.KINDS */
+  @Param({"ascii", "skewed", "uniform", "unicode"})
+  public String corpus;
+
+  /** the number of characters in the corpus */
+  @Param({"1048576"})
+  public int size;
+
+  /** the BenchmarkStages holding the corpus */
+  private Object stages;
+  /** prepares the stage and returns the Callable running it */
+  private Callable<Callable<Object>> factory;
+  /** the prepared stage */
+  private Callable<Object> prepared;
+
+  /**
+    * Generate the corpus and look up the stage.
+    * @throws Exception if the corpus cannot be written
+    */
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    Class<?> type = Class.forName("BenchmarkStages");
+    stages = type.getConstructor(String.class, int.class).newInstance(corpus, size);
+    factory = (Callable<Callable<Object>>)type.getMethod("stage", String.class).invoke(stages, stage);
+  }
+
+  /**
+    * Prepare the state consumed by one run of the stage.
+    * @throws Exception if the stage cannot be prepared
+    */
+  @Setup(Level.Invocation)
+  public void prepare() throws Exception {
+    prepared = factory.call();
+  }
+
+  /**
+    * Run the stage.
+    * @return the result of the stage, so it is not optimized away
+    * @throws Exception if the stage fails
+    */
+  @Benchmark
+  public Object run() throws Exception {
+    return prepared.call();
+  }
+
+  /**
+    * Delete the corpus.
+    * @throws Exception if the files cannot be deleted
+    */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    stages.getClass().getMethod("close").invoke(stages);
+  }
+
+}